@@ -0,0 +1,106 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Key of a cached response: the SHA-256 digest of everything which determines the response,
+ * so that equal requests share an entry wherever they come from, and the key of a large
+ * document takes no more room than that of a small one.
+ */
+public final class CacheKey {
+
+    /**
+    * The size in bytes of a key.
+    */
+    public static final int SIZE = 32;
+
+    private final byte[] digest;
+
+    private final int hash;
+
+    private CacheKey(byte[] digest) {
+        this.digest = digest;
+        this.hash = ByteBuffer.wrap(digest).getInt();
+    }
+
+    /**
+    * Create the key of the given parts. Each part is hashed with its length, so that
+    * no two different lists of parts have the same key.
+    *
+    * @param parts the values which determine the response, <code>null</code> parts are allowed
+    * @return the key
+    */
+    public static CacheKey of(String... parts) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        for(String part : parts) {
+            length.clear();
+            if(part == null) {
+                sha.update(length.putInt(-1).array());
+            } else {
+                byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+                sha.update(length.putInt(bytes.length).array());
+                sha.update(bytes);
+            }
+        }
+        return new CacheKey(sha.digest());
+    }
+
+    /**
+    * Read a key written with {@link #writeTo(ByteBuffer)}.
+    */
+    static CacheKey readFrom(ByteBuffer buffer) {
+        byte[] digest = new byte[SIZE];
+        buffer.get(digest);
+        return new CacheKey(digest);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(digest);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CacheKey && Arrays.equals(digest, ((CacheKey)o).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder(SIZE * 2);
+        for(byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
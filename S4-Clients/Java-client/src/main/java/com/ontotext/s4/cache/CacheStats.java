@@ -0,0 +1,118 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+/**
+ * Statistics of a {@link ServiceResponseCache} at one point in time.
+ */
+public class CacheStats {
+
+    private final long memoryHits;
+
+    private final long diskHits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long diskErrors;
+
+    private final int memoryEntries;
+
+    private final long memoryBytes;
+
+    public CacheStats(long memoryHits, long diskHits, long misses, long evictions, long diskErrors,
+                      int memoryEntries, long memoryBytes) {
+        this.memoryHits = memoryHits;
+        this.diskHits = diskHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.diskErrors = diskErrors;
+        this.memoryEntries = memoryEntries;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+    * @return the number of lookups answered from either tier
+    */
+    public long getHits() {
+        return memoryHits + diskHits;
+    }
+
+    /**
+    * @return the number of lookups answered from the heap
+    */
+    public long getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+    * @return the number of lookups answered from disk
+    */
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+    * @return the number of lookups which had to go to the service
+    */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+    * @return the share of the lookups which were hits, 0 before any lookup
+    */
+    public double getHitRate() {
+        long lookups = getHits() + misses;
+        return lookups == 0 ? 0 : (double)getHits() / lookups;
+    }
+
+    /**
+    * @return the number of entries evicted from the heap
+    */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+    * @return the number of failed reads and writes of the disk tier, which count as misses
+    */
+    public long getDiskErrors() {
+        return diskErrors;
+    }
+
+    /**
+    * @return the number of entries in the heap
+    */
+    public int getMemoryEntries() {
+        return memoryEntries;
+    }
+
+    /**
+    * @return the estimated number of bytes taken by the entries in the heap
+    */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d (memory=%d disk=%d) misses=%d hitRate=%.3f evictions=%d entries=%d bytes=%d",
+                getHits(), memoryHits, diskHits, misses, getHitRate(), evictions, memoryEntries, memoryBytes);
+    }
+}
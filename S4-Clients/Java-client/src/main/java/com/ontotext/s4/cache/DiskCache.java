@@ -0,0 +1,235 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent tier of a {@link ServiceResponseCache}, kept in two files of a directory so that
+ * it survives restarts.
+ * <p>
+ * The "data" file is a ring of the given capacity to which values are appended; once full,
+ * new values overwrite the oldest ones, so the tier evicts in insertion order. The "index"
+ * file is memory-mapped and holds a fixed number of slots, each with the key, position,
+ * length and checksum of a value, found by linear probing from the hash of the key. A slot
+ * whose value has been overwritten in the ring is free to reuse; when all slots near the
+ * home of a key are taken, the first one is replaced. Values are checked against their
+ * checksum when read, so a value torn by a crash reads as a miss.
+ * <p>
+ * The directory is locked while the tier is open and can not be shared by two caches.
+ */
+final class DiskCache implements Closeable {
+
+    private static final int MAGIC = 0x53344443;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_SIZE = 48;
+
+    private static final int MAX_PROBES = 16;
+
+    private final FileChannel indexChannel;
+
+    private final FileChannel dataChannel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer index;
+
+    private final int slots;
+
+    private final long capacity;
+
+    /**
+    * The position in the ring, counted from its creation, at which the next value is written.
+    */
+    private long head;
+
+    /**
+    * Open the tier in a directory, reusing its contents if they were written with the same sizes.
+    *
+    * @param directory the directory of the files, created if missing
+    * @param capacity the size in bytes of the data file
+    * @param slots the number of values the index can hold
+    * @throws IOException if the files can not be opened or the directory is in use
+    */
+    DiskCache(Path directory, long capacity, int slots) throws IOException {
+        this.capacity = capacity;
+        this.slots = slots;
+        Files.createDirectories(directory);
+        indexChannel = FileChannel.open(directory.resolve("index"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            try {
+                lock = indexChannel.tryLock();
+            } catch(OverlappingFileLockException e) {
+                throw new IOException("The cache directory " + directory + " is in use", e);
+            }
+            if(lock == null) {
+                throw new IOException("The cache directory " + directory + " is in use");
+            }
+            dataChannel = FileChannel.open(directory.resolve("data"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch(IOException e) {
+            indexChannel.close();
+            throw e;
+        }
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)slots * SLOT_SIZE);
+        if(index.getInt(0) == MAGIC && index.getInt(4) == VERSION && index.getInt(8) == slots
+                && index.getLong(12) == capacity) {
+            head = index.getLong(20);
+        } else {
+            clear();
+        }
+    }
+
+    synchronized byte[] get(CacheKey key) throws IOException {
+        int slot = find(key, false);
+        if(slot < 0) {
+            return null;
+        }
+        int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        long position = index.getLong(offset + CacheKey.SIZE) - 1;
+        int length = index.getInt(offset + CacheKey.SIZE + 8);
+        if(!isLive(position)) {
+            return null;
+        }
+        ByteBuffer value = ByteBuffer.allocate(length);
+        long physical = position % capacity;
+        while(value.hasRemaining()) {
+            if(dataChannel.read(value, physical + value.position()) < 0) {
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(value.array());
+        if((int)crc.getValue() != index.getInt(offset + CacheKey.SIZE + 12)) {
+            return null;
+        }
+        return value.array();
+    }
+
+    synchronized void put(CacheKey key, byte[] value) throws IOException {
+        if(value.length > capacity) {
+            return;
+        }
+        long physical = head % capacity;
+        if(physical + value.length > capacity) {
+            // values do not wrap around, the rest of the ring is skipped
+            head += capacity - physical;
+            physical = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        while(buffer.hasRemaining()) {
+            dataChannel.write(buffer, physical + buffer.position());
+        }
+        long position = head;
+        head += value.length;
+        index.putLong(20, head);
+
+        CRC32 crc = new CRC32();
+        crc.update(value);
+        int offset = HEADER_SIZE + find(key, true) * SLOT_SIZE;
+        ByteBuffer slot = index.duplicate();
+        slot.position(offset);
+        key.writeTo(slot);
+        slot.putLong(position + 1).putInt(value.length).putInt((int)crc.getValue());
+    }
+
+    synchronized void clear() {
+        for(int i = 0; i < HEADER_SIZE + slots * SLOT_SIZE; i += 8) {
+            index.putLong(i, 0);
+        }
+        head = 0;
+        index.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slots).putLong(12, capacity).putLong(20, head);
+    }
+
+    /**
+    * @return the number of values the tier holds
+    */
+    synchronized int size() {
+        int size = 0;
+        for(int slot = 0; slot < slots; slot++) {
+            long position = index.getLong(HEADER_SIZE + slot * SLOT_SIZE + CacheKey.SIZE);
+            if(position != 0 && isLive(position - 1)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            index.force();
+            dataChannel.force(false);
+        } finally {
+            try {
+                dataChannel.close();
+            } finally {
+                lock.release();
+                indexChannel.close();
+            }
+        }
+    }
+
+    /**
+    * @param key the key to look for
+    * @param forWriting whether to return a slot for writing the key when it is not found
+    * @return the slot holding the key, or a slot to write it to, or -1 if it is not found for reading
+    */
+    private int find(CacheKey key, boolean forWriting) {
+        int home = (key.hashCode() & Integer.MAX_VALUE) % slots;
+        int free = -1;
+        for(int probe = 0; probe < Math.min(MAX_PROBES, slots); probe++) {
+            int slot = (home + probe) % slots;
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long position = index.getLong(offset + CacheKey.SIZE);
+            if(position == 0) {
+                // keys are never removed, so the probe sequence of the key ends here
+                return forWriting ? (free >= 0 ? free : slot) : -1;
+            }
+            ByteBuffer stored = index.duplicate();
+            stored.position(offset);
+            if(CacheKey.readFrom(stored).equals(key)) {
+                return slot;
+            }
+            if(free < 0 && !isLive(position - 1)) {
+                free = slot;
+            }
+        }
+        return forWriting ? (free >= 0 ? free : home) : -1;
+    }
+
+    /**
+    * @return whether the value written at the given position has not been overwritten yet
+    */
+    private boolean isLive(long position) {
+        return position >= head - capacity;
+    }
+}
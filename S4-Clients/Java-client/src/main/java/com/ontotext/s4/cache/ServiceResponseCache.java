@@ -0,0 +1,241 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ontotext.s4.client.ResponseStream;
+
+/**
+ * Cache of service responses by {@link CacheKey}, so that a document annotated before costs
+ * neither a round-trip nor quota. Responses are kept as the bytes received, and parsed anew
+ * for every caller.
+ * <p>
+ * The first tier is in the heap, bounded by the total size of the responses, and keeps those
+ * requested most often (see {@link TinyLfuCache}). An optional second tier on disk is larger,
+ * survives restarts and fills the first tier on a hit. Responses are written to both tiers.
+ * A failing disk is counted in the {@link #getStats() statistics} and otherwise ignored.
+ * <p>
+ * A cache is thread-safe and may be shared by clients of different services, whose keys
+ * differ by the service URL.
+ */
+public class ServiceResponseCache implements Closeable {
+
+    private final TinyLfuCache memory;
+
+    private final DiskCache disk;
+
+    private final long maxMemoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong diskErrors = new AtomicLong();
+
+    /**
+    * Create a cache kept in the heap only.
+    *
+    * @param maxMemoryBytes the total size in bytes of the responses kept in the heap
+    */
+    public ServiceResponseCache(long maxMemoryBytes) {
+        this.memory = new TinyLfuCache(maxMemoryBytes);
+        this.disk = null;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+    * Create a cache with a persistent tier, which is reused if the directory holds one of the same size.
+    *
+    * @param maxMemoryBytes the total size in bytes of the responses kept in the heap
+    * @param directory the directory of the disk tier
+    * @param maxDiskBytes the total size in bytes of the responses kept on disk
+    * @throws IOException if the disk tier can not be opened, or another cache uses the directory
+    */
+    public ServiceResponseCache(long maxMemoryBytes, Path directory, long maxDiskBytes) throws IOException {
+        this.memory = new TinyLfuCache(maxMemoryBytes);
+        // room in the index for responses of 2 KB on average
+        this.disk = new DiskCache(directory, maxDiskBytes, (int)Math.min(Math.max(1024, maxDiskBytes / 2048), 1 << 24));
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+    * @param key the key of the response
+    * @return the response, which must not be modified, or <code>null</code> if it is not cached
+    */
+    public byte[] get(CacheKey key) {
+        byte[] value = memory.get(key);
+        if(value != null) {
+            memoryHits.incrementAndGet();
+            return value;
+        }
+        if(disk != null) {
+            try {
+                value = disk.get(key);
+            } catch(IOException e) {
+                diskErrors.incrementAndGet();
+            }
+            if(value != null) {
+                diskHits.incrementAndGet();
+                memory.put(key, value);
+                return value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+    * @param key the key of the response
+    * @param value the response, which must not be modified afterwards
+    */
+    public void put(CacheKey key, byte[] value) {
+        memory.put(key, value);
+        if(disk != null) {
+            try {
+                disk.put(key, value);
+            } catch(IOException e) {
+                diskErrors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+    * @param key the key of the response
+    * @return a stream of the response, or <code>null</code> if it is not cached
+    */
+    public ResponseStream getStream(CacheKey key) {
+        byte[] value = get(key);
+        return value == null ? null : new CachedResponseStream(new ByteArrayInputStream(value));
+    }
+
+    /**
+    * Wrap a response so that it is cached once it has been read to the end. Responses larger
+    * than the heap tier, or closed before their end, are not cached.
+    *
+    * @param key the key of the response
+    * @param response the response from the service
+    * @return a stream of the same response
+    */
+    public ResponseStream cacheStream(CacheKey key, ResponseStream response) {
+        return new CachedResponseStream(new RecordingInputStream(key, response));
+    }
+
+    /**
+    * Remove all responses from both tiers.
+    */
+    public void clear() {
+        memory.clear();
+        if(disk != null) {
+            disk.clear();
+        }
+    }
+
+    public CacheStats getStats() {
+        return new CacheStats(memoryHits.get(), diskHits.get(), misses.get(), memory.evictions(),
+                diskErrors.get(), memory.size(), memory.weight());
+    }
+
+    /**
+    * Close the disk tier, writing its index out.
+    */
+    public void close() throws IOException {
+        if(disk != null) {
+            disk.close();
+        }
+    }
+
+    private static class CachedResponseStream extends ResponseStream {
+
+        CachedResponseStream(InputStream in) {
+            super(in);
+        }
+    }
+
+    /**
+    * Copies what is read from a response into a buffer, and caches the buffer at the end of the response.
+    */
+    private class RecordingInputStream extends FilterInputStream {
+
+        private final CacheKey key;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        RecordingInputStream(CacheKey key, InputStream in) {
+            super(in);
+            this.key = key;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b < 0) {
+                complete();
+            } else if(buffer != null) {
+                buffer.write(b);
+                limit();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if(read < 0) {
+                complete();
+            } else if(buffer != null) {
+                buffer.write(b, off, read);
+                limit();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes can not be recorded
+            buffer = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void limit() {
+            if(buffer.size() > maxMemoryBytes) {
+                buffer = null;
+            }
+        }
+
+        private void complete() {
+            if(buffer != null) {
+                put(key, buffer.toByteArray());
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-heap tier of a {@link ServiceResponseCache}, bounded by the total size of its values and
+ * evicting with the W-TinyLFU policy.
+ * <p>
+ * New entries go to a small LRU window (1% of the room), which lets bursts of new keys in
+ * without flushing the cache. Entries pushed out of the window compete for the main area
+ * against its least recently used entry, and the one seen less often according to the
+ * {@link FrequencySketch} is evicted, so documents annotated once do not displace those which
+ * keep coming back. The main area is a segmented LRU: entries hit again move from the probation
+ * segment to the protected one (80% of the main area).
+ */
+final class TinyLfuCache {
+
+    /**
+    * Estimated bytes taken by an entry besides its value.
+    */
+    static final int ENTRY_OVERHEAD = 128;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private final long maximumWeight;
+
+    private final long maximumWindowWeight;
+
+    private final long maximumProtectedWeight;
+
+    private final Map<CacheKey, Node> data = new HashMap<>();
+
+    /**
+    * The sentinels of the three LRU lists, least recently used first.
+    */
+    private final Node[] segments = { new Node(), new Node(), new Node() };
+
+    private final long[] weights = new long[3];
+
+    private final FrequencySketch sketch;
+
+    private long evictions;
+
+    /**
+    * @param maximumWeight the total size in bytes of the entries kept
+    */
+    TinyLfuCache(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        this.maximumWindowWeight = Math.max(1, maximumWeight / 100);
+        this.maximumProtectedWeight = (maximumWeight - maximumWindowWeight) * 8 / 10;
+        // assuming documents of a few KB
+        this.sketch = new FrequencySketch(maximumWeight / 4096);
+    }
+
+    synchronized byte[] get(CacheKey key) {
+        sketch.increment(key.hashCode());
+        Node node = data.get(key);
+        if(node == null) {
+            return null;
+        }
+        onHit(node);
+        return node.value;
+    }
+
+    synchronized void put(CacheKey key, byte[] value) {
+        long weight = weigh(value);
+        Node node = data.get(key);
+        if(weight > maximumWeight) {
+            // too large to ever be kept
+            if(node != null) {
+                remove(node);
+                data.remove(key);
+            }
+            return;
+        }
+        sketch.increment(key.hashCode());
+        if(node != null) {
+            weights[node.segment] += weight - node.weight;
+            node.value = value;
+            node.weight = weight;
+            onHit(node);
+        } else {
+            node = new Node(key, value, weight);
+            data.put(key, node);
+            append(WINDOW, node);
+        }
+        evict();
+    }
+
+    synchronized void clear() {
+        data.clear();
+        for(int i = 0; i < segments.length; i++) {
+            segments[i].previous = segments[i].next = segments[i];
+            weights[i] = 0;
+        }
+    }
+
+    synchronized int size() {
+        return data.size();
+    }
+
+    synchronized long weight() {
+        return weights[WINDOW] + weights[PROBATION] + weights[PROTECTED];
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    static long weigh(byte[] value) {
+        return value.length + ENTRY_OVERHEAD;
+    }
+
+    private void onHit(Node node) {
+        if(node.segment == PROBATION) {
+            remove(node);
+            append(PROTECTED, node);
+            // make room in the protected segment by demoting its oldest entries
+            while(weights[PROTECTED] > maximumProtectedWeight) {
+                Node oldest = segments[PROTECTED].next;
+                remove(oldest);
+                append(PROBATION, oldest);
+            }
+        } else {
+            int segment = node.segment;
+            remove(node);
+            append(segment, node);
+        }
+    }
+
+    private void evict() {
+        // entries leaving the window become candidates at the recent end of probation
+        while(weights[WINDOW] > maximumWindowWeight) {
+            Node candidate = segments[WINDOW].next;
+            remove(candidate);
+            append(PROBATION, candidate);
+        }
+        while(weight() > maximumWeight) {
+            Node victim = segments[PROBATION].next;
+            Node candidate = segments[PROBATION].previous;
+            if(victim == segments[PROBATION]) {
+                // probation is empty, take from the protected segment and then the window
+                victim = segments[PROTECTED].next != segments[PROTECTED]
+                        ? segments[PROTECTED].next : segments[WINDOW].next;
+                candidate = victim;
+            }
+            // the candidate is admitted only if it is seen more often than the victim
+            Node evicted = candidate == victim
+                    || sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())
+                    ? victim : candidate;
+            remove(evicted);
+            data.remove(evicted.key);
+            evictions++;
+        }
+    }
+
+    private void append(int segment, Node node) {
+        Node sentinel = segments[segment];
+        node.segment = segment;
+        node.previous = sentinel.previous;
+        node.next = sentinel;
+        sentinel.previous.next = node;
+        sentinel.previous = node;
+        weights[segment] += node.weight;
+    }
+
+    private void remove(Node node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = node.next = null;
+        weights[node.segment] -= node.weight;
+    }
+
+    private static class Node {
+
+        final CacheKey key;
+
+        byte[] value;
+
+        long weight;
+
+        int segment;
+
+        Node previous;
+
+        Node next;
+
+        /**
+        * Create a sentinel.
+        */
+        Node() {
+            this.key = null;
+            this.previous = this;
+            this.next = this;
+        }
+
+        Node(CacheKey key, byte[] value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -16,6 +16,9 @@
  */
 package com.ontotext.s4.catalog;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * "Structure" class to represent a single service.
@@ -33,9 +36,10 @@ public class ServiceDescriptor  {
     private String description;
 
     /**
-    * URL to process documents using the service endpoint.
+    * URLs of equivalent endpoints processing documents with the service, e.g. regional
+    * gateways or a caching proxy. The first one is the primary endpoint.
     */
-    private String serviceUrl;
+    private List<String> serviceUrls = Collections.emptyList();
 
     public String getName() {
         return this.name;
@@ -51,10 +55,30 @@ public class ServiceDescriptor  {
         this.description = description;
     }
 
+    /**
+    * @return the URL of the primary endpoint
+    */
     public String getServiceUrl() {
-        return this.serviceUrl;
+        return serviceUrls.isEmpty() ? null : serviceUrls.get(0);
     }
     public void setServiceUrl(String url) {
-        this.serviceUrl = url;
+        this.serviceUrls = url == null ? Collections.<String>emptyList() : Collections.singletonList(url);
+    }
+
+    /**
+    * @return the URLs of all endpoints of the service, the primary one first
+    */
+    public List<String> getServiceUrls() {
+        return serviceUrls;
+    }
+
+    /**
+    * Sets the endpoints of the service. Clients balance their requests between them
+    * and stop using endpoints which fail, until they recover.
+    *
+    * @param urls the endpoint URLs, the primary one first
+    */
+    public void setServiceUrls(List<String> urls) {
+        this.serviceUrls = Collections.unmodifiableList(new ArrayList<>(urls));
     }
 }
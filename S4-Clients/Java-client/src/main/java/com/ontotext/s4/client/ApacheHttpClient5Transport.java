@@ -0,0 +1,280 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.ManagedHttpClientConnectionFactory;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.routing.SystemDefaultRoutePlanner;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Transport sending requests through the classic API of Apache HttpClient 5, which must be
+ * on the classpath.
+ * <p>
+ * The engine keeps its own pool of HTTP/1.1 connections, with a bounded number of connections
+ * per route and in total, validation of connections which have been idle for a while and an
+ * optional time to live. Responses are read through a buffer of {@link #setBufferSize(int) its own},
+ * and the socket buffers can be sized as well. A streamed request body is written straight to
+ * the connection by the thread executing the request. Content decompression, redirects and
+ * retries are left to {@link HttpClient}.
+ * <p>
+ * A transport is installed on one pool (see {@link ConnectionPool#setTransport(Transport)}), whose
+ * connect timeout and TLS settings it takes when the first connection is made.
+ */
+public class ApacheHttpClient5Transport implements Transport {
+
+    /**
+    * Default size in bytes of the buffers of a connection.
+    */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+    * Default time in milliseconds after which an idle connection is validated before it is reused.
+    */
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private final int maxConnectionsPerRoute;
+
+    private final int maxConnections;
+
+    private int validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+
+    private long timeToLive = -1;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private int socketBufferSize;
+
+    /**
+    * The engine, created with the first connection.
+    */
+    private CloseableHttpClient client;
+
+    /**
+    * Create a transport keeping up to {@link ConnectionPool#DEFAULT_MAX_CONNECTIONS_PER_ROUTE} connections per route.
+    */
+    public ApacheHttpClient5Transport() {
+        this(ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE, ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+    * Create a transport.
+    *
+    * @param maxConnectionsPerRoute the maximum number of connections kept to a route
+    * @param maxConnections the maximum number of connections kept to all routes
+    */
+    public ApacheHttpClient5Transport(int maxConnectionsPerRoute, int maxConnections) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+    * @param validateAfterInactivity the time in milliseconds after which an idle connection is checked
+    *                                before it is reused, a negative value to never check it
+    */
+    public void setValidateAfterInactivity(int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+    * @param timeToLive the time in milliseconds after which a connection is closed instead of reused,
+    *                   a negative value to keep it for as long as the server does
+    */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+    * @param bufferSize the size in bytes of the buffers of a connection
+    */
+    public void setBufferSize(int bufferSize) {
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    /**
+    * @param socketBufferSize the size in bytes of the send and receive buffers of a socket, 0 for the system default
+    */
+    public void setSocketBufferSize(int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public TransportResponse execute(TransportRequest request, ConnectionPool pool) throws IOException {
+        final HttpUriRequestBase sent = new HttpUriRequestBase(request.getMethod(), request.getUri());
+        if(request.getReadTimeout() > 0) {
+            sent.setConfig(RequestConfig.custom()
+                    .setResponseTimeout(Timeout.ofMilliseconds(request.getReadTimeout()))
+                    .build());
+        }
+        for(String[] header : request.getHeaders()) {
+            sent.addHeader(header[0], header[1]);
+        }
+        if(request.getContent() != null) {
+            sent.setEntity(new ByteArrayEntity(request.getContent(), null));
+        } else if(request.isStreamed()) {
+            sent.setEntity(new StreamedEntity(request));
+        }
+        request.onAbort(new Runnable() {
+            public void run() {
+                sent.cancel();
+            }
+        });
+
+        // the connection goes back to the pool when the body is read and closed
+        URL url = request.getUrl();
+        ClassicHttpResponse response = client(pool).executeOpen(
+                new HttpHost(url.getProtocol(), url.getHost(), url.getPort()), sent, null);
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for(Header header : response.getHeaders()) {
+            TransportResponse.addHeader(headers, header.getName(), header.getValue());
+        }
+        HttpEntity entity = response.getEntity();
+        if(entity == null) {
+            response.close();
+        }
+        return new TransportResponse(response.getCode(), headers, entity == null ? null : entity.getContent());
+    }
+
+    public synchronized void close() {
+        IOUtils.closeQuietly(client);
+    }
+
+    private synchronized CloseableHttpClient client(ConnectionPool pool) {
+        if(client == null) {
+            ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom()
+                    .setValidateAfterInactivity(TimeValue.ofMilliseconds(validateAfterInactivity));
+            if(timeToLive >= 0) {
+                connectionConfig.setTimeToLive(TimeValue.ofMilliseconds(timeToLive));
+            }
+            if(pool.getConnectTimeout() > 0) {
+                connectionConfig.setConnectTimeout(Timeout.ofMilliseconds(pool.getConnectTimeout()));
+            }
+            PoolingHttpClientConnectionManagerBuilder connections = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setMaxConnPerRoute(maxConnectionsPerRoute)
+                    .setMaxConnTotal(maxConnections)
+                    .setDefaultConnectionConfig(connectionConfig.build())
+                    .setConnectionFactory(ManagedHttpClientConnectionFactory.builder()
+                            .http1Config(Http1Config.custom().setBufferSize(bufferSize).build())
+                            .build());
+            if(socketBufferSize > 0) {
+                connections.setDefaultSocketConfig(SocketConfig.custom()
+                        .setSndBufSize(socketBufferSize).setRcvBufSize(socketBufferSize).build());
+            }
+            SSLContext sslContext = pool.getSslContext();
+            if(sslContext != null) {
+                connections.setSSLSocketFactory(SSLConnectionSocketFactoryBuilder.create()
+                        .setSslContext(sslContext).build());
+            }
+
+            client = HttpClients.custom()
+                    .setConnectionManager(connections.build())
+                    .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+                    .disableContentCompression()
+                    .disableRedirectHandling()
+                    .disableAutomaticRetries()
+                    .disableCookieManagement()
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+    * Request body written by the request while the engine sends it.
+    */
+    private static class StreamedEntity extends AbstractHttpEntity {
+
+        private final TransportRequest request;
+
+        StreamedEntity(TransportRequest request) {
+            super((String)null, null, true);
+            this.request = request;
+        }
+
+        public long getContentLength() {
+            return -1;
+        }
+
+        public InputStream getContent() {
+            throw new UnsupportedOperationException("The body is written, not read");
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            request.writeBody(out);
+        }
+
+        public boolean isStreaming() {
+            return false;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Transport} which can also carry out an exchange without a thread waiting for the
+ * server. {@link HttpClient#requestAsync} sends its requests through such a transport, so
+ * that thousands of them may be in flight on the few threads of the engine; through any other
+ * transport each request in flight holds a thread of the {@link ConnectionPool} executor.
+ *
+ * @see Http2Transport
+ */
+public interface AsyncTransport extends Transport {
+
+    /**
+     * Sends a request with a buffered body and reads the whole response into memory, without
+     * blocking the calling thread. Aborting the request fails the returned future.
+     *
+     * @param request the request, whose body is not {@link TransportRequest#isStreamed() streamed}
+     * @param pool the pool executing the request, whose TLS settings apply
+     * @return the future response, completed once its body has been read, or failed with the
+     *         {@link java.io.IOException} of the exchange
+     */
+    CompletableFuture<TransportResponse> executeAsync(TransportRequest request, ConnectionPool pool);
+}
@@ -0,0 +1,53 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Called by {@link HttpClient} before every attempt of a request, including the retries,
+ * e.g. to take the permits of a {@link RateLimiter} for each request actually sent.
+ */
+public interface AttemptHook {
+
+    /**
+    * Called before an attempt is sent. Throwing fails the request without further attempts.
+    *
+    * @param attempt the number of the attempt, starting from 1
+    * @throws HttpClientException if the attempt must not be made
+    */
+    void beforeAttempt(int attempt) throws HttpClientException;
+
+    /**
+    * Called before an attempt of an {@link HttpClient#requestAsync asynchronous} request is sent,
+    * which waits for the returned future instead of a thread. Failing the future fails the request
+    * without further attempts. By default {@link #beforeAttempt(int)} is called right away.
+    *
+    * @param attempt the number of the attempt, starting from 1
+    * @return a future which completes once the attempt may be sent
+    */
+    default CompletableFuture<Void> beforeAttemptAsync(int attempt) {
+        try {
+            beforeAttempt(attempt);
+            return CompletableFuture.completedFuture(null);
+        } catch(HttpClientException e) {
+            CompletableFuture<Void> refused = new CompletableFuture<>();
+            refused.completeExceptionally(e);
+            return refused;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+/**
+ * Receives the measurements of every HTTP exchange made by a {@link HttpClient}. Each
+ * attempt of a retried request and each redirect followed is reported as an exchange
+ * of its own.
+ * <p>
+ * Listeners are called on the thread which made the request, right after the response has
+ * been read or the response stream closed, so they should return quickly and must be thread safe.
+ * {@link com.ontotext.s4.client.metrics.ClientMetrics} aggregates the exchanges per endpoint
+ * and exposes them through JMX.
+ */
+public interface ClientMetricsListener {
+
+    /**
+    * Called once an exchange has completed, successfully or not.
+    *
+    * @param exchange the measurements of the exchange
+    */
+    void exchangeCompleted(ExchangeMetrics exchange);
+}
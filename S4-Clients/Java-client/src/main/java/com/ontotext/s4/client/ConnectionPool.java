@@ -0,0 +1,429 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.ontotext.s4.common.DaemonThreadFactory;
+
+/**
+ * Keep-alive connection pool for a single route (scheme, host and port) of the S4 API.
+ * <p>
+ * Connections are opened through the {@link Transport} of the pool, by default the
+ * {@link HttpURLConnection} of the JDK, whose keep-alive cache keeps the underlying sockets
+ * open between requests as long as every response body is read to the end and closed.
+ * The pool bounds the number of concurrently open connections per route, applies connect
+ * and read timeouts and shares one TLS context, so that TLS sessions are resumed instead
+ * of re-negotiated.
+ * <p>
+ * All {@link HttpClient} instances created for the same route share the same pool
+ * (see {@link #getShared(URL)}).
+ */
+public class ConnectionPool {
+
+    /**
+     * Default maximum number of concurrent connections per route.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    /**
+     * Default lifetime of a cached TLS session, in seconds.
+     */
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT = 3600;
+
+    /**
+     * Numbers the pools in the names of their threads.
+     */
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /**
+     * Pools shared by all clients, keyed by route.
+     */
+    private static final ConcurrentMap<String, ConnectionPool> SHARED_POOLS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Limits the number of connections which are open at the same time.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Asynchronous requests waiting for a connection, in order of arrival.
+     */
+    private final Queue<CompletableFuture<Void>> waiters = new ConcurrentLinkedQueue<>();
+
+    private final int maxConnectionsPerRoute;
+
+    /**
+     * TLS context of the pool, <code>null</code> to use the JVM default.
+     */
+    private final SSLContext sslContext;
+
+    /**
+     * Socket factory shared by all HTTPS connections of the pool. Reusing the same
+     * factory lets the JDK keep-alive cache reuse connections and resume TLS sessions.
+     */
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * The HTTP engine which carries out the exchanges of the pool.
+     */
+    private volatile Transport transport;
+
+    private volatile int connectTimeout;
+
+    private volatile int readTimeout;
+
+    /**
+     * Executes the asynchronous requests of the pool, created on first use.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Create a pool with the {@link #DEFAULT_MAX_CONNECTIONS_PER_ROUTE default} settings.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_TLS_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Create a pool using the {@link SSLContext#getDefault() default TLS context} of the JVM, so
+     * that the trust and key stores configured with the <code>javax.net.ssl.*</code> system
+     * properties apply. The session timeout is set on that context, which other users of it share.
+     *
+     * @param maxConnectionsPerRoute the maximum number of connections which may be open at the same time
+     * @param tlsSessionTimeout the time, in seconds, for which a TLS session may be resumed
+     */
+    public ConnectionPool(int maxConnectionsPerRoute, int tlsSessionTimeout) {
+        this(maxConnectionsPerRoute, defaultContext(tlsSessionTimeout));
+    }
+
+    /**
+     * Create a pool using a TLS context of its own, e.g. one trusting a private certificate
+     * authority. The context is used as it is, including its session timeout.
+     *
+     * @param maxConnectionsPerRoute the maximum number of connections which may be open at the same time
+     * @param sslContext the TLS context of the HTTPS connections, <code>null</code> for the JVM default
+     */
+    public ConnectionPool(int maxConnectionsPerRoute, SSLContext sslContext) {
+        if(maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("At least one connection per route is required");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.permits = new Semaphore(maxConnectionsPerRoute, true);
+        this.sslContext = sslContext;
+        this.sslSocketFactory = sslContext == null ? null : sslContext.getSocketFactory();
+        this.transport = new UrlConnectionTransport();
+    }
+
+    /**
+     * Returns the pool shared by all clients talking to the route of the given URL,
+     * creating it if necessary.
+     *
+     * @param url any URL on the route
+     * @return the shared pool for the route
+     */
+    public static ConnectionPool getShared(URL url) {
+        String route = routeOf(url);
+        ConnectionPool pool = SHARED_POOLS.get(route);
+        if(pool == null) {
+            ConnectionPool created = new ConnectionPool();
+            pool = SHARED_POOLS.putIfAbsent(route, created);
+            if(pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Installs a custom pool for the route of the given URL. Only clients created
+     * afterwards will use it.
+     *
+     * @param url any URL on the route
+     * @param pool the pool to share between the clients of the route
+     */
+    public static void setShared(URL url, ConnectionPool pool) {
+        SHARED_POOLS.put(routeOf(url), pool);
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the number of connections currently in use
+     */
+    public int getLeasedConnections() {
+        return maxConnectionsPerRoute - permits.availablePermits();
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout the connect timeout in milliseconds, 0 means no timeout
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout the read timeout in milliseconds, 0 means no timeout
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Carries out the exchanges of the pool with another HTTP engine from now on. Exchanges
+     * in progress complete on the previous transport, which the caller should close afterwards.
+     *
+     * @param transport the transport, <code>null</code> to send requests through {@link HttpURLConnection}
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport == null ? new UrlConnectionTransport() : transport;
+    }
+
+    /**
+     * @return the TLS context of the pool, <code>null</code> if the JVM default is used
+     */
+    SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * Returns the executor running the asynchronous requests of the pool. Unless another
+     * executor is {@link #setExecutor(ExecutorService) set}, it uses one daemon thread per
+     * connection, so requests beyond {@link #getMaxConnectionsPerRoute()} wait in its queue
+     * without occupying a thread.
+     *
+     * @return the executor for asynchronous requests
+     */
+    public synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = DaemonThreadFactory.newBoundedExecutor(
+                    "s4-client-" + POOL_NUMBER.incrementAndGet(), maxConnectionsPerRoute);
+        }
+        return executor;
+    }
+
+    /**
+     * @param executor the executor which will run the asynchronous requests of the pool
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Executes a request through the {@link #getTransport() transport} of the pool, once one of the
+     * {@link #getMaxConnectionsPerRoute()} connections is free. The connection stays leased
+     * until the response is closed.
+     *
+     * @param request the request, to which the timeouts of the pool are applied
+     * @return the response, whose body has not been read yet
+     * @throws IOException if no response is received, or the thread was interrupted
+     */
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        try {
+            permits.acquire();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + routeOf(request.getUrl()));
+        }
+        try {
+            request.setTimeouts(connectTimeout, readTimeout);
+            TransportResponse response = transport.execute(request, this);
+            response.setRelease(new Runnable() {
+                public void run() {
+                    release();
+                }
+            });
+            return response;
+        } catch(IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a request through the {@link #getTransport() transport} of the pool without blocking,
+     * once one of the {@link #getMaxConnectionsPerRoute()} connections is free. The transport must
+     * be an {@link AsyncTransport}; the response is read into memory and its connection is given
+     * back to the pool before the returned future completes.
+     *
+     * @param request the request with a buffered body, to which the timeouts of the pool are applied
+     * @return the future response, failed with an {@link IOException} if no response is received
+     */
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        final CompletableFuture<TransportResponse> response = new CompletableFuture<>();
+        request.setTimeouts(connectTimeout, readTimeout);
+        lease().thenRun(new Runnable() {
+            public void run() {
+                Transport engine = transport;
+                if(!(engine instanceof AsyncTransport)) {
+                    release();
+                    response.completeExceptionally(new IOException(
+                            "The transport of the pool cannot execute requests asynchronously"));
+                    return;
+                }
+                CompletableFuture<TransportResponse> exchange;
+                try {
+                    exchange = ((AsyncTransport)engine).executeAsync(request, ConnectionPool.this);
+                } catch(RuntimeException e) {
+                    release();
+                    response.completeExceptionally(e);
+                    return;
+                }
+                exchange.whenComplete(new BiConsumer<TransportResponse, Throwable>() {
+                    public void accept(TransportResponse received, Throwable failure) {
+                        release();
+                        if(failure != null) {
+                            response.completeExceptionally(failure);
+                        } else {
+                            response.complete(received);
+                        }
+                    }
+                });
+            }
+        });
+        return response;
+    }
+
+    /**
+     * @return a future completed once the caller holds one of the connections of the pool
+     */
+    private CompletableFuture<Void> lease() {
+        if(permits.tryAcquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> lease = new CompletableFuture<>();
+        waiters.add(lease);
+        // a connection may have been released before the lease was queued
+        grantWaiters();
+        return lease;
+    }
+
+    /**
+     * Gives a connection back to the pool, handing it to a waiting asynchronous request if any.
+     */
+    private void release() {
+        permits.release();
+        grantWaiters();
+    }
+
+    private void grantWaiters() {
+        while(!waiters.isEmpty() && permits.tryAcquire()) {
+            CompletableFuture<Void> lease = waiters.poll();
+            if(lease == null || !lease.complete(null)) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Sends a HEAD request to the given URL and discards the response, so that the TCP
+     * connection and the TLS session are already established when the first real
+     * request is made.
+     *
+     * @param url the URL to connect to
+     * @throws IOException if the server can not be reached
+     */
+    public void warmUp(URL url) throws IOException {
+        TransportResponse response = execute(new TransportRequest(url, "HEAD",
+                Collections.<String[]>emptyList(), null, null, null));
+        try {
+            consume(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Reads the stream to the end and closes it, which returns the underlying
+     * socket to the keep-alive cache.
+     */
+    static void consume(InputStream stream) {
+        if(stream == null) {
+            return;
+        }
+        try {
+            IOUtils.copy(stream, new NullOutputStream());
+        } catch(IOException e) {
+            // the connection will not be reused
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    private static String routeOf(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+    * @return the default TLS context of the JVM with the given session timeout, or <code>null</code>
+    *         if it cannot be created, in which case each transport falls back to its own default
+    */
+    private static SSLContext defaultContext(int tlsSessionTimeout) {
+        try {
+            SSLContext context = SSLContext.getDefault();
+            SSLSessionContext sessions = context.getClientSessionContext();
+            if(sessions != null) {
+                sessions.setSessionTimeout(tlsSessionTimeout);
+            }
+            return context;
+        } catch(GeneralSecurityException e) {
+            return null;
+        }
+    }
+}
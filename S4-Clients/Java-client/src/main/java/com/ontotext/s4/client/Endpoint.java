@@ -0,0 +1,180 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the equivalent endpoints of a {@link LoadBalancer}, with its connection pool, its
+ * latency and load, and the state of its circuit breaker.
+ * <p>
+ * The latency is a peak EWMA: a response slower than the average replaces it at once, faster
+ * ones pull it down gradually, so an endpoint which becomes slow stops getting traffic quickly.
+ * After a number of consecutive failures the endpoint is ejected for a while; then a single
+ * probe request is let through, which either closes the breaker or ejects the endpoint again
+ * for twice as long.
+ */
+class Endpoint {
+
+    private final URL url;
+
+    private final ConnectionPool pool;
+
+    private final LoadBalancer balancer;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private double latency;
+
+    private long sampled = System.nanoTime();
+
+    private int consecutiveFailures;
+
+    private int ejections;
+
+    private long ejectedUntil;
+
+    private boolean probing;
+
+    Endpoint(URL url, ConnectionPool pool, LoadBalancer balancer) {
+        this.url = url;
+        this.pool = pool;
+        this.balancer = balancer;
+    }
+
+    URL getUrl() {
+        return url;
+    }
+
+    ConnectionPool getPool() {
+        return pool;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+    * @return the EWMA of the latency in nanoseconds
+    */
+    synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+    * @return the expected cost of sending one more request to the endpoint
+    */
+    double cost() {
+        // the 1 ms floor lets the outstanding requests count before any latency is known
+        return (getLatency() + TimeUnit.MILLISECONDS.toNanos(1)) * (outstanding.get() + 1);
+    }
+
+    synchronized boolean isEjected() {
+        return ejections > 0;
+    }
+
+    /**
+    * @return whether a request may be sent: the breaker is closed, or it is time for a probe
+    */
+    synchronized boolean isAvailable(long now) {
+        return ejections == 0 || (!probing && now - ejectedUntil >= 0);
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    synchronized long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    /**
+    * Registers a request sent to the endpoint.
+    *
+    * @return the start time of the request
+    */
+    long start() {
+        outstanding.incrementAndGet();
+        synchronized(this) {
+            if(ejections > 0) {
+                probing = true;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+    * Registers the outcome of a request.
+    *
+    * @param started the start time of the request
+    * @param failure the failure of the request, <code>null</code> if it succeeded
+    */
+    void finish(long started, HttpClientException failure) {
+        outstanding.decrementAndGet();
+        long now = System.nanoTime();
+        synchronized(this) {
+            if(failure != null && !isEndpointFailure(failure)) {
+                if(!isHealthyResponse(failure)) {
+                    // abandoned by the caller, e.g. a hedge which lost, nothing learned
+                    probing = false;
+                    return;
+                }
+                failure = null;
+            }
+            sample(now - started, now);
+            if(failure == null) {
+                consecutiveFailures = 0;
+                ejections = 0;
+                probing = false;
+            } else if(probing || ++consecutiveFailures >= balancer.getFailureThreshold()) {
+                long ejectionTime = Math.min(balancer.getMaxEjectionTime(),
+                        balancer.getEjectionTime() << Math.min(ejections, 30));
+                ejections++;
+                ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+                consecutiveFailures = 0;
+                probing = false;
+            }
+        }
+    }
+
+    private void sample(long elapsed, long now) {
+        double weight = Math.exp(-(double)(now - sampled) / TimeUnit.MILLISECONDS.toNanos(balancer.getDecayTime()));
+        latency = elapsed > latency ? elapsed : latency * weight + elapsed * (1 - weight);
+        sampled = now;
+    }
+
+    /**
+    * @return whether the failure says the endpoint is unhealthy: it can not be reached
+    *         or answers with a server error
+    */
+    private static boolean isEndpointFailure(HttpClientException failure) {
+        if(failure.getStatusCode() != -1) {
+            return failure.getStatusCode() >= 500;
+        }
+        return failure.getCause() instanceof IOException && !failure.isCancellation();
+    }
+
+    /**
+    * @return whether the endpoint answered normally, e.g. with a client error
+    */
+    private static boolean isHealthyResponse(HttpClientException failure) {
+        return failure.getStatusCode() != -1;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+/**
+ * Measurements of a single HTTP exchange. Times are in nanoseconds from the moment the
+ * exchange started, before the request body was serialized. Times and sizes of phases
+ * which were never reached are -1.
+ */
+public class ExchangeMetrics {
+
+    private final String endpoint;
+
+    private final String method;
+
+    private final int statusCode;
+
+    private final HttpClientException failure;
+
+    private final long connectTime;
+
+    private final long timeToFirstByte;
+
+    private final long totalTime;
+
+    private final long requestBytes;
+
+    private final long requestBytesSent;
+
+    private final long responseBytes;
+
+    private final long responseBytesReceived;
+
+    ExchangeMetrics(String endpoint, String method, int statusCode, HttpClientException failure,
+                    long connectTime, long timeToFirstByte, long totalTime,
+                    long requestBytes, long requestBytesSent, long responseBytes, long responseBytesReceived) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.statusCode = statusCode;
+        this.failure = failure;
+        this.connectTime = connectTime;
+        this.timeToFirstByte = timeToFirstByte;
+        this.totalTime = totalTime;
+        this.requestBytes = requestBytes;
+        this.requestBytesSent = requestBytesSent;
+        this.responseBytes = responseBytes;
+        this.responseBytesReceived = responseBytesReceived;
+    }
+
+    /**
+    * @return the URL of the request without its query, e.g. <code>https://text.s4.ontotext.com/v1/news</code>
+    */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+    * @return the status code of the response, or -1 if no response was received
+    */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+    * @return the error the exchange ended with, <code>null</code> if it succeeded
+    */
+    public HttpClientException getFailure() {
+        return failure;
+    }
+
+    /**
+    * @return whether the caller cancelled the exchange before it completed, e.g. because a
+    *         hedged request answered first. The failure then tells how the exchange was cut
+    *         short, but it is not a failure of the endpoint
+    */
+    public boolean isAbandoned() {
+        return failure != null && failure.isCancellation();
+    }
+
+    /**
+    * @return whether the response was a redirect which the client followed
+    */
+    public boolean isRedirect() {
+        return statusCode >= 300 && statusCode < 400;
+    }
+
+    /**
+    * @return the time until a connection to the server was obtained, either a new one or a pooled one
+    */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+    * @return the time until the status line of the response was received
+    */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+    * @return the time until the response was read, or for streamed responses until the stream was closed
+    */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+    * @return the size of the request body before compression
+    */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+    * @return the size of the request body as sent, after compression
+    */
+    public long getRequestBytesSent() {
+        return requestBytesSent;
+    }
+
+    /**
+    * @return the size of the response body after decompression
+    */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+    * @return the size of the response body as received, before decompression
+    */
+    public long getResponseBytesReceived() {
+        return responseBytesReceived;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Collects the {@link ExchangeMetrics} of one exchange while it is in progress and hands
+ * them to the listener when it completes. Without a listener nothing is measured.
+ */
+class ExchangeRecorder {
+
+    private final ClientMetricsListener listener;
+
+    private final String method;
+
+    private final long started = System.nanoTime();
+
+    private String endpoint;
+
+    private int statusCode = -1;
+
+    private long connectTime = -1;
+
+    private long timeToFirstByte = -1;
+
+    private CountingOutputStream encoded;
+
+    private CountingOutputStream sent;
+
+    private CountingInputStream received;
+
+    private CountingInputStream decoded;
+
+    /**
+    * The size of a body sent as a whole, -1 if it is streamed or there is none.
+    */
+    private long contentSent = -1;
+
+    private boolean completed;
+
+    ExchangeRecorder(ClientMetricsListener listener, String method) {
+        this.listener = listener;
+        this.method = method;
+    }
+
+    void sending(URL url) {
+        endpoint = url.getProtocol() + "://" + url.getAuthority() + url.getPath();
+    }
+
+    void connected() {
+        connectTime = System.nanoTime() - started;
+    }
+
+    void responseStarted(int statusCode) {
+        this.statusCode = statusCode;
+        timeToFirstByte = System.nanoTime() - started;
+    }
+
+    /**
+    * @param out the stream of the connection
+    * @return the stream counting the request bytes sent
+    */
+    OutputStream countSent(OutputStream out) {
+        if(listener == null) {
+            return out;
+        }
+        sent = new CountingOutputStream(out);
+        encoded = sent;
+        return sent;
+    }
+
+    /**
+    * @param length the size in bytes of a body sent as a whole, uncompressed
+    */
+    void countSent(int length) {
+        contentSent = length;
+    }
+
+    /**
+    * @param out the compressing stream writing to the connection
+    * @return the stream counting the request bytes before compression
+    */
+    OutputStream countEncoded(OutputStream out) {
+        if(listener == null) {
+            return out;
+        }
+        encoded = new CountingOutputStream(out);
+        return encoded;
+    }
+
+    /**
+    * @param in the stream of the connection
+    * @return the stream counting the response bytes received
+    */
+    InputStream countReceived(InputStream in) {
+        if(listener == null || in == null) {
+            return in;
+        }
+        received = new CountingInputStream(in);
+        decoded = received;
+        return received;
+    }
+
+    /**
+    * @param in the decompressing stream reading from the connection
+    * @return the stream counting the response bytes after decompression
+    */
+    InputStream countDecoded(InputStream in) {
+        if(listener == null) {
+            return in;
+        }
+        decoded = new CountingInputStream(in);
+        return decoded;
+    }
+
+    /**
+    * Reports the exchange as successful. Later calls have no effect.
+    */
+    void complete() {
+        report(null);
+    }
+
+    /**
+    * Reports the exchange as failed, or as abandoned if the failure is a
+    * {@link HttpClientException#isCancellation() cancellation}, unless it has already been reported.
+    *
+    * @return the failure
+    */
+    HttpClientException failed(HttpClientException failure) {
+        report(failure);
+        return failure;
+    }
+
+    private synchronized void report(HttpClientException failure) {
+        if(listener == null || completed) {
+            return;
+        }
+        completed = true;
+        long totalTime = System.nanoTime() - started;
+        int status = statusCode == -1 && failure != null ? failure.getStatusCode() : statusCode;
+        listener.exchangeCompleted(new ExchangeMetrics(endpoint, method, status, failure,
+                connectTime, timeToFirstByte, totalTime,
+                encoded == null ? contentSent : encoded.getByteCount(), sent == null ? contentSent : sent.getByteCount(),
+                decoded == null ? -1 : decoded.getByteCount(), received == null ? -1 : received.getByteCount()));
+    }
+}
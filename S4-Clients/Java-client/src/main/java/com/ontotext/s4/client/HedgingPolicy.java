@@ -0,0 +1,98 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+/**
+ * Describes when a {@link RequestHedger} sends a second, identical request. A hedge is sent
+ * when the first request has not answered within the given percentile of the recent latencies,
+ * and only while the hedges stay within the budget: each request adds {@link #getBudgetRatio()}
+ * to it and each hedge takes one away, so hedging never adds more than that share of load.
+ */
+public class HedgingPolicy {
+
+    private double percentile = 95;
+
+    private double budgetRatio = 0.05;
+
+    private int budgetReserve = 5;
+
+    private long minDelay = 10;
+
+    private int windowSize = 1000;
+
+    private int minSamples = 20;
+
+    /**
+    * @return the percentile of the recent latencies after which a hedge is sent
+    */
+    public double getPercentile() {
+        return percentile;
+    }
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+    * @return the largest share of extra requests the hedges may add
+    */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+    * @return the number of hedges which may be sent regardless of the request volume
+    */
+    public int getBudgetReserve() {
+        return budgetReserve;
+    }
+    public void setBudgetReserve(int budgetReserve) {
+        this.budgetReserve = budgetReserve;
+    }
+
+    /**
+    * @return the shortest time in milliseconds to wait before sending a hedge
+    */
+    public long getMinDelay() {
+        return minDelay;
+    }
+    public void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+
+    /**
+    * @return the number of recent latencies from which the percentile is computed
+    */
+    public int getWindowSize() {
+        return windowSize;
+    }
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+    * @return the number of latencies which must be known before any hedge is sent
+    */
+    public int getMinSamples() {
+        return minSamples;
+    }
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * HTTP/2 transport for the connections of a {@link ConnectionPool}, built on the
+ * <code>java.net.http</code> client of the JDK.
+ * <p>
+ * Concurrent requests to a route are multiplexed as streams of a single connection
+ * instead of each holding a socket of its own, which saves the round-trips of opening
+ * connections and lets many small documents be annotated at the same time. The HTTP
+ * version is negotiated through ALPN for every new connection: if the server, or a
+ * proxy in between, does not speak HTTP/2, the same transport falls back to HTTP/1.1.
+ * {@link #getHttp2Responses()} and {@link #getHttp11Responses()} tell which protocol
+ * was actually used.
+ * <p>
+ * The flow-control windows, the frame size and the reuse of idle connections are settings of
+ * the whole JVM rather than of a transport, see {@link #configureJdkClient(int, int, int, int, int)}.
+ * <p>
+ * A transport is installed on one pool (see {@link ConnectionPool#setTransport(Transport)}),
+ * whose connect timeout and TLS settings it takes when the first connection is made.
+ * The pool still bounds the number of requests in flight, which with HTTP/2 are streams
+ * rather than sockets.
+ * <p>
+ * The read timeout limits the wait for the response headers, the JDK client has no timeout
+ * for reading the body. A streamed request body is written by the thread executing the request
+ * while the JDK client sends it.
+ * <p>
+ * As an {@link AsyncTransport}, it carries out the requests of {@link HttpClient#requestAsync}
+ * on the threads of the JDK client, without a thread waiting for each response.
+ */
+public class Http2Transport implements AsyncTransport {
+
+    /**
+    * Default size in bytes of the chunks of a streamed request body.
+    */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private final AtomicLong http2Responses = new AtomicLong();
+
+    private final AtomicLong http11Responses = new AtomicLong();
+
+    /**
+    * The JDK client, created with the first connection.
+    */
+    private java.net.http.HttpClient client;
+
+    /**
+    * Whether the settings of the JDK client have been applied.
+    */
+    private static boolean jdkClientConfigured;
+
+    /**
+    * Tunes the HTTP/2 flow control and the connection reuse of the JDK client. The builder of
+    * the JDK client has no such settings, they are the "jdk.httpclient.*" system properties, so
+    * they are process-global: they apply to every JDK HTTP client in the JVM, and most of them
+    * are read once, when the JDK client is first used. Call this at startup, before the first request
+    * of any transport. Properties set on the command line take precedence, and only the first
+    * call has an effect.
+    *
+    * @param connectionWindowSize the number of response bytes, over all streams, which the server may send
+    *                             on a connection before the client acknowledges them, 0 for the JDK default
+    * @param streamWindowSize the number of response bytes which the server may send on a single stream before
+    *                         the client acknowledges them, 0 for the JDK default. Large annotated documents
+    *                         arrive faster with a window covering the bandwidth-delay product of the route
+    * @param maxFrameSize the largest frame payload in bytes which the client accepts, 0 for the JDK default
+    * @param connectionPoolSize the maximum number of idle HTTP/1.1 connections kept, 0 for the JDK default
+    *                           of no limit. HTTP/2 needs a single connection per route
+    * @param keepAliveTimeout the time in seconds for which an idle connection is kept open, 0 for the JDK default
+    * @return <code>false</code> if an earlier call has already configured the JDK client
+    */
+    public static synchronized boolean configureJdkClient(int connectionWindowSize, int streamWindowSize,
+                                                          int maxFrameSize, int connectionPoolSize,
+                                                          int keepAliveTimeout) {
+        if(jdkClientConfigured) {
+            return false;
+        }
+        jdkClientConfigured = true;
+        setProperty("jdk.httpclient.connectionWindowSize", connectionWindowSize);
+        setProperty("jdk.httpclient.windowsize", streamWindowSize);
+        setProperty("jdk.httpclient.maxframesize", maxFrameSize);
+        setProperty("jdk.httpclient.connectionPoolSize", connectionPoolSize);
+        setProperty("jdk.httpclient.keepalive.timeout", keepAliveTimeout);
+        return true;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+    * @param bufferSize the size in bytes of the chunks of a streamed request body
+    */
+    public void setBufferSize(int bufferSize) {
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+    * @return the number of responses received over HTTP/2
+    */
+    public long getHttp2Responses() {
+        return http2Responses.get();
+    }
+
+    /**
+    * @return the number of responses received over HTTP/1.1, because the server did not negotiate HTTP/2
+    */
+    public long getHttp11Responses() {
+        return http11Responses.get();
+    }
+
+    public TransportResponse execute(TransportRequest request, ConnectionPool pool) throws IOException {
+        HttpRequest.Builder builder = newRequest(request);
+        final StreamingBodyPublisher streamed = request.isStreamed() ? new StreamingBodyPublisher(bufferSize) : null;
+        BodyPublisher body;
+        if(request.getContent() != null && request.getContent().length > 0) {
+            body = BodyPublishers.ofByteArray(request.getContent());
+        } else if(streamed != null) {
+            body = BodyPublishers.fromPublisher(streamed);
+        } else {
+            body = BodyPublishers.noBody();
+        }
+
+        final CompletableFuture<HttpResponse<InputStream>> exchange = client(pool).sendAsync(
+                builder.method(request.getMethod(), body).build(), BodyHandlers.ofInputStream());
+        request.onAbort(new Runnable() {
+            public void run() {
+                exchange.cancel(true);
+                if(streamed != null) {
+                    streamed.abort();
+                }
+            }
+        });
+        if(streamed != null) {
+            // the writer must not wait for a body which is no longer read
+            exchange.whenComplete(new BiConsumer<HttpResponse<InputStream>, Throwable>() {
+                public void accept(HttpResponse<InputStream> response, Throwable failure) {
+                    streamed.abort();
+                }
+            });
+            try {
+                try {
+                    request.writeBody(streamed);
+                } finally {
+                    streamed.close();
+                }
+            } catch(IOException e) {
+                // the server may have answered before reading the whole body
+                if(!exchange.isDone()) {
+                    exchange.cancel(true);
+                    throw e;
+                }
+            }
+        }
+
+        final HttpResponse<InputStream> response = await(exchange, request);
+        request.onAbort(new Runnable() {
+            public void run() {
+                IOUtils.closeQuietly(response.body());
+            }
+        });
+        responded(response.version());
+        return new TransportResponse(response.statusCode(), response.headers().map(), response.body());
+    }
+
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request, ConnectionPool pool) {
+        final CompletableFuture<TransportResponse> response = new CompletableFuture<>();
+        try {
+            if(request.isStreamed()) {
+                throw new IOException("A streamed request body needs a thread writing it");
+            }
+            BodyPublisher body = request.getContent() != null && request.getContent().length > 0
+                    ? BodyPublishers.ofByteArray(request.getContent()) : BodyPublishers.noBody();
+            final CompletableFuture<HttpResponse<byte[]>> exchange = client(pool).sendAsync(
+                    newRequest(request).method(request.getMethod(), body).build(), BodyHandlers.ofByteArray());
+            request.onAbort(new Runnable() {
+                public void run() {
+                    exchange.cancel(true);
+                }
+            });
+            exchange.whenComplete(new BiConsumer<HttpResponse<byte[]>, Throwable>() {
+                public void accept(HttpResponse<byte[]> received, Throwable failure) {
+                    if(failure != null) {
+                        response.completeExceptionally(asIOException(failure, request));
+                        return;
+                    }
+                    responded(received.version());
+                    response.complete(new TransportResponse(received.statusCode(), received.headers().map(),
+                            new ByteArrayInputStream(received.body())));
+                }
+            });
+        } catch(IOException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+    * Starts a request to the URL of the given one, with its headers and read timeout.
+    */
+    private static HttpRequest.Builder newRequest(TransportRequest request) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri());
+        if(request.getReadTimeout() > 0) {
+            builder.timeout(Duration.ofMillis(request.getReadTimeout()));
+        }
+        for(String[] header : request.getHeaders()) {
+            builder.header(header[0], header[1]);
+        }
+        return builder;
+    }
+
+    /**
+    * Waits for the response headers, rethrowing the failure of the exchange.
+    */
+    private static HttpResponse<InputStream> await(CompletableFuture<HttpResponse<InputStream>> exchange,
+                                                   TransportRequest request) throws IOException {
+        try {
+            return exchange.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.cancel(true);
+            throw new InterruptedIOException("Interrupted while waiting for the response from " + request.getUrl());
+        } catch(CancellationException e) {
+            throw new InterruptedIOException("Request cancelled");
+        } catch(ExecutionException e) {
+            throw asIOException(e.getCause(), request);
+        }
+    }
+
+    /**
+    * @return the failure of an exchange, as the I/O error the transports report
+    */
+    private static IOException asIOException(Throwable failure, TransportRequest request) {
+        if(failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if(failure instanceof CancellationException) {
+            InterruptedIOException cancelled = new InterruptedIOException("Request cancelled");
+            cancelled.initCause(failure);
+            return cancelled;
+        }
+        if(failure instanceof IOException) {
+            return (IOException)failure;
+        }
+        return new IOException("Request to " + request.getUrl() + " failed", failure);
+    }
+
+    public void close() {
+        // the JDK client closes its idle connections by itself
+    }
+
+    /**
+    * Counts a response by the protocol it arrived with.
+    */
+    private void responded(Version version) {
+        if(version == Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        } else {
+            http11Responses.incrementAndGet();
+        }
+    }
+
+    private synchronized java.net.http.HttpClient client(ConnectionPool pool) {
+        if(client == null) {
+            java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder()
+                    .version(Version.HTTP_2)
+                    // redirects are followed by HttpClient, which has to authenticate them
+                    .followRedirects(Redirect.NEVER);
+            if(pool.getConnectTimeout() > 0) {
+                builder.connectTimeout(Duration.ofMillis(pool.getConnectTimeout()));
+            }
+            SSLContext sslContext = pool.getSslContext();
+            if(sslContext != null) {
+                builder.sslContext(sslContext);
+            }
+            ProxySelector proxySelector = ProxySelector.getDefault();
+            if(proxySelector != null) {
+                builder.proxy(proxySelector);
+            }
+            client = builder.build();
+        }
+        return client;
+    }
+
+    private static void setProperty(String name, int value) {
+        if(value > 0 && System.getProperty(name) == null) {
+            System.setProperty(name, String.valueOf(value));
+        }
+    }
+}
@@ -18,20 +18,32 @@ package com.ontotext.s4.client;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 
-import javax.xml.bind.DatatypeConverter;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
-
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.InjectableValues;
@@ -76,6 +88,45 @@ public class HttpClient {
     */
     private URL baseUrl;
 
+    /**
+    * The keep-alive connection pool for the route of the base URL.
+    */
+    private ConnectionPool pool;
+
+    /**
+    * Chooses the endpoint of each request, if the service has several.
+    */
+    private final LoadBalancer balancer;
+
+    /**
+    * The default size in bytes above which request bodies are compressed and streamed.
+    */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
+
+    /**
+    * The content coding of compressed request bodies, <code>null</code> if bodies are sent uncompressed.
+    */
+    private volatile String requestBodyEncoding;
+
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+    * Whether the server accepted a compressed request body, <code>null</code> until one is sent.
+    */
+    private volatile Boolean compressedBodiesAccepted;
+
+    /**
+    * Decides which failed requests are repeated, <code>null</code> if none are.
+    */
+    private volatile RetryPolicy retryPolicy;
+
+    private volatile RetryBudget retryBudget;
+
+    /**
+    * Receives the measurements of every exchange, <code>null</code> if none are taken.
+    */
+    private volatile ClientMetricsListener metricsListener;
+
     /**
     * Create a client that uses the {@link #DEFAULT_BASE_URL default base URL}.
     *
@@ -94,20 +145,160 @@ public class HttpClient {
     * @param keySecret API key secret
     */
     public HttpClient(URL url, String apiKeyId, String keySecret) {
-        baseUrl = url;
+        this(url, apiKeyId, keySecret, ConnectionPool.getShared(url));
+    }
+
+    /**
+    * Create a client using a specified base URL and a dedicated connection pool.
+    *
+    * @param url API base URL
+    * @param apiKeyId API key identifier for authentication
+    * @param keySecret API key secret
+    * @param pool the pool from which connections will be leased
+    */
+    public HttpClient(URL url, String apiKeyId, String keySecret, ConnectionPool pool) {
+        this(Collections.singletonList(url), apiKeyId, keySecret, Collections.singletonList(pool));
+    }
+
+    /**
+    * Create a client balancing its requests between equivalent endpoints of a service,
+    * using the shared connection pool of each endpoint. Relative request URIs resolve
+    * against the base URL of the endpoint chosen for the request.
+    *
+    * @param urls the base URLs of the endpoints, the primary one first
+    * @param apiKeyId API key identifier for authentication
+    * @param keySecret API key secret
+    */
+    public HttpClient(List<URL> urls, String apiKeyId, String keySecret) {
+        this(urls, apiKeyId, keySecret, sharedPools(urls));
+    }
+
+    private HttpClient(List<URL> urls, String apiKeyId, String keySecret, List<ConnectionPool> pools) {
+        if(urls.isEmpty()) {
+            throw new IllegalArgumentException("No endpoint URL specified");
+        }
+        baseUrl = urls.get(0);
+        this.pool = pools.get(0);
+        this.balancer = new LoadBalancer(urls, pools);
         try {
             // HTTP header is "Basic base64(username:password)"
-            authorizationHeader = "Basic " + DatatypeConverter.printBase64Binary((apiKeyId + ":" + keySecret).getBytes("UTF-8"));
+            authorizationHeader = "Basic " + Base64.getEncoder().encodeToString((apiKeyId + ":" + keySecret).getBytes("UTF-8"));
         } catch(UnsupportedEncodingException uee) {
             // should never happen
             throw new RuntimeException("JVM claims not to support UTF-8 encoding...", uee);
         }
     }
 
+    private static List<ConnectionPool> sharedPools(List<URL> urls) {
+        List<ConnectionPool> pools = new ArrayList<>(urls.size());
+        for(URL url : urls) {
+            pools.add(ConnectionPool.getShared(url));
+        }
+        return pools;
+    }
+
+    /**
+    * @return the base URL of the primary endpoint
+    */
     public URL getBaseUrl() {
     	return baseUrl;
     }
 
+    public LoadBalancer getLoadBalancer() {
+        return balancer;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+    * Enables compression of request bodies larger than the {@link #setCompressionThreshold(int) threshold}.
+    * If the server rejects a compressed body with <code>415 Unsupported Media Type</code>, the request is
+    * repeated uncompressed and compression is not attempted again by this client.
+    *
+    * @param encoding "gzip" or "deflate", <code>null</code> to send uncompressed bodies
+    */
+    public void setRequestBodyEncoding(String encoding) {
+        if(encoding != null && !"gzip".equalsIgnoreCase(encoding) && !"deflate".equalsIgnoreCase(encoding)) {
+            throw new IllegalArgumentException("Unsupported content encoding: " + encoding);
+        }
+        this.requestBodyEncoding = encoding;
+    }
+
+    public String getRequestBodyEncoding() {
+        return requestBodyEncoding;
+    }
+
+    /**
+    * @param threshold the size in bytes of the serialized request body up to which it is buffered and sent
+    *                  uncompressed. Larger bodies are streamed with chunked transfer encoding
+    */
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+    * @return <code>true</code> if the server accepted a compressed request body, <code>false</code> if it
+    *         rejected one, or <code>null</code> if no compressed body has been sent yet
+    */
+    public Boolean isRequestBodyCompressionAccepted() {
+        return compressedBodiesAccepted;
+    }
+
+    /**
+    * Makes failed requests to be repeated according to the given policy. Every request made
+    * through this client must be safe to repeat. Each call starts a new retry budget.
+    *
+    * @param retryPolicy the policy, <code>null</code> to never repeat a request
+    */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryBudget = retryPolicy == null ? null : new RetryBudget(retryPolicy);
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+    * @param metricsListener the listener receiving the measurements of every exchange,
+    *                        <code>null</code> to take no measurements
+    */
+    public void setMetricsListener(ClientMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    public ClientMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+    * Establishes a connection to each endpoint in advance, so that the first request
+    * does not pay for the TCP and TLS handshakes.
+    *
+    * @throws HttpClientException if no endpoint can be reached
+    */
+    public void warmUp() throws HttpClientException {
+        IOException failure = null;
+        boolean reached = false;
+        for(Endpoint endpoint : balancer.getEndpointStates()) {
+            try {
+                endpoint.getPool().warmUp(endpoint.getUrl());
+                reached = true;
+            } catch(IOException e) {
+                failure = e;
+            }
+        }
+        if(!reached) {
+            throw new HttpClientException(failure);
+        }
+    }
+
     /**
     * Make an API request and parse the JSON response into a new object.
     *
@@ -125,168 +316,859 @@ public class HttpClient {
     public <T> T request(
             String target, String method, TypeReference<T> responseType, Object requestBody, Map<String, String> extraHeaders)
             throws HttpClientException {
+        return request(target, method, responseType, requestBody, extraHeaders, null);
+    }
+
+    /**
+    * Make an API request and parse the JSON response into a new object, calling the given
+    * hook before each attempt.
+    *
+    * @param target the URL to request (relative URLs will resolve against the {@link #getBaseUrl() base URL}).
+    * @param method the request method (GET, POST, DELETE, etc.)
+    * @param responseType the Java type corresponding to a successful response message for this URL
+    * @param requestBody the object that should be serialized to JSON as the request body.
+    *                    If <code>null</code>, no request body is sent
+    * @param extraHeaders any additional HTTP headers, specified as an alternating sequence of header names and values
+    * @param hook called before the first attempt and every retry, <code>null</code> for none
+    * @param <T> Type
+    * @return for a successful response, the deserialized response body, or <code>null</code> for a 201 response
+    * @throws HttpClientException if an exception occurs during processing,
+    *           or the server returns a 4xx or 5xx error response
+    */
+    public <T> T request(String target, String method, TypeReference<T> responseType, Object requestBody,
+                         Map<String, String> extraHeaders, AttemptHook hook) throws HttpClientException {
+
+        RetryBudget budget = startRetries();
+        for(int attempt = 1; ; attempt++) {
+            if(hook != null) {
+                hook.beforeAttempt(attempt);
+            }
+            try {
+                return exchange(balancer.select(), target, method, responseType, requestBody, extraHeaders);
+            } catch(HttpClientException e) {
+                awaitRetry(e, attempt, budget);
+            }
+        }
+    }
 
+    /**
+    * Parse a JSON response body which was read earlier, e.g. from a cache, the way
+    * {@link #request(String, String, TypeReference, Object, Map)} parses responses.
+    *
+    * @param content the response body
+    * @param responseType the Java type corresponding to the response
+    * @param <T> Type
+    * @return the deserialized response body
+    * @throws HttpClientException if the body can not be parsed
+    */
+    public <T> T readValue(byte[] content, TypeReference<T> responseType) throws HttpClientException {
         try {
-            HttpURLConnection connection = sendRequest(target, method, requestBody, extraHeaders);
-            return readResponseOrError(connection, responseType, true, extraHeaders);
+            return MAPPER.readValue(content, responseType);
         } catch(IOException e) {
             throw new HttpClientException(e);
         }
     }
 
     /**
-    * Make an API request and return the raw data from the response as an
-    * InputStream.
+    * Makes a single attempt of {@link #request(String, String, TypeReference, Object, Map)},
+    * following redirects with GET requests.
+    */
+    private <T> T exchange(Endpoint endpoint, String target, String method, TypeReference<T> responseType,
+                           Object requestBody, Map<String, String> extraHeaders) throws HttpClientException {
+
+        // every hop goes to the endpoint which sent the redirect, relative locations are its own
+        for(int redirects = 0; ; redirects++) {
+            ExchangeRecorder recorder = new ExchangeRecorder(metricsListener, method);
+            long started = endpoint.start();
+            String location;
+            try {
+                TransportResponse response = openExchange(endpoint, target, method, requestBody, extraHeaders, recorder);
+                try {
+                    location = redirectLocation(response, recorder);
+                    if(location == null) {
+                        T value = readResponseOrError(response, responseType, recorder);
+                        completed(endpoint, started, recorder);
+                        return value;
+                    }
+                } finally {
+                    response.close();
+                }
+            } catch(IOException e) {
+                throw failed(endpoint, started, recorder, exchangeFailure(e));
+            } catch(HttpClientException e) {
+                throw failed(endpoint, started, recorder, e);
+            }
+            completed(endpoint, started, recorder);
+            checkRedirects(redirects, location);
+            // follow the redirect once the connection is handed back to the pool
+            target = location;
+            method = "GET";
+            requestBody = null;
+        }
+    }
+
+    /**
+    * Make an API request without blocking and parse the JSON response into a new object, calling
+    * the given hook before each attempt. Through an {@link AsyncTransport} such as {@link Http2Transport}
+    * no thread waits for the request: the exchanges, the waits of the hook and the delays before
+    * retries are continuations of futures, and response bodies are read into memory before they are
+    * parsed. Through any other transport each attempt holds a thread of the executor of the
+    * {@link ConnectionPool} while it is in progress. Cancelling the returned future aborts the
+    * exchange in progress and stops further attempts.
+    *
+    * @param target the URL to request (relative URLs will resolve against the {@link #getBaseUrl() base URL}).
+    * @param method the request method (GET, POST, DELETE, etc.)
+    * @param responseType the Java type corresponding to a successful response message for this URL
+    * @param requestBody the object that should be serialized to JSON as the request body.
+    *                    If <code>null</code>, no request body is sent
+    * @param extraHeaders any additional HTTP headers, specified as an alternating sequence of header names and values
+    * @param hook called before the first attempt and every retry, <code>null</code> for none
+    * @param <T> Type
+    * @return the future deserialized response body, failed with an {@link HttpClientException} if an
+    *         exception occurs during processing, or the server returns a 4xx or 5xx error response
+    */
+    public <T> CompletableFuture<T> requestAsync(String target, String method, TypeReference<T> responseType,
+                                                 Object requestBody, Map<String, String> extraHeaders, AttemptHook hook) {
+        AsyncRequest<T> request = new AsyncRequest<>(target, method, responseType, requestBody, extraHeaders, hook);
+        request.attempt(1);
+        return request;
+    }
+
+    /**
+    * Run a task performing one or more requests of this client asynchronously on the
+    * executor of its {@link ConnectionPool}. The returned future is completed by the thread
+    * which ran the task, so dependent stages may be chained to it. Cancelling it with
+    * <code>mayInterruptIfRunning</code> set aborts the HTTP exchange in progress.
+    *
+    * @param task the task to run
+    * @param <T> Type
+    * @return the future result of the task
+    */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(task, pool.getExecutor());
+    }
+
+    /**
+    * Run a task performing one or more requests of this client asynchronously on the given
+    * executor, e.g. one of its own for requests made by tasks already running on the executor
+    * of the {@link ConnectionPool}. The returned future is completed by the thread which ran
+    * the task. Cancelling it with <code>mayInterruptIfRunning</code> set aborts the HTTP
+    * exchange in progress.
+    *
+    * @param task the task to run
+    * @param executor the executor running the task
+    * @param <T> Type
+    * @return the future result of the task
+    */
+    public <T> CompletableFuture<T> submit(Callable<T> task, Executor executor) {
+        HttpRequestFuture<T> future = new HttpRequestFuture<>(task);
+        executor.execute(future);
+        return future;
+    }
+
+    /**
+    * Make an API request and return the data from the response as a stream,
+    * decompressed if the server compressed it.
+    *
+    * @param target the URL to request (relative URLs will resolve against the {@link #getBaseUrl() base URL}).
+    * @param method the request method (GET, POST, DELETE, etc.)
+    * @param requestBody the object that should be serialized to JSON as the request body.
+    *          If <code>null</code> no request body is sent
+    * @param extraHeaders any additional HTTP headers, specified as an alternating sequence of header names and values
+    * @return for a successful response, the response stream, or <code>null</code> for a 201 response
+    * @throws HttpClientException if an exception occurs during processing,
+    *           or the server returns a 4xx or 5xx error response
+    */
+    public ResponseStream requestForStream(String target, String method, Object requestBody, Map<String, String> extraHeaders)
+            throws HttpClientException {
+        return requestForStream(target, method, requestBody, extraHeaders, null);
+    }
+
+    /**
+    * Make an API request and return the data from the response as a stream, calling the
+    * given hook before each attempt.
     *
     * @param target the URL to request (relative URLs will resolve against the {@link #getBaseUrl() base URL}).
     * @param method the request method (GET, POST, DELETE, etc.)
     * @param requestBody the object that should be serialized to JSON as the request body.
     *          If <code>null</code> no request body is sent
     * @param extraHeaders any additional HTTP headers, specified as an alternating sequence of header names and values
+    * @param hook called before the first attempt and every retry, <code>null</code> for none
     * @return for a successful response, the response stream, or <code>null</code> for a 201 response
     * @throws HttpClientException if an exception occurs during processing,
     *           or the server returns a 4xx or 5xx error response
     */
-    public InputStream requestForStream(String target, String method, Object requestBody, Map<String, String> extraHeaders)
+    public ResponseStream requestForStream(String target, String method, Object requestBody,
+                                           Map<String, String> extraHeaders, AttemptHook hook)
             throws HttpClientException {
 
+        RetryBudget budget = startRetries();
+        for(int attempt = 1; ; attempt++) {
+            if(hook != null) {
+                hook.beforeAttempt(attempt);
+            }
+            try {
+                return exchangeForStream(target, method, requestBody, extraHeaders);
+            } catch(HttpClientException e) {
+                awaitRetry(e, attempt, budget);
+            }
+        }
+    }
+
+    /**
+    * Makes a single attempt of {@link #requestForStream(String, String, Object, Map)},
+    * following redirects with the same request.
+    */
+    private ResponseStream exchangeForStream(String target, String method, Object requestBody, Map<String, String> extraHeaders)
+            throws HttpClientException {
+
+        // every hop goes to the endpoint which sent the redirect, relative locations are its own
+        Endpoint endpoint = balancer.select();
+        for(int redirects = 0; ; redirects++) {
+            ExchangeRecorder recorder = new ExchangeRecorder(metricsListener, method);
+            long started = endpoint.start();
+            TransportResponse response;
+            String location;
+            try {
+                response = openExchange(endpoint, target, method, requestBody, extraHeaders, recorder);
+            } catch(IOException e) {
+                throw failed(endpoint, started, recorder, exchangeFailure(e));
+            }
+            boolean streaming = false;
+            try {
+                int responseCode = response.getStatusCode();
+                if(responseCode == HTTP_NO_CONTENT) {
+                    // successful response with no content
+                    completed(endpoint, started, recorder);
+                    return null;
+                } else if(responseCode >= 400) {
+                    readError(response, recorder);
+                    return null; // not reachable, readError always throws exception
+                }
+                location = redirectLocation(response, recorder);
+                if(location == null) {
+                    // the connection is handed back to the pool when the caller closes the stream
+                    InputStream body = recorder.countReceived(response.getBody());
+                    if("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+                        body = recorder.countDecoded(new GZIPInputStream(body));
+                    }
+                    ResponseStream stream = new PooledInputStream(body, response, recorder);
+                    streaming = true;
+                    // the endpoint has answered, reading the body is up to the caller
+                    endpoint.finish(started, null);
+                    return stream;
+                }
+            } catch(IOException e) {
+                throw failed(endpoint, started, recorder, exchangeFailure(e));
+            } catch(HttpClientException e) {
+                throw failed(endpoint, started, recorder, e);
+            } finally {
+                if(!streaming) {
+                    response.close();
+                }
+            }
+            completed(endpoint, started, recorder);
+            checkRedirects(redirects, location);
+            target = location;
+        }
+    }
+
+    /**
+    * Stops following a chain of redirects which is too long or leads nowhere. The failure
+    * is final, as another attempt would be redirected the same way.
+    *
+    * @param redirects the number of redirects followed so far
+    * @param location the target of the next redirect
+    */
+    private static void checkRedirects(int redirects, String location) throws HttpClientException {
+        if(location == null) {
+            throw new HttpClientException("Redirect without a Location header");
+        }
+        if(redirects >= MAX_REDIRECTS) {
+            throw new HttpClientException("Too many redirects, the last one to " + location);
+        }
+    }
+
+    /**
+    * Reports a successful exchange to the load balancer and the metrics listener.
+    */
+    private static void completed(Endpoint endpoint, long started, ExchangeRecorder recorder) {
+        endpoint.finish(started, null);
+        recorder.complete();
+    }
+
+    /**
+    * Wraps the I/O error an exchange failed with. Cancelling a request aborts its exchange,
+    * which most transports report like a lost connection; such an error is reported as a
+    * cancellation instead, so that it is neither retried nor held against the endpoint.
+    */
+    private static HttpClientException exchangeFailure(IOException e) {
+        if(!(e instanceof InterruptedIOException) && HttpRequestFuture.isCurrentCancelled()) {
+            InterruptedIOException cancelled = new InterruptedIOException("Request cancelled");
+            cancelled.initCause(e);
+            return new HttpClientException(cancelled);
+        }
+        return new HttpClientException(e);
+    }
+
+    /**
+    * Reports a failed exchange to the load balancer and the metrics listener.
+    *
+    * @return the failure
+    */
+    private static HttpClientException failed(Endpoint endpoint, long started, ExchangeRecorder recorder,
+                                              HttpClientException failure) {
+        endpoint.finish(started, failure);
+        return recorder.failed(failure);
+    }
+
+    /**
+    * Registers a new request with the retry budget.
+    *
+    * @return the budget of the client, or <code>null</code> if requests are not retried
+    */
+    private RetryBudget startRetries() {
+        RetryBudget budget = retryBudget;
+        if(budget != null) {
+            budget.deposit();
+        }
+        return budget;
+    }
+
+    /**
+    * Waits before the next attempt of a failed request, or rethrows the failure if the
+    * request must not be retried.
+    */
+    private void awaitRetry(HttpClientException failure, int attempt, RetryBudget budget)
+            throws HttpClientException {
+
+        long delay = retryDelay(failure, attempt, budget);
+        if(delay < 0) {
+            throw failure;
+        }
         try {
-            HttpURLConnection connection = sendRequest(target, method, requestBody, extraHeaders);
-            int responseCode = connection.getResponseCode();
-            if(responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
-                // successful response with no content
-                return null;
-            } else if(responseCode >= 400) {
-                readError(connection);
-                return null; // not reachable, readError always throws exception
-            } else if(responseCode >= 300) {
-                // redirect - all redirects we care about from the S4
-                // APIs are 303. We have to follow them manually to make
-                // authentication work properly.
-                String location = connection.getHeaderField("Location");
-                // consume body
-                InputStream stream = connection.getInputStream();
-                IOUtils.copy(stream, new NullOutputStream());
-                IOUtils.closeQuietly(stream);
-                // follow the redirect
-                return requestForStream(location, method, requestBody, extraHeaders);
-            } else {
-                return connection.getInputStream();
+            Thread.sleep(delay);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    /**
+    * Decides whether a failed request is retried, taking a retry from the budget if so.
+    *
+    * @return the time in milliseconds to wait before the next attempt, or -1 if the request
+    *         must not be retried
+    */
+    private long retryDelay(HttpClientException failure, int attempt, RetryBudget budget) {
+        RetryPolicy policy = retryPolicy;
+        if(policy == null || budget == null) {
+            return -1;
+        }
+        long delay = policy.retryDelay(failure, attempt);
+        if(delay < 0 || !budget.tryWithdraw()) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+    * Sends a request and waits for the response status. A compressed body which the server
+    * rejects as unsupported is sent once more without compression.
+    */
+    private TransportResponse openExchange(Endpoint endpoint, String target, String method, Object requestBody,
+                                           Map<String, String> extraHeaders, ExchangeRecorder recorder)
+            throws IOException {
+
+        RequestEntity entity = prepareEntity(requestBody);
+        TransportResponse response = sendRequest(endpoint, target, method, entity, extraHeaders, recorder);
+        if(!isCompressionRejected(entity, response)) {
+            return response;
+        }
+        ConnectionPool.consume(response.getBody());
+        response.close();
+        return sendRequest(endpoint, target, method, entity.uncompressed(), extraHeaders, recorder);
+    }
+
+    /**
+    * @return the request body ready for sending, compressed unless the server refused compressed
+    *         bodies, or <code>null</code> if there is none
+    */
+    private RequestEntity prepareEntity(Object requestBody) throws IOException {
+        if(requestBody == null) {
+            return null;
+        }
+        String encoding = Boolean.FALSE.equals(compressedBodiesAccepted) ? null : requestBodyEncoding;
+        return RequestEntity.prepare(MAPPER, requestBody, encoding, compressionThreshold);
+    }
+
+    /**
+    * Learns from the response to a request whether the server accepts compressed bodies.
+    *
+    * @return whether the body of the request was compressed and rejected as unsupported, so
+    *         that the request has to be sent once more without compression
+    */
+    private boolean isCompressionRejected(RequestEntity entity, TransportResponse response) {
+        if(entity == null || !entity.isCompressed()) {
+            return false;
+        }
+        int responseCode = response.getStatusCode();
+        if(responseCode != HTTP_UNSUPPORTED_MEDIA_TYPE) {
+            if(responseCode < 400) {
+                compressedBodiesAccepted = Boolean.TRUE;
             }
-        } catch(IOException e) {
-            throw new HttpClientException(e);
+            return false;
         }
+        compressedBodiesAccepted = Boolean.FALSE;
+        return true;
     }
 
+    private static final int HTTP_NO_CONTENT = 204;
+
     /**
-    * Handles the sending side of an HTTP request, returning a connection
-    * from which the response (or error) can be read.
+    * The number of redirects followed by one attempt of a request.
     */
-    private HttpURLConnection sendRequest(String target, String method, Object requestBody, Map<String, String> extraHeaders)
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    /**
+    * Sends an HTTP request through the transport of the endpoint and waits for the
+    * status and headers of the response.
+    */
+    private TransportResponse sendRequest(Endpoint endpoint, String target, String method, RequestEntity entity,
+                                          Map<String, String> extraHeaders, ExchangeRecorder recorder)
             throws IOException {
 
-        URL requestUrl = new URL(baseUrl, target);
-        HttpURLConnection connection = (HttpURLConnection)requestUrl.openConnection();
-        connection.setRequestMethod(method);
-        connection.setInstanceFollowRedirects(false);
-        connection.setRequestProperty("Authorization", authorizationHeader);
+        TransportRequest request = newRequest(endpoint, target, method, entity, extraHeaders, recorder);
+        HttpRequestFuture.attach(request);
+        TransportResponse response = endpoint.getPool().execute(request);
+        recorder.responseStarted(response.getStatusCode());
+        return response;
+    }
+
+    /**
+    * Creates an HTTP request to the endpoint, with the authorization and the given headers.
+    */
+    private TransportRequest newRequest(Endpoint endpoint, String target, String method, final RequestEntity entity,
+                                        Map<String, String> extraHeaders, final ExchangeRecorder recorder)
+            throws IOException {
 
+        URL requestUrl = new URL(endpoint.getUrl(), target);
+        recorder.sending(requestUrl);
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[] {"Authorization", authorizationHeader});
         for (String key : extraHeaders.keySet()) {
-            connection.setRequestProperty(key, extraHeaders.get(key));
+            headers.add(new String[] {key, extraHeaders.get(key)});
         }
 
-        if(requestBody != null) {
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/json");
-            OutputStream out = connection.getOutputStream();
-            try {
-                MAPPER.writeValue(out, requestBody);
-            } finally {
-            	out.flush();
-                out.close();
+        byte[] content = null;
+        TransportRequest.BodyWriter body = null;
+        if(entity != null) {
+            headers.add(new String[] {"Content-Type", "application/json"});
+            if(entity.getEncoding() != null) {
+                headers.add(new String[] {"Content-Encoding", entity.getEncoding()});
             }
+            content = entity.getContent();
+            if(content != null) {
+                recorder.countSent(content.length);
+            } else {
+                body = new TransportRequest.BodyWriter() {
+                    public void writeTo(OutputStream out) throws IOException {
+                        entity.writeTo(out, MAPPER, recorder);
+                    }
+                };
+            }
+        }
+        return new TransportRequest(requestUrl, method, headers, content, body, new Runnable() {
+            public void run() {
+                recorder.connected();
+            }
+        });
+    }
+
+    /**
+    * Returns the target of a redirect response, consuming its body so that the
+    * connection can be reused, or <code>null</code> if the response is not a redirect.
+    * All redirects we care about from the S4 APIs are 303. We have to follow them
+    * manually to make authentication work properly.
+    */
+    private static String redirectLocation(TransportResponse response, ExchangeRecorder recorder) {
+        int responseCode = response.getStatusCode();
+        if(responseCode < 300 || responseCode >= 400) {
+            return null;
         }
-        return connection;
+        ConnectionPool.consume(recorder.countReceived(response.getBody()));
+        return response.getHeader("Location");
     }
 
     /**
-    * Read a response or error message from the given connection, handling any 303 redirect responses
-    * if <code>followRedirects</code> is true.
+    * Read a response or error message. Redirects must have been handled by the caller.
     */
-    private <T> T readResponseOrError(HttpURLConnection connection, TypeReference<T> responseType, boolean followRedirects, Map<String, String> extraHeaders)
-          throws HttpClientException {
+    private <T> T readResponseOrError(TransportResponse response, TypeReference<T> responseType,
+                                      ExchangeRecorder recorder) throws HttpClientException, IOException {
 
-        InputStream stream = null;
+        int responseCode = response.getStatusCode();
+        if(responseCode == HTTP_NO_CONTENT) {
+            // successful response with no content
+            return null;
+        }
+        if(responseCode >= 400) {
+            readError(response, recorder);
+        }
+        InputStream stream = recorder.countReceived(response.getBody());
         try {
-            int responseCode = connection.getResponseCode();
-            if(responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
-                // successful response with no content
-                return null;
+            if("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+                stream = recorder.countDecoded(new GZIPInputStream(stream));
             }
-            String encoding = connection.getContentEncoding();
-            if("gzip".equalsIgnoreCase(encoding)) {
-                stream = new GZIPInputStream(connection.getInputStream());
-            } else {
-                stream = connection.getInputStream();
+            return MAPPER.readValue(stream, responseType);
+        } catch(JsonProcessingException e) {
+            if(HttpRequestFuture.isCurrentCancelled()) {
+                // the body was cut short by the cancellation
+                throw e;
             }
+            // the server answered, but with a body which another attempt would not fix
+            throw new HttpClientException("Invalid response body: " + e.getOriginalMessage(), e, responseCode);
+        } finally {
+            // read up to the end, so that the connection can be reused
+            ConnectionPool.consume(stream);
+        }
+    }
 
-            if(responseCode < 300 || responseCode >= 400 || !followRedirects) {
-                try {
-                    return MAPPER.readValue(stream, responseType);
-                } finally {
-                    stream.close();
-                }
-            } else {
-                // redirect - all redirects we care about from the S4
-                // APIs are 303. We have to follow them manually to make
-                // authentication work properly.
-                String location = connection.getHeaderField("Location");
-                // consume body
-                IOUtils.copy(stream, new NullOutputStream());
-                IOUtils.closeQuietly(stream);
-                // follow the redirect
-                return get(location, responseType, extraHeaders);
+    /**
+    * Read an error response and throw a suitable {@link HttpClientException}. This method
+    * always throws an exception, it will never return normally.
+    */
+    private void readError(TransportResponse response, ExchangeRecorder recorder) throws HttpClientException {
+        int responseCode = response.getStatusCode();
+        long retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+        InputStream stream = recorder.countReceived(response.getBody());
+        JsonNode errorNode = null;
+        try {
+            if("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+                stream = recorder.countDecoded(new GZIPInputStream(stream));
+            }
+            String contentType = response.getHeader("Content-Type");
+            if(contentType != null && contentType.contains("json")) {
+                errorNode = MAPPER.readTree(stream);
+            } else if(contentType != null && contentType.contains("xml")) {
+                errorNode = XML_MAPPER.readTree(stream);
             }
-        } catch(Exception e) {
-            readError(connection);
-            return null; // unreachable, as readError always throws exception
+        } catch(IOException e) {
+            // the status tells enough
+        } finally {
+            // read up to the end, so that the connection can be reused
+            ConnectionPool.consume(stream);
         }
+        throw new HttpClientException(
+                "Server returned response code " + responseCode, errorNode, responseCode, retryAfter);
     }
 
     /**
-    * Read an error response from the given connection and throw a
-    * suitable {@link HttpClientException}. This method always throws an
-    * exception, it will never return normally.
+    * Converts the value of a <code>Retry-After</code> header, either a number of seconds or an
+    * HTTP date, into milliseconds from now.
+    *
+    * @return the delay, or -1 if the header is missing or invalid
     */
-    private void readError(HttpURLConnection connection) throws HttpClientException {
-        InputStream stream;
+    static long parseRetryAfter(String value) {
+        if(value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
         try {
-            String encoding = connection.getContentEncoding();
-            if("gzip".equalsIgnoreCase(encoding)) {
-                stream = new GZIPInputStream(connection.getInputStream());
-            } else {
-                stream = connection.getInputStream();
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch(NumberFormatException e) {
+            // not a number of seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch(ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+    * Future of a request made with {@link #requestAsync}, which makes the attempts of the request
+    * as continuations of one another.
+    */
+    private class AsyncRequest<T> extends CompletableFuture<T> {
+
+        private final String target;
+
+        private final String method;
+
+        private final TypeReference<T> responseType;
+
+        private final Object requestBody;
+
+        private final Map<String, String> extraHeaders;
+
+        private final AttemptHook hook;
+
+        private final RetryBudget budget = startRetries();
+
+        /**
+        * The request of the asynchronous exchange in progress.
+        */
+        private volatile TransportRequest inFlight;
+
+        /**
+        * The attempt in progress on a thread of the pool, if the transport blocks.
+        */
+        private volatile Future<T> blocking;
+
+        AsyncRequest(String target, String method, TypeReference<T> responseType, Object requestBody,
+                     Map<String, String> extraHeaders, AttemptHook hook) {
+            this.target = target;
+            this.method = method;
+            this.responseType = responseType;
+            this.requestBody = requestBody;
+            this.extraHeaders = extraHeaders;
+            this.hook = hook;
+        }
+
+        /**
+        * Makes an attempt once the hook allows it.
+        */
+        void attempt(final int attempt) {
+            if(isDone()) {
+                return;
+            }
+            CompletableFuture<Void> allowed;
+            try {
+                allowed = hook == null ? CompletableFuture.<Void>completedFuture(null) : hook.beforeAttemptAsync(attempt);
+            } catch(RuntimeException e) {
+                completeExceptionally(e);
+                return;
+            }
+            allowed.whenComplete(new BiConsumer<Void, Throwable>() {
+                public void accept(Void ignored, Throwable refused) {
+                    if(refused != null) {
+                        completeExceptionally(failure(refused));
+                    } else {
+                        dispatch(attempt);
+                    }
+                }
+            });
+        }
+
+        /**
+        * Starts an attempt on the endpoint chosen by the load balancer, through its transport.
+        */
+        private void dispatch(final int attempt) {
+            if(isDone()) {
+                return;
+            }
+            final Endpoint endpoint = balancer.select();
+            if(endpoint.getPool().getTransport() instanceof AsyncTransport) {
+                hop(attempt, endpoint, target, method, requestBody, 0);
+                return;
+            }
+            HttpRequestFuture<T> attemptFuture = new HttpRequestFuture<>(new Callable<T>() {
+                public T call() throws HttpClientException {
+                    return exchange(endpoint, target, method, responseType, requestBody, extraHeaders);
+                }
+            });
+            attemptFuture.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable error) {
+                    if(error != null) {
+                        retryOrFail(attempt, failure(error));
+                    } else {
+                        complete(value);
+                    }
+                }
+            });
+            blocking = attemptFuture;
+            if(isCancelled()) {
+                attemptFuture.cancel(true);
             }
+            endpoint.getPool().getExecutor().execute(attemptFuture);
+        }
 
-            InputStreamReader reader = new InputStreamReader(stream, "UTF-8");
+        /**
+        * Makes one exchange of an attempt, following redirects with GET requests.
+        */
+        private void hop(final int attempt, final Endpoint endpoint, String target, String method,
+                         Object requestBody, final int redirects) {
+            final ExchangeRecorder recorder = new ExchangeRecorder(metricsListener, method);
+            final long started = endpoint.start();
+            openExchange(endpoint, target, method, requestBody, recorder).whenComplete(
+                    new BiConsumer<TransportResponse, Throwable>() {
+                public void accept(TransportResponse response, Throwable error) {
+                    if(error != null) {
+                        retryOrFail(attempt, failed(endpoint, started, recorder, failure(error)));
+                        return;
+                    }
+                    String location;
+                    try {
+                        try {
+                            location = redirectLocation(response, recorder);
+                            if(location == null) {
+                                T value = readResponseOrError(response, responseType, recorder);
+                                completed(endpoint, started, recorder);
+                                complete(value);
+                                return;
+                            }
+                        } finally {
+                            response.close();
+                        }
+                    } catch(IOException | HttpClientException e) {
+                        retryOrFail(attempt, failed(endpoint, started, recorder, failure(e)));
+                        return;
+                    }
+                    completed(endpoint, started, recorder);
+                    try {
+                        checkRedirects(redirects, location);
+                    } catch(HttpClientException e) {
+                        retryOrFail(attempt, e);
+                        return;
+                    }
+                    // every hop goes to the endpoint which sent the redirect, relative locations are its own
+                    hop(attempt, endpoint, location, "GET", null, redirects + 1);
+                }
+            });
+        }
+
+        /**
+        * Sends a request through the asynchronous transport of the endpoint. A compressed body
+        * which the server rejects as unsupported is sent once more without compression.
+        */
+        private CompletableFuture<TransportResponse> openExchange(final Endpoint endpoint, final String target,
+                                                                  final String method, Object requestBody,
+                                                                  final ExchangeRecorder recorder) {
+            final RequestEntity entity;
+            try {
+                entity = prepareEntity(requestBody);
+            } catch(IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return send(endpoint, target, method, entity, recorder).thenCompose(
+                    new Function<TransportResponse, CompletionStage<TransportResponse>>() {
+                public CompletionStage<TransportResponse> apply(TransportResponse response) {
+                    if(!isCompressionRejected(entity, response)) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    response.close();
+                    return send(endpoint, target, method, entity.uncompressed(), recorder);
+                }
+            });
+        }
 
+        /**
+        * Sends an HTTP request with a buffered body through the asynchronous transport of the endpoint.
+        */
+        private CompletableFuture<TransportResponse> send(Endpoint endpoint, String target, String method,
+                                                          RequestEntity entity, final ExchangeRecorder recorder) {
+            TransportRequest request;
             try {
-                JsonNode errorNode = null;
-                if(connection.getContentType().contains("json")) {
-                    errorNode = MAPPER.readTree(stream);
-                } else if(connection.getContentType().contains("xml")) {
-                    errorNode = XML_MAPPER.readTree(stream);
+                if(entity != null) {
+                    entity = entity.buffered(MAPPER, recorder);
+                }
+                request = newRequest(endpoint, target, method, entity, extraHeaders, recorder);
+            } catch(IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            inFlight = request;
+            if(isCancelled()) {
+                request.abort();
+            }
+            return endpoint.getPool().executeAsync(request).thenApply(
+                    new Function<TransportResponse, TransportResponse>() {
+                public TransportResponse apply(TransportResponse response) {
+                    recorder.responseStarted(response.getStatusCode());
+                    return response;
                 }
+            });
+        }
 
-                throw new HttpClientException("Server returned response code " + connection.getResponseCode(), errorNode);
+        /**
+        * Schedules the next attempt after a failed one, or fails the request if it must not be retried.
+        */
+        private void retryOrFail(final int attempt, HttpClientException failure) {
+            if(isDone()) {
+                return;
+            }
+            long delay = retryDelay(failure, attempt, budget);
+            if(delay < 0) {
+                completeExceptionally(failure);
+                return;
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(new Runnable() {
+                public void run() {
+                    attempt(attempt + 1);
+                }
+            });
+        }
 
-                } finally {
-                    reader.close();
+        /**
+        * Wraps the error an attempt failed with. Once the request is cancelled, its aborted exchange
+        * is reported as a cancellation, so that it is not held against the endpoint.
+        */
+        private HttpClientException failure(Throwable error) {
+            if(error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            if(error instanceof HttpClientException) {
+                return (HttpClientException)error;
+            }
+            if(isCancelled() && !(error instanceof InterruptedIOException)) {
+                InterruptedIOException cancelled = new InterruptedIOException("Request cancelled");
+                cancelled.initCause(error);
+                error = cancelled;
+            }
+            return new HttpClientException(error);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if(cancelled) {
+                TransportRequest request = inFlight;
+                if(request != null) {
+                    request.abort();
+                }
+                Future<T> attempt = blocking;
+                if(attempt != null) {
+                    attempt.cancel(true);
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+    * Response stream which hands its connection back to the pool and completes the
+    * measurement of its exchange when closed.
+    */
+    private static class PooledInputStream extends ResponseStream {
+
+        private final TransportResponse response;
+
+        private final ExchangeRecorder recorder;
+
+        private boolean released;
+
+        PooledInputStream(InputStream in, TransportResponse response, ExchangeRecorder recorder) {
+            super(in);
+            this.response = response;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                synchronized(this) {
+                    if(!released) {
+                        released = true;
+                        response.close();
+                        recorder.complete();
+                    }
                 }
-            } catch(HttpClientException e2) {
-                 throw e2;
-        } catch(Exception e2) {
-            throw new HttpClientException("Error communicating with server", e2);
+            }
         }
     }
 
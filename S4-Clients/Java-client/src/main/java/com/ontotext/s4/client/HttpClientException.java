@@ -16,6 +16,9 @@
  */
 package com.ontotext.s4.client;
 
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
 import com.fasterxml.jackson.databind.JsonNode;
 
 /**
@@ -35,6 +38,18 @@ public class HttpClientException extends RuntimeException {
     */
     private JsonNode response;
 
+    /**
+    * The HTTP status code of the error response, or of the response which could not be
+    * processed, or -1 if no response was received.
+    */
+    private int statusCode = -1;
+
+    /**
+    * The delay requested by the server through a <code>Retry-After</code> header, in
+    * milliseconds, or -1 if there was none.
+    */
+    private long retryAfter = -1;
+
     public HttpClientException() {
     }
 
@@ -50,11 +65,28 @@ public class HttpClientException extends RuntimeException {
     	super(message, cause);
     }
 
+    /**
+    * @param message the detail message
+    * @param cause the failure to process the response
+    * @param statusCode the status code of the response which could not be processed
+    */
+    public HttpClientException(String message, Throwable cause, int statusCode) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+
     public HttpClientException(String message, JsonNode response) {
         super(message);
         this.response = response;
     }
 
+    public HttpClientException(String message, JsonNode response, int statusCode, long retryAfter) {
+        super(message);
+        this.response = response;
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
     /**
     * If this exception resulted from a 4xx or 5xx error response from
     * the server, this method provides access to the response body.
@@ -68,4 +100,28 @@ public class HttpClientException extends RuntimeException {
     	return response;
     }
 
+    /**
+    * @return the HTTP status code of the error response, or of a successful response whose body
+    *         could not be parsed, or -1 if the server could not be contacted or did not respond
+    */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+    * @return whether the request was cancelled or interrupted by the caller before it completed,
+    *         rather than failed; such an exchange says nothing about the health of the endpoint
+    */
+    public boolean isCancellation() {
+        Throwable cause = getCause();
+        return statusCode == -1 && cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException);
+    }
+
+    /**
+    * @return the delay in milliseconds the server asked for before the request is repeated,
+    *         or -1 if the response had no <code>Retry-After</code> header
+    */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future of a task submitted through {@link HttpClient#submit(Callable)}, completed by the
+ * thread of the executor which runs the task. Cancelling it with <code>mayInterruptIfRunning</code>
+ * set interrupts that thread and aborts the HTTP exchange in progress, so that a blocked read
+ * or write fails immediately. Like any {@link CompletableFuture}, dependent stages can be
+ * chained to it without blocking a thread.
+ */
+class HttpRequestFuture<V> extends CompletableFuture<V> implements Runnable {
+
+    /**
+    * The future whose task is executed by the current thread, if any.
+    */
+    private static final ThreadLocal<HttpRequestFuture<?>> CURRENT = new ThreadLocal<>();
+
+    private final Callable<V> task;
+
+    /**
+    * The thread running the task, guarded by the future.
+    */
+    private Thread runner;
+
+    /**
+    * The request of the exchange in progress.
+    */
+    private volatile TransportRequest request;
+
+    HttpRequestFuture(Callable<V> task) {
+        this.task = task;
+    }
+
+    /**
+    * Registers the request of a new exchange with the future executed by the current
+    * thread, so that cancelling the future aborts it.
+    *
+    * @throws InterruptedIOException if the future has already been cancelled
+    */
+    static void attach(TransportRequest request) throws InterruptedIOException {
+        HttpRequestFuture<?> future = CURRENT.get();
+        if(future == null) {
+            return;
+        }
+        future.request = request;
+        if(future.isCancelled()) {
+            request.abort();
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    /**
+    * @return whether the current thread has been interrupted, or runs the task of a future
+    *         which has been cancelled
+    */
+    static boolean isCurrentCancelled() {
+        HttpRequestFuture<?> future = CURRENT.get();
+        return Thread.currentThread().isInterrupted() || future != null && future.isCancelled();
+    }
+
+    /**
+    * Runs the task, unless the future has been cancelled, and completes the future with its outcome.
+    */
+    public void run() {
+        synchronized(this) {
+            if(isDone()) {
+                return;
+            }
+            runner = Thread.currentThread();
+        }
+        CURRENT.set(this);
+        boolean completed;
+        try {
+            completed = complete(task.call());
+        } catch(Throwable e) {
+            completed = completeExceptionally(e);
+        } finally {
+            CURRENT.remove();
+            request = null;
+            synchronized(this) {
+                runner = null;
+            }
+            if(isCancelled()) {
+                // the interrupt of the cancellation must not hit the next task of the thread
+                Thread.interrupted();
+            }
+        }
+        if(completed) {
+            done();
+        }
+    }
+
+    /**
+    * Called by the thread which ran the task once it has completed the future, but not if the
+    * future was cancelled first.
+    */
+    protected void done() {
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if(cancelled && mayInterruptIfRunning) {
+            TransportRequest inFlight = request;
+            if(inFlight != null) {
+                inFlight.abort();
+            }
+            synchronized(this) {
+                if(runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads the requests of a {@link HttpClient} over equivalent endpoints of a service.
+ * Each request goes to the cheaper of two endpoints picked at random, the cost being the
+ * latency average of the endpoint times its outstanding requests. Endpoints failing
+ * {@link #getFailureThreshold()} times in a row, with a server error or without a response,
+ * are ejected for {@link #getEjectionTime()} and then probed with a single request.
+ * When all endpoints are ejected, the one due to be probed first is used.
+ */
+public class LoadBalancer {
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    private volatile int failureThreshold = 5;
+
+    private volatile long ejectionTime = 5000;
+
+    private volatile long maxEjectionTime = 120000;
+
+    private volatile long decayTime = 10000;
+
+    /**
+    * @param urls the base URLs of the endpoints
+    * @param pools the connection pools of the endpoints, in the same order
+    */
+    LoadBalancer(List<URL> urls, List<ConnectionPool> pools) {
+        for(int i = 0; i < urls.size(); i++) {
+            endpoints.add(new Endpoint(urls.get(i), pools.get(i), this));
+        }
+    }
+
+    /**
+    * @return the base URLs of the endpoints
+    */
+    public List<URL> getEndpoints() {
+        List<URL> urls = new ArrayList<>(endpoints.size());
+        for(Endpoint endpoint : endpoints) {
+            urls.add(endpoint.getUrl());
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    /**
+    * @return the base URLs of the endpoints which are currently ejected
+    */
+    public List<URL> getEjectedEndpoints() {
+        List<URL> urls = new ArrayList<>();
+        for(Endpoint endpoint : endpoints) {
+            if(endpoint.isEjected()) {
+                urls.add(endpoint.getUrl());
+            }
+        }
+        return urls;
+    }
+
+    /**
+    * @return the number of consecutive failures after which an endpoint is ejected
+    */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+    * @return the time in milliseconds an endpoint is ejected for the first time. It doubles
+    *         each time the probe after an ejection fails
+    */
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+    public void setEjectionTime(long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    /**
+    * @return the longest time in milliseconds an endpoint is ejected
+    */
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+    public void setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+
+    /**
+    * @return the time in milliseconds over which old latency samples lose most of their weight
+    */
+    public long getDecayTime() {
+        return decayTime;
+    }
+    public void setDecayTime(long decayTime) {
+        this.decayTime = decayTime;
+    }
+
+    Endpoint getPrimary() {
+        return endpoints.get(0);
+    }
+
+    List<Endpoint> getEndpointStates() {
+        return endpoints;
+    }
+
+    /**
+    * Chooses the endpoint of the next request.
+    */
+    Endpoint select() {
+        if(endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for(Endpoint endpoint : endpoints) {
+            if(endpoint.isAvailable(now)) {
+                available.add(endpoint);
+            }
+        }
+        if(available.isEmpty()) {
+            Endpoint first = endpoints.get(0);
+            for(Endpoint endpoint : endpoints) {
+                if(endpoint.getEjectedUntil() - first.getEjectedUntil() < 0) {
+                    first = endpoint;
+                }
+            }
+            return first;
+        }
+        if(available.size() == 1) {
+            return available.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(available.size());
+        int j = random.nextInt(available.size() - 1);
+        if(j >= i) {
+            j++;
+        }
+        Endpoint a = available.get(i);
+        Endpoint b = available.get(j);
+        return a.cost() <= b.cost() ? a : b;
+    }
+}
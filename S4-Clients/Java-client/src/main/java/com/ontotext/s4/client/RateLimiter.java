@@ -0,0 +1,56 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Paces the requests sent to S4 so that they stay within the request and character quotas
+ * of an API key. Each request takes one request permit and as many character permits as
+ * the document it sends has characters. Every attempt of a retried request takes permits
+ * again (see {@link AttemptHook}), as the service counts each one against the quota.
+ *
+ * @see TokenBucketRateLimiter
+ * @see RateLimiters
+ */
+public interface RateLimiter {
+
+    /**
+     * Blocks until a request with the given number of characters may be sent.
+     *
+     * @param characters the number of document characters the request sends
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void acquire(long characters) throws InterruptedException;
+
+    /**
+     * Takes the permits for a request only if they are available right away.
+     *
+     * @param characters the number of document characters the request sends
+     * @return <code>true</code> if the request may be sent now
+     */
+    boolean tryAcquire(long characters);
+
+    /**
+     * Reserves the permits for a request without blocking.
+     *
+     * @param characters the number of document characters the request sends
+     * @return a future which completes once the request may be sent, on which the request can
+     *         be chained without a thread waiting
+     */
+    CompletableFuture<Void> acquireAsync(long characters);
+}
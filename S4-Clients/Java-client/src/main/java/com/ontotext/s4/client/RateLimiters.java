@@ -0,0 +1,87 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link RateLimiter rate limiters} shared by all clients using the same
+ * API key. A limiter registered for a key applies to every request sent with that key,
+ * including the ones of clients created before it was registered.
+ * <p>
+ * Clients do not know the quota of their key, so none is limited until a limiter is
+ * {@link #register registered} or {@link #getOrCreate created} for the key, e.g. through
+ * {@link com.ontotext.s4.service.ServiceClientsFactory#limitRate}.
+ */
+public class RateLimiters {
+
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private RateLimiters() {
+    }
+
+    /**
+     * Shares a limiter between all clients of an API key.
+     *
+     * @param apiKeyId the S4 API key identifier
+     * @param limiter the limiter for the quota of the key
+     */
+    public static void register(String apiKeyId, RateLimiter limiter) {
+        LIMITERS.put(apiKeyId, limiter);
+    }
+
+    /**
+     * Returns the limiter shared by all clients of an API key, registering a
+     * {@link TokenBucketRateLimiter} for the given quota if the key has none yet. Clients
+     * look the limiter of their key up on every request, so it applies to the ones created
+     * before as well.
+     *
+     * @param apiKeyId the S4 API key identifier
+     * @param requestsPerSecond the request quota of the key, 0 for unlimited
+     * @param charactersPerSecond the character quota of the key, 0 for unlimited
+     * @return the limiter of the key, which keeps its own quota if it was already registered
+     */
+    public static RateLimiter getOrCreate(String apiKeyId, double requestsPerSecond, double charactersPerSecond) {
+        RateLimiter limiter = LIMITERS.get(apiKeyId);
+        if(limiter == null) {
+            RateLimiter created = new TokenBucketRateLimiter(requestsPerSecond, charactersPerSecond);
+            limiter = LIMITERS.putIfAbsent(apiKeyId, created);
+            if(limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Stops limiting the requests of an API key.
+     *
+     * @param apiKeyId the S4 API key identifier
+     */
+    public static void unregister(String apiKeyId) {
+        LIMITERS.remove(apiKeyId);
+    }
+
+    /**
+     * @param apiKeyId the S4 API key identifier
+     * @return the limiter registered for the key, or <code>null</code> if its requests are not limited
+     */
+    public static RateLimiter forApiKey(String apiKeyId) {
+        return apiKeyId == null ? null : LIMITERS.get(apiKeyId);
+    }
+}
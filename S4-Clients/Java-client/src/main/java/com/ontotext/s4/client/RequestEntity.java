@@ -0,0 +1,193 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON request body, prepared for sending with an optional <code>Content-Encoding</code>.
+ * Bodies which serialize to no more than the threshold are buffered and sent as they are;
+ * larger ones are streamed to the connection with chunked transfer encoding (and compressed
+ * on the fly if an encoding is given), so they are never held in memory as a whole unless
+ * the request is sent {@link HttpClient#requestAsync asynchronously}.
+ */
+class RequestEntity {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+    * The object which is serialized to JSON.
+    */
+    private final Object value;
+
+    /**
+    * The serialized body, if it is small enough to be buffered.
+    */
+    private final byte[] content;
+
+    /**
+    * The content coding applied to the body, <code>null</code> for none.
+    */
+    private final String encoding;
+
+    private RequestEntity(Object value, byte[] content, String encoding) {
+        this.value = value;
+        this.content = content;
+        this.encoding = encoding;
+    }
+
+    /**
+    * Prepares the body for sending.
+    *
+    * @param mapper the mapper serializing the body
+    * @param value the object to send
+    * @param encoding "gzip", "deflate" or <code>null</code> to send the body uncompressed
+    * @param threshold bodies up to this size in bytes are buffered and never compressed
+    */
+    static RequestEntity prepare(ObjectMapper mapper, Object value, String encoding, int threshold)
+            throws IOException {
+
+        ThresholdBuffer buffer = new ThresholdBuffer(threshold);
+        try {
+            mapper.writeValue(buffer, value);
+        } catch(IOException | RuntimeException e) {
+            // Jackson may wrap the overflow into a JsonMappingException
+            if(!buffer.overflown) {
+                throw e;
+            }
+        }
+        if(buffer.overflown) {
+            return new RequestEntity(value, null, encoding);
+        }
+        return new RequestEntity(value, buffer.toByteArray(), null);
+    }
+
+    /**
+    * @return <code>true</code> if the body is sent with a <code>Content-Encoding</code>
+    */
+    boolean isCompressed() {
+        return encoding != null;
+    }
+
+    /**
+    * @return the same body, sent without compression
+    */
+    RequestEntity uncompressed() {
+        return new RequestEntity(value, isCompressed() ? null : content, null);
+    }
+
+    /**
+    * Serializes a streamed body into memory, compressing it if needed, for the transports which
+    * send a body as a whole.
+    *
+    * @param recorder counts the bytes of the body
+    * @return the same body, held in memory
+    */
+    RequestEntity buffered(ObjectMapper mapper, ExchangeRecorder recorder) throws IOException {
+        if(content != null) {
+            return this;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+        writeTo(buffer, mapper, recorder);
+        return new RequestEntity(value, buffer.toByteArray(), encoding);
+    }
+
+    /**
+    * @return the serialized body, <code>null</code> if it is streamed
+    */
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+    * @return the content coding of the body, <code>null</code> if it is sent as it is
+    */
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+    * Writes a streamed body to the stream of the transport, compressing it if needed.
+    * The stream is flushed, but closed by the transport.
+    */
+    void writeTo(OutputStream out, ObjectMapper mapper, ExchangeRecorder recorder) throws IOException {
+        out = recorder.countSent(out);
+        if("gzip".equalsIgnoreCase(encoding)) {
+            GZIPOutputStream compressed = new GZIPOutputStream(out, BUFFER_SIZE);
+            serialize(mapper, recorder.countEncoded(compressed));
+            compressed.finish();
+        } else if("deflate".equalsIgnoreCase(encoding)) {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out);
+            serialize(mapper, recorder.countEncoded(compressed));
+            compressed.finish();
+        } else {
+            serialize(mapper, out);
+        }
+        out.flush();
+    }
+
+    /**
+    * Writes the value as JSON without closing the target stream.
+    */
+    private void serialize(ObjectMapper mapper, OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        mapper.writeValue(generator, value);
+        generator.flush();
+    }
+
+    /**
+    * Buffer which refuses to grow beyond a given size, so that large bodies are neither
+    * serialized twice in full nor held in memory just to learn their size.
+    */
+    private static class ThresholdBuffer extends ByteArrayOutputStream {
+
+        private final int threshold;
+
+        private boolean overflown;
+
+        ThresholdBuffer(int threshold) {
+            super(Math.min(threshold, BUFFER_SIZE));
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) {
+            checkCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            checkCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void checkCapacity(int len) {
+            if(count + len > threshold) {
+                overflown = true;
+                throw new IllegalStateException("Request body exceeds the compression threshold");
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ontotext.s4.common.DaemonThreadFactory;
+
+/**
+ * Cuts the tail latency of idempotent requests by sending a second, identical request when the
+ * first one is slower than usual, as described by a {@link HedgingPolicy}. The first response
+ * wins and the other request is cancelled, aborting its HTTP exchange.
+ * <p>
+ * The attempts run on daemon threads of their own, so hedged requests may be made from tasks
+ * running on the executor of a {@link ConnectionPool} without waiting for it.
+ */
+public class RequestHedger {
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("s4-hedge"));
+
+    private final HedgingPolicy policy;
+
+    private final RetryBudget budget;
+
+    /**
+    * Ring buffer of the recent latencies in nanoseconds.
+    */
+    private final long[] latencies;
+
+    private int samples;
+
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public RequestHedger(HedgingPolicy policy) {
+        this.policy = policy;
+        this.budget = new RetryBudget(policy.getBudgetRatio(), policy.getBudgetReserve());
+        this.latencies = new long[policy.getWindowSize()];
+    }
+
+    public HedgingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+    * @return the number of hedges sent
+    */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+    * @return the number of hedges which answered before the request they hedged
+    */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+    * @return the time in milliseconds after which a request is hedged now, or -1 if too few
+    *         latencies are known yet
+    */
+    public long getHedgeDelay() {
+        long delay = hedgeDelay();
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    /**
+    * Runs a task, running it a second time if it takes too long, and returns the first result.
+    * The task must be safe to run twice concurrently.
+    *
+    * @param task the task making the request
+    * @param <T> Type
+    * @return the result of the attempt which finished first, or of the one which succeeded
+    *         if the other failed
+    * @throws Exception the failure of the task if all its attempts failed
+    */
+    public <T> T call(Callable<T> task) throws Exception {
+        budget.deposit();
+        long delay = hedgeDelay();
+        if(delay < 0) {
+            long started = System.nanoTime();
+            T result = task.call();
+            record(System.nanoTime() - started);
+            return result;
+        }
+
+        BlockingQueue<Attempt<T>> completed = new LinkedBlockingQueue<>();
+        Attempt<T> primary = new Attempt<>(task, completed);
+        Attempt<T> hedge = null;
+        EXECUTOR.execute(primary);
+        try {
+            Attempt<T> first = completed.poll(delay, TimeUnit.NANOSECONDS);
+            if(first == null && budget.tryWithdraw()) {
+                hedge = new Attempt<>(task, completed);
+                hedges.incrementAndGet();
+                EXECUTOR.execute(hedge);
+            }
+            if(first == null) {
+                first = completed.take();
+            }
+            if(first.failed() && hedge != null) {
+                Attempt<T> second = completed.take();
+                if(!second.failed()) {
+                    first = second;
+                }
+            }
+            if(first == hedge && !first.failed()) {
+                hedgesWon.incrementAndGet();
+            }
+            return first.result();
+        } finally {
+            primary.cancel(true);
+            if(hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+    * @return the hedge delay in nanoseconds, or -1 if too few latencies are known
+    */
+    private long hedgeDelay() {
+        long[] window;
+        synchronized(this) {
+            int count = Math.min(samples, latencies.length);
+            if(count < Math.max(1, policy.getMinSamples())) {
+                return -1;
+            }
+            window = Arrays.copyOf(latencies, count);
+        }
+        Arrays.sort(window);
+        int rank = (int)Math.ceil(policy.getPercentile() / 100 * window.length) - 1;
+        long delay = window[Math.max(0, Math.min(rank, window.length - 1))];
+        return Math.max(delay, TimeUnit.MILLISECONDS.toNanos(policy.getMinDelay()));
+    }
+
+    private synchronized void record(long latency) {
+        latencies[samples % latencies.length] = latency;
+        // keep the index from overflowing while remembering that the window is full
+        samples = samples + 1 == 2 * latencies.length ? latencies.length : samples + 1;
+    }
+
+    /**
+    * One run of the task, reporting itself to the queue when it finishes.
+    */
+    private class Attempt<T> extends HttpRequestFuture<T> {
+
+        private final BlockingQueue<Attempt<T>> completed;
+
+        private volatile long started;
+
+        Attempt(Callable<T> task, BlockingQueue<Attempt<T>> completed) {
+            super(task);
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            started = System.nanoTime();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if(!failed()) {
+                record(System.nanoTime() - started);
+            }
+            completed.add(this);
+        }
+
+        boolean failed() {
+            try {
+                get();
+                return false;
+            } catch(ExecutionException | InterruptedException e) {
+                return true;
+            }
+        }
+
+        T result() throws Exception {
+            try {
+                return get();
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof Exception) {
+                    throw (Exception)cause;
+                }
+                throw (Error)cause;
+            }
+        }
+    }
+}
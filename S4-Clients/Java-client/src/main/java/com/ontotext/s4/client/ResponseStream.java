@@ -0,0 +1,83 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Body of a response returned by {@link HttpClient#requestForStream(String, String, Object, java.util.Map)},
+ * already decompressed if the server compressed it. The stream must be closed, or fully
+ * transferred, so that its connection can be reused.
+ */
+public class ResponseStream extends FilterInputStream {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    protected ResponseStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+    * Writes the rest of the response to a file, replacing its contents, and closes the stream.
+    * The body is copied from the connection to the file through a buffer, as the socket of a
+    * pooled connection can not be handed to the file channel.
+    *
+    * @param target the file
+    * @return the number of bytes written
+    * @throws IOException if the response can not be read or the file can not be written
+    */
+    public long transferTo(Path target) throws IOException {
+        try(FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return transferTo(channel);
+        }
+    }
+
+    /**
+    * Writes the rest of the response to a channel and closes the stream. The channel is left open.
+    *
+    * @param target the channel
+    * @return the number of bytes written
+    * @throws IOException if the response can not be read or the channel can not be written
+    */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        try {
+            ReadableByteChannel source = Channels.newChannel(in);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long transferred = 0;
+            while(source.read(buffer) != -1) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    transferred += target.write(buffer);
+                }
+                buffer.clear();
+            }
+            return transferred;
+        } finally {
+            close();
+        }
+    }
+}
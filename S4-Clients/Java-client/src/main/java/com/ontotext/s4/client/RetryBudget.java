@@ -0,0 +1,53 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+/**
+ * Limits the retries of one client to a share of its requests. The balance starts full at
+ * the reserve of the {@link RetryPolicy}, grows by the budget ratio with every request and
+ * shrinks by one with every retry. The {@link RequestHedger} limits its hedged requests the same way.
+ */
+class RetryBudget {
+
+    private final double ratio;
+
+    private final double reserve;
+
+    private double balance;
+
+    RetryBudget(RetryPolicy policy) {
+        this(policy.getBudgetRatio(), policy.getBudgetReserve());
+    }
+
+    RetryBudget(double ratio, double reserve) {
+        this.ratio = ratio;
+        this.reserve = reserve;
+        this.balance = reserve;
+    }
+
+    synchronized void deposit() {
+        balance = Math.min(reserve, balance + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if(balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
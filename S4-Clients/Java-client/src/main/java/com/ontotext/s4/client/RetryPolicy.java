@@ -0,0 +1,168 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes when and how often a failed request is repeated. Only requests which are safe to
+ * repeat should be sent by a client with a retry policy; the S4 annotation and classification
+ * requests are.
+ * <p>
+ * Attempts are spaced by an exponential backoff with full jitter. A <code>Retry-After</code>
+ * header sent by the server is honoured as the minimum delay, as long as it does not exceed
+ * {@link #getMaxRetryAfter()}. Every client also keeps a retry budget: each request adds
+ * {@link #getBudgetRatio()} to it, each retry takes one away and no retry is made once it is
+ * empty, so a struggling service does not get flooded with retries.
+ */
+public class RetryPolicy {
+
+    /**
+    * Status codes retried by default: 429 Too Many Requests, 502 Bad Gateway,
+    * 503 Service Unavailable and 504 Gateway Timeout.
+    */
+    public static final Set<Integer> DEFAULT_RETRYABLE_STATUS_CODES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(429, 502, 503, 504)));
+
+    private int maxAttempts = 4;
+
+    private long initialBackoff = 200;
+
+    private long maxBackoff = 10000;
+
+    private long maxRetryAfter = 30000;
+
+    private boolean retryConnectionErrors = true;
+
+    private Set<Integer> retryableStatusCodes = DEFAULT_RETRYABLE_STATUS_CODES;
+
+    private double budgetRatio = 0.2;
+
+    private int budgetReserve = 10;
+
+    /**
+    * @return the total number of attempts, including the first one
+    */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+    * @return the upper bound in milliseconds of the delay before the first retry. It doubles with each retry
+    */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+    * @return the upper bound in milliseconds of the delay between two attempts
+    */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+    * @return the longest <code>Retry-After</code> delay in milliseconds the client is willing to wait.
+    *         Requests asking for longer delays fail immediately
+    */
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+    * @return whether requests failing before a response is received (connection refused, reset or timed out)
+    *         are retried
+    */
+    public boolean isRetryConnectionErrors() {
+        return retryConnectionErrors;
+    }
+    public void setRetryConnectionErrors(boolean retryConnectionErrors) {
+        this.retryConnectionErrors = retryConnectionErrors;
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+    public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = retryableStatusCodes;
+    }
+
+    /**
+    * @return the share of requests which may be retried once the budget reserve is spent
+    */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+    * @return the number of retries a client may make regardless of its request volume
+    */
+    public int getBudgetReserve() {
+        return budgetReserve;
+    }
+    public void setBudgetReserve(int budgetReserve) {
+        this.budgetReserve = budgetReserve;
+    }
+
+    /**
+    * Decides whether a failed attempt is retried.
+    *
+    * @param e the failure
+    * @param attempt the number of the failed attempt, starting at 1
+    * @return the delay in milliseconds before the next attempt, or -1 if the failure is final
+    */
+    public long retryDelay(HttpClientException e, int attempt) {
+        if(attempt >= maxAttempts || !isRetryable(e)) {
+            return -1;
+        }
+        long retryAfter = e.getRetryAfter();
+        if(retryAfter > maxRetryAfter) {
+            return -1;
+        }
+        long ceiling = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+        long backoff = ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+        return Math.max(backoff, retryAfter);
+    }
+
+    private boolean isRetryable(HttpClientException e) {
+        if(e.getStatusCode() != -1) {
+            return retryableStatusCodes.contains(e.getStatusCode());
+        }
+        // interrupted or cancelled requests must not be repeated, timed out ones may
+        return retryConnectionErrors && e.getCause() instanceof IOException && !e.isCancellation();
+    }
+}
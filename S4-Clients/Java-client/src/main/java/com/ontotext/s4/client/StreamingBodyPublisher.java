@@ -0,0 +1,164 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Request body of the <code>java.net.http</code> client, written as an output stream by the
+ * thread executing the request. Each chunk is handed to the engine only when it asks for more,
+ * so the writer waits for the body to be sent instead of buffering it.
+ */
+class StreamingBodyPublisher extends OutputStream implements Flow.Publisher<ByteBuffer> {
+
+    private final int chunkSize;
+
+    private byte[] chunk;
+
+    private int count;
+
+    private Flow.Subscriber<? super ByteBuffer> subscriber;
+
+    private long demand;
+
+    private boolean cancelled;
+
+    private boolean closed;
+
+    /**
+    * @param chunkSize the size in bytes of the chunks handed to the engine
+    */
+    StreamingBodyPublisher(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.chunk = new byte[chunkSize];
+    }
+
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        boolean first;
+        synchronized(this) {
+            first = this.subscriber == null;
+            if(first) {
+                this.subscriber = subscriber;
+                notifyAll();
+            }
+        }
+        subscriber.onSubscribe(first ? new Subscription() : new Flow.Subscription() {
+            public void request(long n) {
+            }
+
+            public void cancel() {
+            }
+        });
+        if(!first) {
+            // the body is written only once, it can not be sent again
+            subscriber.onError(new IllegalStateException("The request body has already been sent"));
+        }
+    }
+
+    /**
+    * Stops the writer, e.g. because the exchange has ended before the whole body was sent.
+    */
+    synchronized void abort() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(count == chunkSize) {
+            emit();
+        }
+        chunk[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            if(count == chunkSize) {
+                emit();
+            }
+            int n = Math.min(len, chunkSize - count);
+            System.arraycopy(b, off, chunk, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        if(count > 0) {
+            emit();
+        }
+        awaitDemand(false).onComplete();
+    }
+
+    /**
+    * Hands the chunk written so far to the engine.
+    */
+    private void emit() throws IOException {
+        Flow.Subscriber<? super ByteBuffer> subscriber = awaitDemand(true);
+        ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, count);
+        // the engine may hold on to the buffer until it is sent
+        chunk = new byte[chunkSize];
+        count = 0;
+        subscriber.onNext(buffer);
+    }
+
+    /**
+    * Waits until the engine has subscribed and, if a chunk is to be sent, asked for one.
+    */
+    private synchronized Flow.Subscriber<? super ByteBuffer> awaitDemand(boolean chunk) throws IOException {
+        try {
+            while(!cancelled && (subscriber == null || (chunk && demand == 0))) {
+                wait();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending the request body");
+        }
+        if(cancelled) {
+            throw new IOException("The request body is no longer read");
+        }
+        if(chunk) {
+            demand--;
+        }
+        return subscriber;
+    }
+
+    private class Subscription implements Flow.Subscription {
+
+        public void request(long n) {
+            synchronized(StreamingBodyPublisher.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                StreamingBodyPublisher.this.notifyAll();
+            }
+        }
+
+        public void cancel() {
+            abort();
+        }
+    }
+}
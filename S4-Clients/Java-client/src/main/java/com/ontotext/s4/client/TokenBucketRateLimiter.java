@@ -0,0 +1,153 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ontotext.s4.common.DaemonThreadFactory;
+
+/**
+ * {@link RateLimiter} with one token bucket for requests and one for characters. Both buckets
+ * refill continuously at their rate and hold at most their burst size.
+ * <p>
+ * Permits are reserved in advance: a request which finds a bucket empty takes its permits
+ * anyway and waits until the bucket has refilled to cover them. Requests therefore go out at
+ * the quota rate in arrival order, and a document larger than the character burst only delays
+ * the requests after it instead of never being sent.
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+
+    /**
+    * Completes the futures of {@link #acquireAsync(long)}.
+    */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("s4-rate-limiter"));
+
+    private final Bucket requests;
+
+    private final Bucket characters;
+
+    /**
+    * Create a limiter allowing bursts of one second worth of requests and characters.
+    *
+    * @param requestsPerSecond the request quota, 0 for unlimited
+    * @param charactersPerSecond the character quota, 0 for unlimited
+    */
+    public TokenBucketRateLimiter(double requestsPerSecond, double charactersPerSecond) {
+        this(requestsPerSecond, Math.max(1, requestsPerSecond), charactersPerSecond, charactersPerSecond);
+    }
+
+    /**
+    * Create a limiter.
+    *
+    * @param requestsPerSecond the request quota, 0 for unlimited
+    * @param requestBurst the number of requests which may be sent at once after a quiet period
+    * @param charactersPerSecond the character quota, 0 for unlimited
+    * @param characterBurst the number of characters which may be sent at once after a quiet period
+    */
+    public TokenBucketRateLimiter(double requestsPerSecond, double requestBurst,
+                                  double charactersPerSecond, double characterBurst) {
+        this.requests = new Bucket(requestsPerSecond, requestBurst);
+        this.characters = new Bucket(charactersPerSecond, characterBurst);
+    }
+
+    public void acquire(long characters) throws InterruptedException {
+        long wait = reserve(characters, false);
+        if(wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    public boolean tryAcquire(long characters) {
+        return reserve(characters, true) >= 0;
+    }
+
+    public CompletableFuture<Void> acquireAsync(long characters) {
+        long wait = reserve(characters, false);
+        if(wait <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> granted = new CompletableFuture<>();
+        SCHEDULER.schedule(new Runnable() {
+            public void run() {
+                granted.complete(null);
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+        return granted;
+    }
+
+    /**
+    * Takes the permits of a request.
+    *
+    * @param onlyIfAvailable whether to take them only if no waiting is necessary
+    * @return the time in nanoseconds to wait before sending the request, or -1 if
+    *         <code>onlyIfAvailable</code> is set and the permits are not available
+    */
+    synchronized long reserve(long count, boolean onlyIfAvailable) {
+        long now = System.nanoTime();
+        long wait = Math.max(requests.waitFor(1, now), characters.waitFor(count, now));
+        if(onlyIfAvailable && wait > 0) {
+            return -1;
+        }
+        requests.take(1);
+        characters.take(count);
+        return wait;
+    }
+
+    private static class Bucket {
+
+        private final double permitsPerNano;
+
+        private final double capacity;
+
+        private double available;
+
+        private long refilled = System.nanoTime();
+
+        Bucket(double permitsPerSecond, double capacity) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.available = capacity;
+        }
+
+        /**
+        * Refills the bucket and returns the time until it holds the given number of
+        * permits, or at least a full bucket for requests larger than its capacity.
+        */
+        long waitFor(double permits, long now) {
+            if(permitsPerNano <= 0) {
+                return 0;
+            }
+            available = Math.min(capacity, available + (now - refilled) * permitsPerNano);
+            refilled = now;
+            double missing = Math.min(permits, capacity) - available;
+            return missing <= 0 ? 0 : (long)Math.ceil(missing / permitsPerNano);
+        }
+
+        /**
+        * Takes the permits, leaving the bucket in debt if it does not hold enough.
+        */
+        void take(double permits) {
+            if(permitsPerNano > 0) {
+                available -= permits;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+
+/**
+ * HTTP engine carrying out the exchanges of a {@link ConnectionPool}. Each engine keeps
+ * its own connections and buffers, and is configured through its own settings; the pool
+ * applies its timeouts to every request and bounds the number of exchanges in flight.
+ * <p>
+ * {@link HttpClient} hands each request to the engine as a {@link TransportRequest} and reads
+ * the {@link TransportResponse}, so retries, compression, metrics and cancellation work the
+ * same way with every engine.
+ *
+ * @see UrlConnectionTransport
+ * @see Http2Transport
+ * @see ApacheHttpClient4Transport
+ * @see ApacheHttpClient5Transport
+ */
+public interface Transport {
+
+    /**
+     * Sends a request and waits for the status and headers of the response. A streamed body
+     * is written by the calling thread, through {@link TransportRequest#writeBody(java.io.OutputStream)},
+     * while the engine sends it.
+     *
+     * @param request the request
+     * @param pool the pool executing the request, whose TLS settings apply
+     * @return the response, whose body has not been read yet
+     * @throws IOException if no response is received, or the request is aborted
+     */
+    TransportResponse execute(TransportRequest request, ConnectionPool pool) throws IOException;
+
+    /**
+     * Closes the connections kept by the engine. Requests executed afterwards fail.
+     */
+    void close();
+}
@@ -0,0 +1,224 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A request handed by {@link HttpClient} to a {@link Transport}: the method, URL and headers,
+ * the body, either buffered or written while it is sent, and the timeouts of the
+ * {@link ConnectionPool}. A request may be aborted from another thread at any time; the
+ * transport registers {@link #onAbort(Runnable) how} to abort what it is doing.
+ */
+public final class TransportRequest {
+
+    /**
+    * Headers which the engines set themselves and refuse to take from the caller.
+    */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(
+            Arrays.asList("connection", "content-length", "expect", "host", "transfer-encoding", "upgrade"));
+
+    /**
+    * Writes a request body while the transport sends it.
+    */
+    public interface BodyWriter {
+        /**
+         * @param out the stream sending the body, which the transport closes afterwards
+         * @throws IOException if the body can not be written
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final URL url;
+
+    private final String method;
+
+    private final List<String[]> headers;
+
+    private final byte[] content;
+
+    private final BodyWriter body;
+
+    private final Runnable connectListener;
+
+    private int connectTimeout;
+
+    private int readTimeout;
+
+    private boolean aborted;
+
+    private Runnable abortAction;
+
+    /**
+    * @param url the URL to send the request to
+    * @param method the request method
+    * @param headers the request headers, as name and value pairs
+    * @param content the buffered body, <code>null</code> if it is streamed or there is none
+    * @param body writes the streamed body, <code>null</code> if it is buffered or there is none
+    * @param connectListener told when the connection is established, <code>null</code> if none
+    */
+    TransportRequest(URL url, String method, List<String[]> headers, byte[] content, BodyWriter body,
+                     Runnable connectListener) {
+        this.url = url;
+        this.method = method;
+        List<String[]> allowed = new ArrayList<>(headers.size());
+        for(String[] header : headers) {
+            if(!RESTRICTED_HEADERS.contains(header[0].toLowerCase(Locale.ROOT))) {
+                allowed.add(header);
+            }
+        }
+        this.headers = Collections.unmodifiableList(allowed);
+        this.content = content;
+        this.body = body;
+        this.connectListener = connectListener;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+    * @return the request URL as an URI, as most engines expect it
+    * @throws IOException if the URL is not a valid URI
+    */
+    public URI getUri() throws IOException {
+        try {
+            return url.toURI();
+        } catch(URISyntaxException e) {
+            throw new IOException("Invalid request URL " + url, e);
+        }
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+    * @return the request headers, as name and value pairs, without the ones describing the
+    *         framing of the body, which the engine sets itself
+    */
+    public List<String[]> getHeaders() {
+        return headers;
+    }
+
+    /**
+    * @return the body of a known length, <code>null</code> if it is streamed or there is none
+    */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+    * @return whether the body is streamed, with chunked transfer encoding over HTTP/1.1
+    */
+    public boolean isStreamed() {
+        return body != null;
+    }
+
+    /**
+    * Writes a {@link #isStreamed() streamed} body. Called once, by the thread executing the request.
+    *
+    * @param out the stream sending the body, which the transport closes afterwards
+    * @throws IOException if the body can not be written
+    */
+    public void writeBody(OutputStream out) throws IOException {
+        body.writeTo(out);
+    }
+
+    /**
+    * @return the connect timeout in milliseconds, 0 for none
+    */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+    * @return the time in milliseconds to wait for data from the server, 0 for no limit
+    */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+    * Tells that the connection to the server is established, if the engine knows when.
+    */
+    public void connected() {
+        if(connectListener != null) {
+            connectListener.run();
+        }
+    }
+
+    /**
+    * Registers how to abort the exchange in its current stage, e.g. by closing its connection.
+    * Replaces the action registered before.
+    *
+    * @param action aborts the exchange, from another thread than the one executing it
+    * @throws InterruptedIOException if the request has already been aborted, in which case the
+    *         action is run at once
+    */
+    public void onAbort(Runnable action) throws InterruptedIOException {
+        synchronized(this) {
+            if(!aborted) {
+                abortAction = action;
+                return;
+            }
+        }
+        action.run();
+        throw new InterruptedIOException("Request cancelled");
+    }
+
+    /**
+    * @return whether the request has been aborted
+    */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+    * Aborts the request, e.g. because its caller has given up on it.
+    */
+    void abort() {
+        Runnable action;
+        synchronized(this) {
+            if(aborted) {
+                return;
+            }
+            aborted = true;
+            action = abortAction;
+        }
+        if(action != null) {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The status, headers and body of a response received by a {@link Transport}. The body is
+ * read as it arrives, and the response must be closed so that its connection can be reused.
+ */
+public class TransportResponse implements Closeable {
+
+    private final int statusCode;
+
+    private final Map<String, List<String>> headers;
+
+    private final InputStream body;
+
+    /**
+    * Hands the connection back to the pool, <code>null</code> once it has been.
+    */
+    private Runnable release;
+
+    /**
+    * @param statusCode the status code
+    * @param headers the header fields by name
+    * @param body the body, of error responses as well, <code>null</code> if there is none
+    */
+    public TransportResponse(int statusCode, Map<String, List<String>> headers, InputStream body) {
+        this.statusCode = statusCode;
+        Map<String, List<String>> byName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // HttpURLConnection lists the status line under a null name
+            if(header.getKey() != null) {
+                byName.put(header.getKey(), header.getValue());
+            }
+        }
+        this.headers = Collections.unmodifiableMap(byName);
+        this.body = body == null ? new ByteArrayInputStream(new byte[0]) : body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+    * @return the header fields by name, which is case-insensitive
+    */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+    * @param name the name of a header, in any case
+    * @return the first value of the header, <code>null</code> if the response has none
+    */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+    * Adds a header field to the headers collected by an engine.
+    */
+    static void addHeader(Map<String, List<String>> headers, String name, String value) {
+        List<String> values = headers.get(name);
+        if(values == null) {
+            values = new ArrayList<>(1);
+            headers.put(name, values);
+        }
+        values.add(value);
+    }
+
+    synchronized void setRelease(Runnable release) {
+        this.release = release;
+    }
+
+    /**
+    * Closes the body and hands the connection back to the pool. Unless the body has been read
+    * to the end, the engine may not be able to reuse the connection.
+    */
+    public void close() {
+        IOUtils.closeQuietly(body);
+        Runnable release;
+        synchronized(this) {
+            release = this.release;
+            this.release = null;
+        }
+        if(release != null) {
+            release.run();
+        }
+    }
+}
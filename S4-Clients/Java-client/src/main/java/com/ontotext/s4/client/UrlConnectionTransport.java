@@ -0,0 +1,122 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The default transport, sending requests through the {@link HttpURLConnection} of the JDK.
+ * <p>
+ * Its pool is the keep-alive cache of the JDK, which keeps the sockets open between requests
+ * as long as every response body is read to the end and closed. The cache holds at most
+ * "http.maxConnections" idle connections per destination, 5 by default, so a larger pool closes
+ * its other connections once idle and opens them again later. This is a setting of the whole
+ * JVM, read once, when the first HTTP connection is made, which the client leaves to the
+ * application: to reuse the connections of a full pool, raise it to the size of the pool on the
+ * command line, e.g. <code>-Dhttp.maxConnections=20</code> for
+ * {@link ConnectionPool#DEFAULT_MAX_CONNECTIONS_PER_ROUTE}, or with
+ * {@link #setMaxIdleConnections(int)} at startup.
+ * The JDK buffers responses by itself and has no buffer settings; streamed request bodies are
+ * written in chunks of {@link #CHUNK_SIZE} bytes.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    /**
+    * The size in bytes of the chunks of a streamed request body.
+    */
+    public static final int CHUNK_SIZE = 8192;
+
+    private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+
+    /**
+    * Sets the maximum number of idle connections which the keep-alive cache of the JDK keeps per
+    * destination. The setting is process-global, it applies to every {@link HttpURLConnection}
+    * of the JVM, and it only takes effect if made before the first HTTP connection of the JVM.
+    *
+    * @param maxIdleConnections the maximum number of idle connections kept per destination
+    */
+    public static void setMaxIdleConnections(int maxIdleConnections) {
+        if(maxIdleConnections < 1) {
+            throw new IllegalArgumentException("At least one idle connection must be kept");
+        }
+        System.setProperty(MAX_CONNECTIONS_PROPERTY, String.valueOf(maxIdleConnections));
+    }
+
+    /**
+    * @return the maximum number of idle connections kept per destination, 5 if the JDK default is used
+    */
+    public static int getMaxIdleConnections() {
+        return Integer.getInteger(MAX_CONNECTIONS_PROPERTY, 5);
+    }
+
+    public TransportResponse execute(TransportRequest request, ConnectionPool pool) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection)request.getUrl().openConnection();
+        SSLSocketFactory sslSocketFactory = pool.getSslSocketFactory();
+        if(connection instanceof HttpsURLConnection && sslSocketFactory != null) {
+            // reusing the same factory lets the keep-alive cache reuse connections and resume TLS sessions
+            ((HttpsURLConnection)connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setConnectTimeout(request.getConnectTimeout());
+        connection.setReadTimeout(request.getReadTimeout());
+        connection.setRequestMethod(request.getMethod());
+        connection.setInstanceFollowRedirects(false);
+        for(String[] header : request.getHeaders()) {
+            connection.addRequestProperty(header[0], header[1]);
+        }
+        // disconnecting makes a blocked read or write fail at once
+        request.onAbort(new Runnable() {
+            public void run() {
+                connection.disconnect();
+            }
+        });
+
+        byte[] content = request.getContent();
+        if(content != null || request.isStreamed()) {
+            connection.setDoOutput(true);
+            if(content != null) {
+                connection.setFixedLengthStreamingMode(content.length);
+            } else {
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+            }
+        }
+        connection.connect();
+        request.connected();
+        if(connection.getDoOutput()) {
+            try(OutputStream out = connection.getOutputStream()) {
+                if(content != null) {
+                    out.write(content);
+                } else {
+                    request.writeBody(out);
+                }
+            }
+        }
+
+        int statusCode = connection.getResponseCode();
+        InputStream body = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        return new TransportResponse(statusCode, connection.getHeaderFields(), body);
+    }
+
+    public void close() {
+        // the keep-alive cache belongs to the JVM
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ontotext.s4.client.ClientMetricsListener;
+import com.ontotext.s4.client.ExchangeMetrics;
+
+/**
+ * Default {@link ClientMetricsListener}, aggregating the exchanges of one or more clients per
+ * service endpoint. Once {@link #registerMBeans() registered}, the metrics of every endpoint are
+ * available through JMX as <code>com.ontotext.s4:type=ClientMetrics,name=&lt;name&gt;,endpoint="&lt;url&gt;"</code>.
+ */
+public class ClientMetrics implements ClientMetricsListener {
+
+    private final String name;
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    private volatile boolean registered;
+
+    /**
+    * @param name distinguishes the MBeans of this instance from the ones of other instances
+    */
+    public ClientMetrics(String name) {
+        this.name = name;
+    }
+
+    public ClientMetrics() {
+        this("default");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void exchangeCompleted(ExchangeMetrics exchange) {
+        getEndpointMetrics(exchange.getEndpoint()).record(exchange);
+    }
+
+    /**
+    * @param endpoint the URL of the endpoint, without a query
+    * @return the metrics of the endpoint, created if it has not been used yet
+    */
+    public EndpointMetrics getEndpointMetrics(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if(metrics == null) {
+            EndpointMetrics existing = endpoints.putIfAbsent(endpoint, metrics = new EndpointMetrics(endpoint));
+            if(existing != null) {
+                return existing;
+            }
+            if(registered) {
+                register(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+    * @return the metrics of all endpoints used so far, by endpoint URL
+    */
+    public Map<String, EndpointMetrics> getEndpoints() {
+        return Collections.unmodifiableMap(endpoints);
+    }
+
+    /**
+    * Registers the metrics of the endpoints, current and future, with the platform MBean server.
+    *
+    * @throws IllegalStateException if the MBeans can not be registered
+    */
+    public synchronized void registerMBeans() {
+        registered = true;
+        for(EndpointMetrics metrics : endpoints.values()) {
+            register(metrics);
+        }
+    }
+
+    /**
+    * Removes the MBeans of this instance from the platform MBean server.
+    */
+    public synchronized void unregisterMBeans() {
+        registered = false;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(EndpointMetrics metrics : endpoints.values()) {
+            try {
+                ObjectName objectName = objectName(metrics);
+                if(server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch(JMException e) {
+                throw new IllegalStateException("Error unregistering metrics MBean", e);
+            }
+        }
+    }
+
+    private void register(EndpointMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectName(metrics);
+            if(!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        } catch(InstanceAlreadyExistsException e) {
+            // registered concurrently
+        } catch(JMException e) {
+            throw new IllegalStateException("Error registering metrics MBean", e);
+        }
+    }
+
+    private ObjectName objectName(EndpointMetrics metrics) throws JMException {
+        return new ObjectName("com.ontotext.s4:type=ClientMetrics,name=" + ObjectName.quote(name)
+                + ",endpoint=" + ObjectName.quote(metrics.getEndpoint()));
+    }
+}
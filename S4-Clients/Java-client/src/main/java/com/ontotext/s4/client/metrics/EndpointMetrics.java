@@ -0,0 +1,212 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ontotext.s4.client.ExchangeMetrics;
+
+/**
+ * Aggregated measurements of the exchanges with one service endpoint.
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+    private final String endpoint;
+
+    private final AtomicLong exchanges = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong abandoned = new AtomicLong();
+
+    private final AtomicLong redirects = new AtomicLong();
+
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    private final AtomicLong requestBytesSent = new AtomicLong();
+
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    private final AtomicLong responseBytesReceived = new AtomicLong();
+
+    private final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+
+    private final LatencyHistogram totalTime = new LatencyHistogram();
+
+    public EndpointMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+    * Adds the measurements of an exchange with the endpoint.
+    *
+    * @param exchange the measurements
+    */
+    public void record(ExchangeMetrics exchange) {
+        exchanges.incrementAndGet();
+        if(exchange.isAbandoned()) {
+            // cut short by the caller, its times and errors tell nothing about the endpoint
+            abandoned.incrementAndGet();
+            return;
+        }
+        if(exchange.getFailure() != null) {
+            failures.incrementAndGet();
+        }
+        if(exchange.isRedirect()) {
+            redirects.incrementAndGet();
+        }
+        if(exchange.getStatusCode() != -1) {
+            increment(statusCodes, exchange.getStatusCode());
+        } else if(exchange.getFailure() != null) {
+            Throwable cause = exchange.getFailure().getCause();
+            increment(errors, (cause != null ? cause : exchange.getFailure()).getClass().getName());
+        }
+        add(requestBytes, exchange.getRequestBytes());
+        add(requestBytesSent, exchange.getRequestBytesSent());
+        add(responseBytes, exchange.getResponseBytes());
+        add(responseBytesReceived, exchange.getResponseBytesReceived());
+        record(connectTime, exchange.getConnectTime());
+        record(timeToFirstByte, exchange.getTimeToFirstByte());
+        record(totalTime, exchange.getTotalTime());
+    }
+
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> counters, K key) {
+        AtomicLong counter = counters.get(key);
+        if(counter == null) {
+            AtomicLong existing = counters.putIfAbsent(key, counter = new AtomicLong());
+            if(existing != null) {
+                counter = existing;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private static void add(AtomicLong counter, long value) {
+        if(value > 0) {
+            counter.addAndGet(value);
+        }
+    }
+
+    private static void record(LatencyHistogram histogram, long nanos) {
+        if(nanos >= 0) {
+            histogram.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static <K> Map<K, Long> snapshot(ConcurrentMap<K, AtomicLong> counters) {
+        Map<K, Long> snapshot = new TreeMap<>();
+        for(Map.Entry<K, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public long getExchangeCount() {
+        return exchanges.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    public long getRedirectCount() {
+        return redirects.get();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getRequestBytesSent() {
+        return requestBytesSent.get();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    public long getResponseBytesReceived() {
+        return responseBytesReceived.get();
+    }
+
+    public Map<Integer, Long> getStatusCodes() {
+        return snapshot(statusCodes);
+    }
+
+    public Map<String, Long> getErrors() {
+        return snapshot(errors);
+    }
+
+    public LatencySnapshot getConnectTime() {
+        return connectTime.snapshot();
+    }
+
+    public LatencySnapshot getTimeToFirstByte() {
+        return timeToFirstByte.snapshot();
+    }
+
+    public LatencySnapshot getTotalTime() {
+        return totalTime.snapshot();
+    }
+
+    public LatencyHistogram getConnectTimeHistogram() {
+        return connectTime;
+    }
+
+    public LatencyHistogram getTimeToFirstByteHistogram() {
+        return timeToFirstByte;
+    }
+
+    public LatencyHistogram getTotalTimeHistogram() {
+        return totalTime;
+    }
+
+    public void reset() {
+        exchanges.set(0);
+        failures.set(0);
+        abandoned.set(0);
+        redirects.set(0);
+        requestBytes.set(0);
+        requestBytesSent.set(0);
+        responseBytes.set(0);
+        responseBytesReceived.set(0);
+        statusCodes.clear();
+        errors.clear();
+        connectTime.reset();
+        timeToFirstByte.reset();
+        totalTime.reset();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link EndpointMetrics} of one service endpoint. Comparing the time to
+ * first byte, which is spent mostly by the service, with the connect time and the total
+ * time tells whether slow requests are slowed down by S4 or by the client side.
+ */
+public interface EndpointMetricsMXBean {
+
+    String getEndpoint();
+
+    long getExchangeCount();
+
+    /**
+    * @return the number of exchanges which failed, with an error response or without a response
+    */
+    long getFailureCount();
+
+    /**
+    * @return the number of exchanges cancelled by the caller, e.g. hedged requests which lost
+    */
+    long getAbandonedCount();
+
+    /**
+    * @return the number of redirects followed
+    */
+    long getRedirectCount();
+
+    long getRequestBytes();
+
+    long getRequestBytesSent();
+
+    long getResponseBytes();
+
+    long getResponseBytesReceived();
+
+    /**
+    * @return the number of responses per status code
+    */
+    Map<Integer, Long> getStatusCodes();
+
+    /**
+    * @return the number of failures without a response per exception class
+    */
+    Map<String, Long> getErrors();
+
+    LatencySnapshot getConnectTime();
+
+    LatencySnapshot getTimeToFirstByte();
+
+    LatencySnapshot getTotalTime();
+
+    void reset();
+}
@@ -0,0 +1,135 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in the style of HdrHistogram. Values are recorded in
+ * microseconds into log-linear buckets: values below 128 are counted exactly, larger ones in
+ * 64 sub-buckets per power of two, so every percentile is reported with a relative error of
+ * less than 1.6%. Values above one hour are counted as one hour.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /**
+    * The highest trackable value in microseconds.
+    */
+    static final long HIGHEST_VALUE = TimeUnit.HOURS.toMicros(1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(HIGHEST_VALUE) + 1);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong totalValue = new AtomicLong();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+    * Records a latency.
+    *
+    * @param value the latency
+    * @param unit the unit of the latency
+    */
+    public void record(long value, TimeUnit unit) {
+        recordMicros(unit.toMicros(value));
+    }
+
+    void recordMicros(long micros) {
+        long value = Math.max(0, Math.min(micros, HIGHEST_VALUE));
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long max;
+        while((max = maxValue.get()) < value && !maxValue.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+    * @param percentile the percentile, between 0 and 100
+    * @return the highest value in microseconds equivalent to the value at the percentile, 0 if nothing was recorded
+    */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if(total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                return Math.min(highestEquivalentValue(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+    * @return the statistics of the recorded values in milliseconds
+    */
+    public LatencySnapshot snapshot() {
+        long count = totalCount.get();
+        double mean = count == 0 ? 0 : (double)totalValue.get() / count;
+        return new LatencySnapshot(count, mean / 1000, getValueAtPercentile(50) / 1000.0,
+                getValueAtPercentile(90) / 1000.0, getValueAtPercentile(99) / 1000.0,
+                getValueAtPercentile(99.9) / 1000.0, maxValue.get() / 1000.0);
+    }
+
+    /**
+    * Clears the recorded values. Values recorded concurrently may be partially kept.
+    */
+    public void reset() {
+        for(int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+
+    static int indexOf(long value) {
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+        if(bucket == 0) {
+            return (int)value;
+        }
+        return SUB_BUCKET_COUNT + (bucket - 1) * HALF_SUB_BUCKET_COUNT
+                + (int)(value >>> bucket) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
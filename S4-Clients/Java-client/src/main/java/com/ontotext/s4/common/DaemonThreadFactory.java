@@ -0,0 +1,63 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon threads of the executors of the client, so that they never keep the JVM
+ * running. Threads are named after the prefix and numbered, e.g. <code>s4-chunk-3</code>.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+    * @param prefix the name of the threads, to which their number is appended
+    */
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix + "-";
+    }
+
+    /**
+    * Create an executor running up to the given number of tasks at a time on daemon threads.
+    * Further tasks wait in its queue, and threads which are idle for a minute exit.
+    *
+    * @param prefix the name of the threads
+    * @param threads the maximum number of threads
+    * @return the executor
+    */
+    public static ExecutorService newBoundedExecutor(String prefix, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(prefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, prefix + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
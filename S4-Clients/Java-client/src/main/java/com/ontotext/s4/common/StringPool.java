@@ -0,0 +1,164 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.common;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool of shared string instances, for feature values such as classes and URIs which recur
+ * across the annotations of many documents. Documents whose values are drawn from a pool hold one
+ * copy of each such value instead of one per annotation.
+ * <p>
+ * The pool is a fixed table in which every string may sit in one of two slots chosen by its hash.
+ * A string found in the table is returned in place of the one given, and moved to the first slot;
+ * a string not found takes the first slot, and the one there moves to the second, evicting what was
+ * there. Values which recur stay in the table, while values seen once are soon evicted, so the
+ * pool neither grows nor needs to know which features have few distinct values. Strings longer
+ * than {@link #getMaxLength()} are not pooled.
+ * <p>
+ * A pool may be shared by any number of threads and clients. It takes no locks: threads racing
+ * on a slot may leave a string out of the table, but always get a string equal to the one given.
+ */
+public class StringPool {
+
+    /**
+    * Default number of strings kept.
+    */
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    /**
+    * Default length of the longest string which is pooled.
+    */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    private final AtomicReferenceArray<String> table;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    /**
+    * Create a pool of {@link #DEFAULT_CAPACITY} strings of up to {@link #DEFAULT_MAX_LENGTH} characters.
+    */
+    public StringPool() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+    * Create a pool.
+    *
+    * @param capacity the number of strings kept, rounded up to a power of two
+    * @param maxLength the length of the longest string which is pooled
+    */
+    public StringPool(int capacity, int maxLength) {
+        if(capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 2 and 2^30");
+        }
+        if(maxLength < 0) {
+            throw new IllegalArgumentException("The maximum length must not be negative");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    public int getCapacity() {
+        return table.length();
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param value a string
+     * @return a pooled string equal to the given one, or the given string itself
+     */
+    public String intern(String value) {
+        if(value == null || value.length() > maxLength) {
+            return value;
+        }
+        int first = slot(value.hashCode());
+        String pooled = lookup(first, value, null, 0, 0);
+        return pooled != null ? pooled : insert(first, value);
+    }
+
+    /**
+     * Pools the string of a range of characters, e.g. of the buffer of a parser, without making a
+     * new string if the pool already has an equal one.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character of the string
+     * @param length the length of the string
+     * @return a pooled string, or a new one if it is not pooled
+     */
+    public String intern(char[] chars, int offset, int length) {
+        if(length > maxLength) {
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for(int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int first = slot(hash);
+        String pooled = lookup(first, null, chars, offset, length);
+        return pooled != null ? pooled : insert(first, new String(chars, offset, length));
+    }
+
+    private int slot(int hash) {
+        // the slots of a string are an even one and the odd one after it
+        hash ^= hash >>> 16;
+        return (hash * 0x9E3779B9) & mask & ~1;
+    }
+
+    private String lookup(int first, String value, char[] chars, int offset, int length) {
+        String pooled = table.get(first);
+        if(pooled != null && matches(pooled, value, chars, offset, length)) {
+            return pooled;
+        }
+        String second = table.get(first + 1);
+        if(second != null && matches(second, value, chars, offset, length)) {
+            // a string used again moves ahead of the one used last
+            table.set(first + 1, pooled);
+            table.set(first, second);
+            return second;
+        }
+        return null;
+    }
+
+    private String insert(int first, String value) {
+        table.set(first + 1, table.get(first));
+        table.set(first, value);
+        return value;
+    }
+
+    private static boolean matches(String pooled, String value, char[] chars, int offset, int length) {
+        if(value != null) {
+            return pooled.equals(value);
+        }
+        if(pooled.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(pooled.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
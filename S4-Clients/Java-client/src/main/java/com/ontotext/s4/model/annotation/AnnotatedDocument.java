@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.ontotext.s4.common.ServiceResponseEntity;
 import com.ontotext.s4.model.image.ClassifiedImage;
@@ -67,6 +68,11 @@ public class AnnotatedDocument extends ServiceResponseEntity {
      */
     private Map<String, JsonNode> otherFeatures;
 
+    /**
+     * Index of the annotations by their spans, built when first needed
+     */
+    private volatile AnnotationIndex index;
+
     public AnnotatedDocument() {
 
     }
@@ -91,6 +97,25 @@ public class AnnotatedDocument extends ServiceResponseEntity {
     }
     public void setEntities(Map<String, List<Annotation>> entities) {
         this.entities = entities;
+        this.index = null;
+    }
+
+    /**
+     * Returns an index of all the annotations of the document by their spans, which finds the
+     * annotations overlapping, covering or within a span and walks the annotations of all types
+     * in the order of the text. The index is built on the first call; annotations added to the
+     * document afterwards are only seen after {@link #setEntities(Map)}.
+     *
+     * @return the index of the annotations
+     */
+    @JsonIgnore
+    public AnnotationIndex getIndex() {
+        AnnotationIndex index = this.index;
+        if(index == null) {
+            index = AnnotationIndex.of(entities);
+            this.index = index;
+        }
+        return index;
     }
 
     public Map<String, JsonNode> getOtherFeatures() {
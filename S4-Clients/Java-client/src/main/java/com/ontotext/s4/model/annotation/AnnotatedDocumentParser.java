@@ -0,0 +1,281 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ontotext.s4.common.StringPool;
+import com.ontotext.s4.model.image.ClassifiedImage;
+
+/**
+ * Streaming parser of the JSON form of an {@link AnnotatedDocument}, which hands each part of
+ * the document to an {@link AnnotationVisitor} as soon as it is read. Only one annotation is held
+ * in memory at a time, however large the response. The parts left out by an
+ * {@link AnnotationProjection} are skipped token by token, without being decoded.
+ */
+public final class AnnotatedDocumentParser {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(
+            DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final TypeReference<List<ClassifiedImage>> IMAGES = new TypeReference<List<ClassifiedImage>>() {};
+
+    private AnnotatedDocumentParser() {
+    }
+
+    /**
+     * Parses an annotated document. The stream is read up to the end of the document, and is not closed.
+     *
+     * @param in the JSON document
+     * @param visitor receives the parts of the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static void parse(InputStream in, AnnotationVisitor visitor) throws IOException {
+        parse(in, null, visitor);
+    }
+
+    /**
+     * Parses the parts of an annotated document selected by a projection. The stream is read up to
+     * the end of the document, and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are visited, <code>null</code> for all of them
+     * @param visitor receives the parts of the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static void parse(InputStream in, AnnotationProjection projection, AnnotationVisitor visitor)
+            throws IOException {
+        parse(in, projection, null, visitor);
+    }
+
+    /**
+     * Parses the parts of an annotated document selected by a projection, taking the string values
+     * of the features of annotations from a pool. The stream is read up to the end of the document,
+     * and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are visited, <code>null</code> for all of them
+     * @param pool the pool of feature values, <code>null</code> for none
+     * @param visitor receives the parts of the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static void parse(InputStream in, AnnotationProjection projection, StringPool pool,
+                             AnnotationVisitor visitor) throws IOException {
+        parse(in, projection, pool, visitor, true);
+    }
+
+    /**
+     * Reads the parts of an annotated document selected by a projection. The stream is read up to
+     * the end of the document, and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @return the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static AnnotatedDocument read(InputStream in, AnnotationProjection projection) throws IOException {
+        return read(in, projection, null);
+    }
+
+    /**
+     * Reads the parts of an annotated document selected by a projection, taking the string values
+     * of the features of annotations from a pool. The stream is read up to the end of the document,
+     * and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @param pool the pool of feature values, <code>null</code> for none
+     * @return the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static AnnotatedDocument read(InputStream in, AnnotationProjection projection, StringPool pool)
+            throws IOException {
+        final AnnotatedDocument document = new AnnotatedDocument();
+        final Map<String, List<Annotation>> entities = new HashMap<>();
+        document.setEntities(entities);
+        parse(in, projection, pool, new AnnotationVisitor() {
+            private List<Annotation> annotations;
+
+            public void visitText(String text) {
+                document.setText(text);
+            }
+
+            public void visitType(String type) {
+                annotations = new ArrayList<>();
+                entities.put(type, annotations);
+            }
+
+            public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> features) {
+                annotations.add(new Annotation(startOffset, endOffset, features));
+            }
+
+            public void visitFeature(String name, JsonNode value) {
+                if("images".equals(name)) {
+                    document.setImages(toImages(value));
+                } else {
+                    document.addFeature(name, value);
+                }
+            }
+        }, false);
+        return document;
+    }
+
+    /**
+     * Reads the parts of an annotated document selected by a projection into an {@link AnnotationTable}.
+     * The stream is read up to the end of the document, and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @return the table of the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static AnnotationTable readTable(InputStream in, AnnotationProjection projection) throws IOException {
+        return readTable(in, projection, null);
+    }
+
+    /**
+     * Reads the parts of an annotated document selected by a projection into an {@link AnnotationTable},
+     * taking the string values of the features of annotations from a pool. The stream is read up to the
+     * end of the document, and is not closed.
+     *
+     * @param in the JSON document
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @param pool the pool of feature values, <code>null</code> for none
+     * @return the table of the document
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public static AnnotationTable readTable(InputStream in, AnnotationProjection projection, StringPool pool)
+            throws IOException {
+        AnnotationTable.Builder builder = new AnnotationTable.Builder();
+        parse(in, projection, pool, builder, true);
+        return builder.build();
+    }
+
+    static List<ClassifiedImage> toImages(JsonNode value) {
+        return MAPPER.convertValue(value, IMAGES);
+    }
+
+    /**
+     * Parses the annotated document at the current token of a parser, which may read another format
+     * than JSON, e.g. a binary one. The parser is left at the end of the document, and is not closed.
+     *
+     * @param parser a parser at the start of the document, i.e. at the start of an object
+     * @param projection the parts of the document which are visited, <code>null</code> for all of them
+     * @param pool the pool of feature values, <code>null</code> for none
+     * @param visitor receives the parts of the document
+     * @throws IOException if the parser can not read an annotated document
+     */
+    public static void parse(JsonParser parser, AnnotationProjection projection, StringPool pool,
+                             AnnotationVisitor visitor) throws IOException {
+        parse(parser, projection, pool, visitor, true);
+    }
+
+    private static void parse(InputStream in, AnnotationProjection projection, StringPool pool,
+                              AnnotationVisitor visitor, boolean reuseFeatures) throws IOException {
+        JsonParser parser = MAPPER.getFactory().createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            parser.nextToken();
+            parse(parser, projection, pool, visitor, reuseFeatures);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void parse(JsonParser parser, AnnotationProjection projection, StringPool pool,
+                              AnnotationVisitor visitor, boolean reuseFeatures) throws IOException {
+        if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("An annotated document must be a JSON object", parser.getCurrentLocation());
+        }
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if("text".equals(name) && value == JsonToken.VALUE_STRING) {
+                if(projection == null || projection.isKeepText()) {
+                    visitor.visitText(parser.getText());
+                }
+            } else if("entities".equals(name) && value == JsonToken.START_OBJECT) {
+                parseEntities(parser, projection, pool, visitor, reuseFeatures);
+            } else if(projection == null || projection.isKeepOtherFeatures()) {
+                visitor.visitFeature(name, parser.<JsonNode>readValueAsTree());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        visitor.visitEnd();
+    }
+
+    private static void parseEntities(JsonParser parser, AnnotationProjection projection, StringPool pool,
+                                      AnnotationVisitor visitor, boolean reuseFeatures) throws IOException {
+        Map<String, Object> features = new LinkedHashMap<>();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String type = parser.getCurrentName();
+            if(parser.nextToken() != JsonToken.START_ARRAY || projection != null && !projection.isKept(type)) {
+                parser.skipChildren();
+                continue;
+            }
+            visitor.visitType(type);
+            while(parser.nextToken() == JsonToken.START_OBJECT) {
+                long startOffset = -1;
+                long endOffset = -1;
+                if(reuseFeatures) {
+                    features.clear();
+                } else {
+                    features = new HashMap<>();
+                }
+                while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if("indices".equals(name) && value == JsonToken.START_ARRAY) {
+                        if(parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                            startOffset = parser.getLongValue();
+                            if(parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                                endOffset = parser.getLongValue();
+                            }
+                        }
+                        while(parser.getCurrentToken() != JsonToken.END_ARRAY) {
+                            parser.skipChildren();
+                            parser.nextToken();
+                        }
+                    } else if(projection != null && !projection.isKeptFeature(name)) {
+                        parser.skipChildren();
+                    } else if(pool != null && value == JsonToken.VALUE_STRING) {
+                        // feature names are interned by the parser itself
+                        features.put(name, pool.intern(
+                                parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength()));
+                    } else {
+                        features.put(name, parser.readValueAs(Object.class));
+                    }
+                }
+                visitor.visitAnnotation(type, startOffset, endOffset, features);
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable index of annotations by their spans, answering which annotations overlap, cover or lie
+ * within a span of the text without going through every annotation of a document.
+ * <p>
+ * The annotations are kept in an array sorted by start offset, which is searched as an implicit
+ * balanced tree whose nodes know the largest end offset below them. Overlap and covering queries
+ * only enter subtrees holding a result, so they take O(min(n, (k + 1) log n)) time for k results:
+ * fast for the few results of a point or a short span, no faster than a scan for a large share
+ * of the annotations. Queries return annotations in the order of their start offsets, longer
+ * ones first when they start together. Spans are half-open: an annotation from 5 to 10 overlaps
+ * the span from 9 to 12 but not the one from 10 to 12.
+ * <p>
+ * The index holds the annotations it was built with; annotations added to or changed in the
+ * document afterwards are not seen.
+ */
+public final class AnnotationIndex implements Iterable<Map.Entry<String, Annotation>> {
+
+    private final String[] types;
+
+    private final Annotation[] annotations;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    /**
+    * The largest end offset in the subtree of each node of the implicit tree
+    */
+    private final long[] maxEnds;
+
+    /**
+    * The annotations, as indexes into the arrays above, sorted by end offset
+    */
+    private final int[] byEnd;
+
+    private AnnotationIndex(String[] types, Annotation[] annotations) {
+        int size = annotations.length;
+        this.types = types;
+        this.annotations = annotations;
+        starts = new long[size];
+        ends = new long[size];
+        for(int i = 0; i < size; i++) {
+            starts[i] = annotations[i].getStartOffset();
+            ends[i] = annotations[i].getEndOffset();
+        }
+        maxEnds = new long[size];
+        buildMaxEnds(0, size);
+
+        List<Integer> order = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(ends[a], ends[b]);
+            }
+        });
+        byEnd = new int[size];
+        for(int i = 0; i < size; i++) {
+            byEnd[i] = order.get(i);
+        }
+    }
+
+    /**
+     * Indexes the annotations of all the types of a document.
+     *
+     * @param entities annotations grouped by type, as in {@link AnnotatedDocument#getEntities()}
+     * @return the index
+     */
+    public static AnnotationIndex of(Map<String, List<Annotation>> entities) {
+        List<Map.Entry<String, Annotation>> entries = new ArrayList<>();
+        if(entities != null) {
+            for(Map.Entry<String, List<Annotation>> type : entities.entrySet()) {
+                for(Annotation annotation : type.getValue()) {
+                    entries.add(new SimpleImmutableEntry<>(type.getKey(), annotation));
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Annotation>>() {
+            public int compare(Map.Entry<String, Annotation> a, Map.Entry<String, Annotation> b) {
+                int order = Long.compare(a.getValue().getStartOffset(), b.getValue().getStartOffset());
+                return order != 0 ? order : Long.compare(b.getValue().getEndOffset(), a.getValue().getEndOffset());
+            }
+        });
+        String[] types = new String[entries.size()];
+        Annotation[] annotations = new Annotation[entries.size()];
+        for(int i = 0; i < types.length; i++) {
+            types[i] = entries.get(i).getKey();
+            annotations[i] = entries.get(i).getValue();
+        }
+        return new AnnotationIndex(types, annotations);
+    }
+
+    /**
+     * Indexes the annotations of one type.
+     *
+     * @param type the type of the annotations
+     * @param annotations the annotations
+     * @return the index
+     */
+    public static AnnotationIndex of(String type, List<Annotation> annotations) {
+        return of(Collections.singletonMap(type, annotations == null ? Collections.<Annotation>emptyList() : annotations));
+    }
+
+    /**
+    * @return the number of annotations in the index
+    */
+    public int size() {
+        return annotations.length;
+    }
+
+    /**
+     * @param start the start of a span
+     * @param end the end of the span
+     * @return the annotations which share at least one character with the span
+     */
+    public List<Annotation> overlapping(long start, long end) {
+        List<Annotation> result = new ArrayList<>();
+        overlapping(0, annotations.length, start, end, result);
+        return result;
+    }
+
+    /**
+     * @param start the start of a span
+     * @param end the end of the span
+     * @return the annotations which cover the whole span, e.g. the sentence around a token
+     */
+    public List<Annotation> covering(long start, long end) {
+        List<Annotation> result = new ArrayList<>();
+        covering(0, annotations.length, start, end, result);
+        return result;
+    }
+
+    /**
+     * Finds the annotations within a span, e.g. the entities of a sentence. This takes O(log n + m)
+     * time, where m is the number of annotations starting within the span.
+     *
+     * @param start the start of a span
+     * @param end the end of the span
+     * @return the annotations which lie within the span
+     */
+    public List<Annotation> containedIn(long start, long end) {
+        List<Annotation> result = new ArrayList<>();
+        for(int i = firstStartingAt(start); i < starts.length && starts[i] <= end; i++) {
+            if(ends[i] <= end) {
+                result.add(annotations[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the annotation nearest to an offset: the innermost one containing the character at the
+     * offset if there is any, else the nearer of the last annotation ending at or before it and the
+     * first one starting after it.
+     *
+     * @param offset an offset into the text
+     * @return the nearest annotation, <code>null</code> if the index is empty
+     */
+    public Annotation nearest(long offset) {
+        List<Annotation> containing = overlapping(offset, offset + 1);
+        if(!containing.isEmpty()) {
+            return containing.get(containing.size() - 1);
+        }
+        Annotation before = nearestBefore(offset);
+        Annotation after = nearestAfter(offset);
+        if(before == null || after == null) {
+            return before == null ? after : before;
+        }
+        return offset - before.getEndOffset() <= after.getStartOffset() - offset ? before : after;
+    }
+
+    /**
+     * @param offset an offset into the text
+     * @return the annotation ending last at or before the offset, <code>null</code> if there is none
+     */
+    public Annotation nearestBefore(long offset) {
+        int low = 0;
+        int high = byEnd.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(ends[byEnd[middle]] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == 0 ? null : annotations[byEnd[low - 1]];
+    }
+
+    /**
+     * @param offset an offset into the text
+     * @return the annotation starting first at or after the offset, <code>null</code> if there is none
+     */
+    public Annotation nearestAfter(long offset) {
+        int first = firstStartingAt(offset);
+        return first == starts.length ? null : annotations[first];
+    }
+
+    /**
+     * Walks all the annotations of the index in the order of their start offsets, whatever their type.
+     *
+     * @return the annotations, each with its type as the key
+     */
+    public Iterator<Map.Entry<String, Annotation>> iterator() {
+        return new Iterator<Map.Entry<String, Annotation>>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < annotations.length;
+            }
+
+            public Map.Entry<String, Annotation> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, Annotation> entry = new SimpleImmutableEntry<>(types[next], annotations[next]);
+                next++;
+                return entry;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private long buildMaxEnds(int low, int high) {
+        if(low >= high) {
+            return Long.MIN_VALUE;
+        }
+        int middle = (low + high) >>> 1;
+        long maxEnd = Math.max(ends[middle], Math.max(buildMaxEnds(low, middle), buildMaxEnds(middle + 1, high)));
+        maxEnds[middle] = maxEnd;
+        return maxEnd;
+    }
+
+    private void overlapping(int low, int high, long start, long end, List<Annotation> result) {
+        if(low >= high) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        if(maxEnds[middle] <= start) {
+            return;
+        }
+        overlapping(low, middle, start, end, result);
+        if(starts[middle] >= end) {
+            return;
+        }
+        if(ends[middle] > start) {
+            result.add(annotations[middle]);
+        }
+        overlapping(middle + 1, high, start, end, result);
+    }
+
+    private void covering(int low, int high, long start, long end, List<Annotation> result) {
+        if(low >= high) {
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        if(maxEnds[middle] < end) {
+            return;
+        }
+        covering(low, middle, start, end, result);
+        if(starts[middle] > start) {
+            return;
+        }
+        if(ends[middle] >= end) {
+            result.add(annotations[middle]);
+        }
+        covering(middle + 1, high, start, end, result);
+    }
+
+    /**
+     * @return the index of the first annotation starting at or after the offset
+     */
+    private int firstStartingAt(long offset) {
+        int low = 0;
+        int high = starts.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(starts[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the parts of an annotated document which are kept when a response is parsed.
+ * The pipelines return dozens of annotation types, while an application usually needs a
+ * few of them; the types, features and properties left out are skipped by the
+ * {@link AnnotatedDocumentParser} without being decoded.
+ * <p>
+ * By default everything is kept.
+ */
+public class AnnotationProjection {
+
+    private Set<String> annotationTypes;
+
+    private Set<String> features;
+
+    private boolean keepText = true;
+
+    private boolean keepOtherFeatures = true;
+
+    /**
+    * @return the annotation types which are kept, <code>null</code> for all of them
+    */
+    public Set<String> getAnnotationTypes() {
+        return annotationTypes;
+    }
+    public void setAnnotationTypes(Set<String> annotationTypes) {
+        this.annotationTypes = annotationTypes;
+    }
+    public void setAnnotationTypes(String... annotationTypes) {
+        this.annotationTypes = new HashSet<>(Arrays.asList(annotationTypes));
+    }
+
+    /**
+    * @return the features of an annotation which are kept, <code>null</code> for all of them.
+    * The offsets of an annotation are always kept
+    */
+    public Set<String> getFeatures() {
+        return features;
+    }
+    public void setFeatures(Set<String> features) {
+        this.features = features;
+    }
+    public void setFeatures(String... features) {
+        this.features = new HashSet<>(Arrays.asList(features));
+    }
+
+    /**
+    * @return whether the plain text of the document is kept
+    */
+    public boolean isKeepText() {
+        return keepText;
+    }
+    public void setKeepText(boolean keepText) {
+        this.keepText = keepText;
+    }
+
+    /**
+    * @return whether the properties of the document other than its text and annotations,
+    * i.e. its images and, for Twitter JSON, the properties of the tweet, are kept
+    */
+    public boolean isKeepOtherFeatures() {
+        return keepOtherFeatures;
+    }
+    public void setKeepOtherFeatures(boolean keepOtherFeatures) {
+        this.keepOtherFeatures = keepOtherFeatures;
+    }
+
+    /**
+    * @param type an annotation type
+    * @return whether annotations of the type are kept
+    */
+    public boolean isKept(String type) {
+        return annotationTypes == null || annotationTypes.contains(type);
+    }
+
+    /**
+    * @param feature the name of a feature of an annotation
+    * @return whether the feature is kept
+    */
+    public boolean isKeptFeature(String feature) {
+        return features == null || features.contains(feature);
+    }
+
+    /**
+     * Removes the parts left out by this projection from a document which has already been
+     * parsed, e.g. one put together from several responses.
+     *
+     * @param document the document, which is modified
+     * @return the document
+     */
+    public AnnotatedDocument project(AnnotatedDocument document) {
+        if(document == null) {
+            return null;
+        }
+        if(!keepText) {
+            document.setText(null);
+        }
+        if(!keepOtherFeatures) {
+            document.setImages(null);
+            document.setOtherFeatures(null);
+        }
+        if(document.getEntities() != null) {
+            Iterator<Map.Entry<String, List<Annotation>>> types = document.getEntities().entrySet().iterator();
+            while(types.hasNext()) {
+                Map.Entry<String, List<Annotation>> type = types.next();
+                if(!isKept(type.getKey())) {
+                    types.remove();
+                } else if(features != null) {
+                    for(Annotation annotation : type.getValue()) {
+                        if(annotation.getFeatures() != null) {
+                            annotation.getFeatures().keySet().retainAll(features);
+                        }
+                    }
+                }
+            }
+        }
+        return document;
+    }
+}
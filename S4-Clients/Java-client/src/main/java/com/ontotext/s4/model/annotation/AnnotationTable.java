@@ -0,0 +1,506 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ontotext.s4.model.image.ClassifiedImage;
+
+/**
+ * Compact, read-only form of an annotated document, for applications which keep many documents
+ * or documents with many annotations in memory.
+ * <p>
+ * Instead of an object with a map of features per annotation, the annotations of each type are
+ * stored in columns: their start and end offsets in arrays of <code>int</code>, and each feature
+ * in an array of codes into a dictionary of the distinct feature values of the document, so that
+ * repeated values such as classes and URIs are stored once. Feature names are shared by all the
+ * annotations of a type.
+ * <p>
+ * {@link #getEntities()} and {@link #toAnnotatedDocument()} give the usual model as views over
+ * the columns. The {@link Annotation}s of the views are made when they are read and are not kept,
+ * and their features can not be changed.
+ */
+public class AnnotationTable {
+
+    /**
+    * Code of a feature which an annotation does not have.
+    */
+    private static final int ABSENT = -1;
+
+    private final String text;
+
+    private final Map<String, Columns> types;
+
+    private final Object[] values;
+
+    private final List<ClassifiedImage> images;
+
+    private final Map<String, JsonNode> otherFeatures;
+
+    private final Map<String, List<Annotation>> entities = new Entities();
+
+    private AnnotationTable(String text, Map<String, Columns> types, Object[] values,
+                            List<ClassifiedImage> images, Map<String, JsonNode> otherFeatures) {
+        this.text = text;
+        this.types = types;
+        this.values = values;
+        this.images = images;
+        this.otherFeatures = otherFeatures;
+    }
+
+    /**
+     * Converts an annotated document into a table.
+     *
+     * @param document the document
+     * @return the table, which does not depend on the document
+     */
+    public static AnnotationTable of(AnnotatedDocument document) {
+        Builder builder = new Builder();
+        if(document.getText() != null) {
+            builder.visitText(document.getText());
+        }
+        if(document.getEntities() != null) {
+            for(Map.Entry<String, List<Annotation>> type : document.getEntities().entrySet()) {
+                builder.visitType(type.getKey());
+                for(Annotation annotation : type.getValue()) {
+                    builder.visitAnnotation(type.getKey(), annotation.getStartOffset(), annotation.getEndOffset(),
+                            annotation.getFeatures() == null ? Collections.<String, Object>emptyMap() : annotation.getFeatures());
+                }
+            }
+        }
+        if(document.getOtherFeatures() != null) {
+            for(Map.Entry<String, JsonNode> feature : document.getOtherFeatures().entrySet()) {
+                builder.visitFeature(feature.getKey(), feature.getValue());
+            }
+        }
+        builder.images = document.getImages();
+        return builder.build();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<ClassifiedImage> getImages() {
+        return images;
+    }
+
+    public Map<String, JsonNode> getOtherFeatures() {
+        return otherFeatures;
+    }
+
+    /**
+    * @return the annotation types of the document, in the order of the response
+    */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(types.keySet());
+    }
+
+    /**
+    * @param type an annotation type
+    * @return the number of annotations of the type
+    */
+    public int size(String type) {
+        Columns columns = types.get(type);
+        return columns == null ? 0 : columns.size;
+    }
+
+    /**
+    * @param type an annotation type
+    * @param index the index of an annotation of the type
+    * @return the start offset of the annotation
+    */
+    public int getStartOffset(String type, int index) {
+        return columns(type, index).starts[index];
+    }
+
+    /**
+    * @param type an annotation type
+    * @param index the index of an annotation of the type
+    * @return the end offset of the annotation
+    */
+    public int getEndOffset(String type, int index) {
+        return columns(type, index).ends[index];
+    }
+
+    /**
+    * @param type an annotation type
+    * @param index the index of an annotation of the type
+    * @param name the name of a feature
+    * @return the value of the feature of the annotation, <code>null</code> if it has no such feature
+    */
+    public Object getFeature(String type, int index, String name) {
+        Columns columns = columns(type, index);
+        int feature = columns.indexOf(name);
+        return feature < 0 ? null : value(columns.features[feature][index]);
+    }
+
+    /**
+    * @param type an annotation type
+    * @return views of the annotations of the type, <code>null</code> if the document has no such type
+    */
+    public List<Annotation> getAnnotations(String type) {
+        Columns columns = types.get(type);
+        return columns == null ? null : new Annotations(columns);
+    }
+
+    /**
+    * @return views of the annotations of the document, grouped by type like {@link AnnotatedDocument#getEntities()}
+    */
+    public Map<String, List<Annotation>> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return an annotated document whose annotations are views over this table
+     */
+    public AnnotatedDocument toAnnotatedDocument() {
+        return new AnnotatedDocument(text, entities, images, otherFeatures);
+    }
+
+    private Columns columns(String type, int index) {
+        Columns columns = types.get(type);
+        if(columns == null) {
+            throw new IllegalArgumentException("No annotations of type " + type);
+        }
+        if(index < 0 || index >= columns.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + columns.size + " annotations of type " + type);
+        }
+        return columns;
+    }
+
+    private Object value(int code) {
+        return code == ABSENT ? null : values[code];
+    }
+
+    /**
+     * The annotations of one type.
+     */
+    private static final class Columns {
+
+        final int size;
+
+        final int[] starts;
+
+        final int[] ends;
+
+        final String[] featureNames;
+
+        /**
+        * The codes of the values of each feature, by annotation
+        */
+        final int[][] features;
+
+        Columns(int size, int[] starts, int[] ends, String[] featureNames, int[][] features) {
+            this.size = size;
+            this.starts = starts;
+            this.ends = ends;
+            this.featureNames = featureNames;
+            this.features = features;
+        }
+
+        int indexOf(Object name) {
+            for(int i = 0; i < featureNames.length; i++) {
+                if(featureNames[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private class Entities extends AbstractMap<String, List<Annotation>> {
+
+        @Override
+        public List<Annotation> get(Object type) {
+            return type instanceof String ? getAnnotations((String)type) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object type) {
+            return types.containsKey(type);
+        }
+
+        @Override
+        public int size() {
+            return types.size();
+        }
+
+        @Override
+        public Set<Entry<String, List<Annotation>>> entrySet() {
+            return new AbstractSet<Entry<String, List<Annotation>>>() {
+                public Iterator<Entry<String, List<Annotation>>> iterator() {
+                    final Iterator<Map.Entry<String, Columns>> columns = types.entrySet().iterator();
+                    return new Iterator<Entry<String, List<Annotation>>>() {
+                        public boolean hasNext() {
+                            return columns.hasNext();
+                        }
+
+                        public Entry<String, List<Annotation>> next() {
+                            Map.Entry<String, Columns> type = columns.next();
+                            return new SimpleImmutableEntry<String, List<Annotation>>(
+                                    type.getKey(), new Annotations(type.getValue()));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return types.size();
+                }
+            };
+        }
+    }
+
+    private class Annotations extends AbstractList<Annotation> implements RandomAccess {
+
+        private final Columns columns;
+
+        Annotations(Columns columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public Annotation get(int index) {
+            if(index < 0 || index >= columns.size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + columns.size);
+            }
+            return new Annotation(columns.starts[index], columns.ends[index], new Features(columns, index));
+        }
+
+        @Override
+        public int size() {
+            return columns.size;
+        }
+    }
+
+    /**
+     * The features of one annotation, read from the columns of its type.
+     */
+    private class Features extends AbstractMap<String, Object> {
+
+        private final Columns columns;
+
+        private final int row;
+
+        Features(Columns columns, int row) {
+            this.columns = columns;
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object name) {
+            int feature = columns.indexOf(name);
+            return feature < 0 ? null : value(columns.features[feature][row]);
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            int feature = columns.indexOf(name);
+            return feature >= 0 && columns.features[feature][row] != ABSENT;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next = advance(0);
+
+                        private int advance(int feature) {
+                            while(feature < columns.features.length && columns.features[feature][row] == ABSENT) {
+                                feature++;
+                            }
+                            return feature;
+                        }
+
+                        public boolean hasNext() {
+                            return next < columns.features.length;
+                        }
+
+                        public Entry<String, Object> next() {
+                            if(!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> entry = new SimpleImmutableEntry<>(
+                                    columns.featureNames[next], value(columns.features[next][row]));
+                            next = advance(next + 1);
+                            return entry;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                public int size() {
+                    int size = 0;
+                    for(int[] feature : columns.features) {
+                        if(feature[row] != ABSENT) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Fills a table from the parts of a document, as they are parsed.
+     */
+    static class Builder extends AnnotationVisitor {
+
+        private String text;
+
+        private final Map<String, ColumnsBuilder> types = new LinkedHashMap<>();
+
+        private final Map<Object, Integer> codes = new HashMap<>();
+
+        private final List<Object> values = new ArrayList<>();
+
+        List<ClassifiedImage> images;
+
+        private Map<String, JsonNode> otherFeatures;
+
+        private ColumnsBuilder columns;
+
+        @Override
+        public void visitText(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void visitType(String type) {
+            columns = types.get(type);
+            if(columns == null) {
+                columns = new ColumnsBuilder();
+                types.put(type, columns);
+            }
+        }
+
+        @Override
+        public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> features) {
+            int row = columns.add((int)startOffset, (int)endOffset);
+            for(Map.Entry<String, Object> feature : features.entrySet()) {
+                columns.set(feature.getKey(), row, code(feature.getValue()));
+            }
+        }
+
+        @Override
+        public void visitFeature(String name, JsonNode value) {
+            if("images".equals(name)) {
+                images = AnnotatedDocumentParser.toImages(value);
+            } else {
+                if(otherFeatures == null) {
+                    otherFeatures = new HashMap<>();
+                }
+                otherFeatures.put(name, value);
+            }
+        }
+
+        private int code(Object value) {
+            if(value == null) {
+                return ABSENT;
+            }
+            Integer code = codes.get(value);
+            if(code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        AnnotationTable build() {
+            Map<String, Columns> columns = new LinkedHashMap<>();
+            for(Map.Entry<String, ColumnsBuilder> type : types.entrySet()) {
+                columns.put(type.getKey(), type.getValue().build());
+            }
+            return new AnnotationTable(text, columns, values.toArray(), images, otherFeatures);
+        }
+    }
+
+    private static class ColumnsBuilder {
+
+        private int size;
+
+        private int[] starts = new int[16];
+
+        private int[] ends = new int[16];
+
+        private final List<String> featureNames = new ArrayList<>();
+
+        private final List<int[]> features = new ArrayList<>();
+
+        int add(int start, int end) {
+            if(size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                for(int i = 0; i < features.size(); i++) {
+                    features.set(i, grow(features.get(i), size * 2));
+                }
+            }
+            starts[size] = start;
+            ends[size] = end;
+            return size++;
+        }
+
+        void set(String name, int row, int code) {
+            int feature = featureNames.indexOf(name);
+            if(feature < 0) {
+                feature = featureNames.size();
+                featureNames.add(name);
+                features.add(grow(new int[0], starts.length));
+            }
+            features.get(feature)[row] = code;
+        }
+
+        Columns build() {
+            int[][] columns = new int[features.size()][];
+            for(int i = 0; i < columns.length; i++) {
+                columns[i] = Arrays.copyOf(features.get(i), size);
+            }
+            return new Columns(size, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size),
+                    featureNames.toArray(new String[featureNames.size()]), columns);
+        }
+
+        private static int[] grow(int[] codes, int length) {
+            int[] grown = Arrays.copyOf(codes, length);
+            Arrays.fill(grown, codes.length, length, ABSENT);
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Receives the parts of an annotated document as they are parsed by the
+ * {@link AnnotatedDocumentParser}, so that a response can be processed without holding all of
+ * it in memory. The methods are called in the order of the response, which gives the text
+ * either before or after the annotations. Every method does nothing unless overridden; a
+ * visitor may throw a runtime exception to stop the parsing.
+ */
+public abstract class AnnotationVisitor {
+
+    /**
+     * Receives the plain text of the document.
+     *
+     * @param text the text, into which the annotation offsets point
+     */
+    public void visitText(String text) {
+    }
+
+    /**
+     * Called before the annotations of a type, including a type without annotations.
+     *
+     * @param type the annotation type
+     */
+    public void visitType(String type) {
+    }
+
+    /**
+     * Receives an annotation.
+     *
+     * @param type the type of the annotation
+     * @param startOffset the zero-based index of the first character of the annotation in the text
+     * @param endOffset the zero-based index after the last character of the annotation in the text
+     * @param features the features of the annotation. The map is reused for the next annotation
+     *                 and must be copied to be kept
+     */
+    public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> features) {
+    }
+
+    /**
+     * Receives a property of the document other than its text and annotations, e.g. its images
+     * or, for Twitter JSON documents, the properties of the tweet.
+     *
+     * @param name the name of the property
+     * @param value the value of the property
+     */
+    public void visitFeature(String name, JsonNode value) {
+    }
+
+    /**
+     * Called when the whole document has been parsed.
+     */
+    public void visitEnd() {
+    }
+}
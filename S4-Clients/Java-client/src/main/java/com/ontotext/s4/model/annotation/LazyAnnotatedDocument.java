@@ -0,0 +1,328 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ontotext.s4.model.image.ClassifiedImage;
+
+/**
+ * Annotated document which keeps the JSON response it was read from and decodes each part of it,
+ * i.e. the text, the images, the other properties and the annotations of each type, the first
+ * time the part is read. Consumers which look at a few annotation types, or only check which types
+ * a document has, do not pay for decoding the rest, and a document waiting in a queue or a cache
+ * takes little more room than its response.
+ * <p>
+ * When the document is made, the response is scanned once, without decoding any values, to find
+ * where each part starts. The annotation types of the document are known from then on. A response
+ * which is not well-formed JSON is rejected at that point; a part which can not be decoded later
+ * throws an {@link IllegalStateException} when it is read.
+ * <p>
+ * The document may be read by several threads at a time. Parts which have been set replace the
+ * ones of the response.
+ */
+public class LazyAnnotatedDocument extends AnnotatedDocument {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(
+            DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final TypeReference<List<Annotation>> ANNOTATIONS = new TypeReference<List<Annotation>>() {};
+
+    private static final TypeReference<List<ClassifiedImage>> IMAGES = new TypeReference<List<ClassifiedImage>>() {};
+
+    private final byte[] content;
+
+    private final AnnotationProjection projection;
+
+    /**
+    * Where the text starts in the response, -1 once it is decoded or if there is none
+    */
+    private int textOffset = -1;
+
+    /**
+    * Where the images start in the response, -1 once they are decoded or if there are none
+    */
+    private int imagesOffset = -1;
+
+    /**
+    * Where each other property starts in the response, or its value if it is a number or a literal,
+    * <code>null</code> once they are decoded
+    */
+    private Map<String, Object> featureOffsets;
+
+    /**
+     * Reads a document from its JSON response.
+     *
+     * @param content the response, which is kept by the document and must not be changed
+     * @throws IOException if the response is not an annotated document
+     */
+    public LazyAnnotatedDocument(byte[] content) throws IOException {
+        this(content, null);
+    }
+
+    /**
+     * Reads the parts of a document selected by a projection from its JSON response.
+     *
+     * @param content the response, which is kept by the document and must not be changed
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @throws IOException if the response is not an annotated document
+     */
+    public LazyAnnotatedDocument(byte[] content, AnnotationProjection projection) throws IOException {
+        this.content = content;
+        this.projection = projection;
+        Map<String, Object> types = new LinkedHashMap<>();
+        Map<String, Object> features = new LinkedHashMap<>();
+        try(JsonParser parser = MAPPER.getFactory().createParser(content)) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("An annotated document must be a JSON object", parser.getCurrentLocation());
+            }
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if("entities".equals(name) && value == JsonToken.START_OBJECT) {
+                    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String type = parser.getCurrentName();
+                        if(parser.nextToken() == JsonToken.START_ARRAY
+                                && (projection == null || projection.isKept(type))) {
+                            types.put(type, offset(parser));
+                        }
+                        parser.skipChildren();
+                    }
+                } else if("text".equals(name) && value == JsonToken.VALUE_STRING) {
+                    if(projection == null || projection.isKeepText()) {
+                        textOffset = offset(parser);
+                    }
+                } else if(projection == null || projection.isKeepOtherFeatures()) {
+                    if("images".equals(name) && value == JsonToken.START_ARRAY) {
+                        imagesOffset = offset(parser);
+                    } else if(value == JsonToken.START_ARRAY || value == JsonToken.START_OBJECT
+                            || value == JsonToken.VALUE_STRING) {
+                        features.put(name, offset(parser));
+                    } else {
+                        // a number or a literal is as small as its offset
+                        features.put(name, parser.readValueAsTree());
+                    }
+                }
+                parser.skipChildren();
+            }
+        }
+        featureOffsets = features.isEmpty() ? null : features;
+        super.setEntities(new Entities(types));
+    }
+
+    /**
+    * @return the JSON response the document was read from
+    */
+    @JsonIgnore
+    public byte[] getContent() {
+        return content;
+    }
+
+    @Override
+    public synchronized String getText() {
+        if(textOffset >= 0) {
+            super.setText(decode(textOffset, new TypeReference<String>() {}));
+            textOffset = -1;
+        }
+        return super.getText();
+    }
+
+    @Override
+    public synchronized void setText(String text) {
+        textOffset = -1;
+        super.setText(text);
+    }
+
+    @Override
+    public synchronized List<ClassifiedImage> getImages() {
+        if(imagesOffset >= 0) {
+            super.setImages(decode(imagesOffset, IMAGES));
+            imagesOffset = -1;
+        }
+        return super.getImages();
+    }
+
+    @Override
+    public synchronized void setImages(List<ClassifiedImage> images) {
+        imagesOffset = -1;
+        super.setImages(images);
+    }
+
+    @Override
+    public synchronized Map<String, JsonNode> getOtherFeatures() {
+        decodeFeatures();
+        return super.getOtherFeatures();
+    }
+
+    @Override
+    public synchronized void setOtherFeatures(Map<String, JsonNode> otherFeatures) {
+        featureOffsets = null;
+        super.setOtherFeatures(otherFeatures);
+    }
+
+    @Override
+    public synchronized void addFeature(String name, JsonNode value) {
+        decodeFeatures();
+        super.addFeature(name, value);
+    }
+
+    private void decodeFeatures() {
+        if(featureOffsets != null) {
+            Map<String, JsonNode> features = new HashMap<>();
+            for(Map.Entry<String, Object> feature : featureOffsets.entrySet()) {
+                features.put(feature.getKey(), feature.getValue() instanceof Integer
+                        ? decode((Integer)feature.getValue(), new TypeReference<JsonNode>() {})
+                        : (JsonNode)feature.getValue());
+            }
+            featureOffsets = null;
+            super.setOtherFeatures(features);
+        }
+    }
+
+    private <T> T decode(int offset, TypeReference<T> type) {
+        try(JsonParser parser = MAPPER.getFactory().createParser(content, offset, content.length - offset)) {
+            parser.nextToken();
+            return MAPPER.readValue(parser, type);
+        } catch(IOException e) {
+            throw new IllegalStateException("Can not decode the annotated document: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return where the array, object or string the parser is at starts in the response
+     */
+    private static int offset(JsonParser parser) {
+        // the parser is just past the opening bracket or quote; the location of the token is
+        // the one of its field name
+        return (int)parser.getCurrentLocation().getByteOffset() - 1;
+    }
+
+    /**
+     * Annotations by type, each type decoded when it is first read.
+     */
+    private class Entities extends AbstractMap<String, List<Annotation>> {
+
+        /**
+        * The annotations of each type, or where they start in the response if they are not decoded yet
+        */
+        private final Map<String, Object> types;
+
+        Entities(Map<String, Object> types) {
+            this.types = types;
+        }
+
+        @Override
+        public List<Annotation> get(Object type) {
+            synchronized(LazyAnnotatedDocument.this) {
+                return annotations(type, types.get(type));
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object type) {
+            synchronized(LazyAnnotatedDocument.this) {
+                return types.containsKey(type);
+            }
+        }
+
+        @Override
+        public List<Annotation> put(String type, List<Annotation> annotations) {
+            synchronized(LazyAnnotatedDocument.this) {
+                return annotations(type, types.put(type, annotations));
+            }
+        }
+
+        @Override
+        public List<Annotation> remove(Object type) {
+            synchronized(LazyAnnotatedDocument.this) {
+                return annotations(type, types.remove(type));
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized(LazyAnnotatedDocument.this) {
+                return types.size();
+            }
+        }
+
+        @Override
+        public Set<Entry<String, List<Annotation>>> entrySet() {
+            return new AbstractSet<Entry<String, List<Annotation>>>() {
+                public Iterator<Entry<String, List<Annotation>>> iterator() {
+                    final Iterator<Map.Entry<String, Object>> entries = types.entrySet().iterator();
+                    return new Iterator<Entry<String, List<Annotation>>>() {
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        public Entry<String, List<Annotation>> next() {
+                            synchronized(LazyAnnotatedDocument.this) {
+                                Map.Entry<String, Object> entry = entries.next();
+                                return new SimpleImmutableEntry<>(entry.getKey(), annotations(entry.getKey(), entry.getValue()));
+                            }
+                        }
+
+                        public void remove() {
+                            entries.remove();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return Entities.this.size();
+                }
+            };
+        }
+
+        /**
+         * Decodes the annotations of a type if they are not decoded yet.
+         */
+        @SuppressWarnings("unchecked")
+        private List<Annotation> annotations(Object type, Object value) {
+            if(!(value instanceof Integer)) {
+                return (List<Annotation>)value;
+            }
+            List<Annotation> annotations = decode((Integer)value, ANNOTATIONS);
+            if(projection != null && projection.getFeatures() != null) {
+                for(Annotation annotation : annotations) {
+                    annotation.getFeatures().keySet().retainAll(projection.getFeatures());
+                }
+            }
+            if(types.containsKey(type) && types.get(type) == value) {
+                types.put((String)type, annotations);
+            }
+            return annotations;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.ontotext.s4.common.StringPool;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotatedDocumentParser;
+import com.ontotext.s4.model.annotation.AnnotationProjection;
+import com.ontotext.s4.model.annotation.AnnotationVisitor;
+import com.ontotext.s4.model.classification.ClassifiedDocument;
+
+/**
+ * Reads the documents written by a {@link BinaryDocumentWriter}, one at a time. Annotated documents
+ * may be read whole, or streamed to an {@link AnnotationVisitor} with a projection, as responses of
+ * the API are. A reader is not thread-safe.
+ *
+ * @param <T> the type of the documents, {@link AnnotatedDocument} or {@link ClassifiedDocument}
+ */
+public class BinaryDocumentReader<T> implements Closeable {
+
+    private final JsonParser parser;
+
+    private final Class<T> type;
+
+    /**
+     * Create a reader.
+     *
+     * @param in the stream the documents are read from, which is closed with the reader
+     * @param type the type of the documents
+     * @throws IOException if the stream can not be read
+     */
+    public BinaryDocumentReader(InputStream in, Class<T> type) throws IOException {
+        this.parser = BinaryDocumentWriter.MAPPER.getFactory().createParser(in);
+        this.type = type;
+    }
+
+    /**
+     * @return the next document, <code>null</code> at the end of the stream
+     * @throws IOException if the stream can not be read or does not hold a document
+     */
+    public T read() throws IOException {
+        if(parser.nextToken() == null) {
+            return null;
+        }
+        return BinaryDocumentWriter.MAPPER.readValue(parser, type);
+    }
+
+    /**
+     * Streams the next annotated document to a visitor.
+     *
+     * @param projection the parts of the document which are visited, <code>null</code> for all of them
+     * @param pool the pool of feature values, <code>null</code> for none
+     * @param visitor receives the parts of the document
+     * @return whether there was a document, <code>false</code> at the end of the stream
+     * @throws IOException if the stream can not be read or does not hold an annotated document
+     */
+    public boolean read(AnnotationProjection projection, StringPool pool, AnnotationVisitor visitor)
+            throws IOException {
+        if(parser.nextToken() == null) {
+            return false;
+        }
+        AnnotatedDocumentParser.parse(parser, projection, pool, visitor);
+        return true;
+    }
+
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+import com.ontotext.s4.model.classification.ClassifiedDocument;
+
+/**
+ * Writes annotated and classified documents one after another in a compact binary form, which is
+ * read back by a {@link BinaryDocumentReader}.
+ * <p>
+ * The documents are written in Smile, the binary form of JSON, with the same structure as the
+ * responses of the S4 API. Smile refers back to names and short strings which it has already
+ * written, so the annotation types, feature names and recurring feature values such as classes and
+ * URIs take a byte or two after their first use. Numbers and offsets are written in binary. Files
+ * of annotated documents are several times smaller than their pretty-printed JSON and are read
+ * back without parsing text.
+ * <p>
+ * Existing JSON files, such as saved responses, are converted with {@link #copyJson(InputStream)}.
+ * A writer is not thread-safe.
+ */
+public class BinaryDocumentWriter implements Closeable, Flushable {
+
+    static final SmileFactory FACTORY = new SmileFactory()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+
+    /**
+    * Reads and writes Smile; documents are read the way {@link com.ontotext.s4.client.HttpClient} reads them
+    */
+    static final ObjectMapper MAPPER = new ObjectMapper(FACTORY).disable(
+            DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonGenerator generator;
+
+    /**
+     * Create a writer.
+     *
+     * @param out the stream the documents are written to, which is closed with the writer
+     * @throws IOException if the stream can not be written
+     */
+    public BinaryDocumentWriter(OutputStream out) throws IOException {
+        generator = MAPPER.getFactory().createGenerator(out);
+    }
+
+    /**
+     * @param document an annotated document
+     * @throws IOException if the document can not be written
+     */
+    public void write(AnnotatedDocument document) throws IOException {
+        generator.writeStartObject();
+        if(document.getText() != null) {
+            generator.writeStringField("text", document.getText());
+        }
+        if(document.getEntities() != null) {
+            generator.writeObjectFieldStart("entities");
+            for(Map.Entry<String, List<Annotation>> type : document.getEntities().entrySet()) {
+                generator.writeArrayFieldStart(type.getKey());
+                for(Annotation annotation : type.getValue()) {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart("indices");
+                    generator.writeNumber(annotation.getStartOffset());
+                    generator.writeNumber(annotation.getEndOffset());
+                    generator.writeEndArray();
+                    if(annotation.getFeatures() != null) {
+                        for(Map.Entry<String, Object> feature : annotation.getFeatures().entrySet()) {
+                            generator.writeObjectField(feature.getKey(), feature.getValue());
+                        }
+                    }
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+        if(document.getImages() != null) {
+            generator.writeObjectField("images", document.getImages());
+        }
+        if(document.getOtherFeatures() != null) {
+            for(Map.Entry<String, JsonNode> feature : document.getOtherFeatures().entrySet()) {
+                generator.writeObjectField(feature.getKey(), feature.getValue());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * @param document a classified document
+     * @throws IOException if the document can not be written
+     */
+    public void write(ClassifiedDocument document) throws IOException {
+        generator.writeObject(document);
+    }
+
+    /**
+     * Converts JSON documents, e.g. saved responses of the API, without binding them to objects.
+     * The JSON may hold a single document, several documents one after another, or an array of
+     * documents.
+     *
+     * @param json the JSON documents, which is not closed
+     * @return the number of documents written
+     * @throws IOException if the JSON can not be read or the documents can not be written
+     */
+    public int copyJson(InputStream json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        int documents = 0;
+        try {
+            for(JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                if(token == JsonToken.START_ARRAY) {
+                    while(parser.nextToken() != JsonToken.END_ARRAY) {
+                        generator.copyCurrentStructure(parser);
+                        documents++;
+                    }
+                } else {
+                    generator.copyCurrentStructure(parser);
+                    documents++;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return documents;
+    }
+
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -17,13 +17,105 @@
 
 package com.ontotext.s4.service;
 
+import com.ontotext.s4.cache.ServiceResponseCache;
+import com.ontotext.s4.client.ClientMetricsListener;
+import com.ontotext.s4.client.LoadBalancer;
+import com.ontotext.s4.client.RateLimiter;
+import com.ontotext.s4.client.RetryPolicy;
 
 public interface S4AbstractClient {
 
     /**
      * Enables or disables the compression of the data exchanged with the S4 services
      * 
-     * @param requestCompression if set to true, the data encoding is set to gzip
+     * @param requestCompression if set to true, the data encoding is set to gzip. Responses are requested
+     *                           gzip-encoded and request bodies larger than the
+     *                           {@link #setRequestCompressionThreshold(int) threshold} are sent gzip-encoded
      */
     void setRequestCompression(boolean requestCompression);
+
+    /**
+     * Sets the size of the serialized request below which request bodies are sent uncompressed,
+     * even when {@link #setRequestCompression(boolean) compression} is enabled
+     *
+     * @param thresholdBytes the size in bytes
+     */
+    void setRequestCompressionThreshold(int thresholdBytes);
+
+    /**
+     * Tells whether the service accepts gzip-encoded request bodies. Services which reject them
+     * are sent uncompressed bodies from then on.
+     *
+     * @return <code>true</code> or <code>false</code> once a compressed request has been answered,
+     *         <code>null</code> before that
+     */
+    Boolean isRequestCompressionAccepted();
+
+    /**
+     * Sets the policy for repeating requests which failed because the service was throttling,
+     * overloaded or unreachable. Clients start with a default {@link RetryPolicy}.
+     *
+     * @param retryPolicy the policy to apply, <code>null</code> to never repeat a request
+     */
+    void setRetryPolicy(RetryPolicy retryPolicy);
+
+    /**
+     * Sets the rate limiter which paces the requests of this client. Clients without one use the
+     * limiter shared by their API key, so that all clients of a key stay within its quota. The
+     * shared limiter must be created once with {@link ServiceClientsFactory#limitRate} or
+     * {@link com.ontotext.s4.client.RateLimiters#register registered}, otherwise requests are not limited.
+     *
+     * @param rateLimiter the limiter to apply, <code>null</code> to use the one of the API key
+     */
+    void setRateLimiter(RateLimiter rateLimiter);
+
+    /**
+     * Returns the balancer spreading the requests of this client over the endpoints of the
+     * service, which can be used to tune when failing endpoints are ejected.
+     *
+     * @return the load balancer of the client
+     */
+    LoadBalancer getLoadBalancer();
+
+    /**
+     * Sets the listener receiving the timings, sizes and status codes of the requests of this client,
+     * e.g. a {@link com.ontotext.s4.client.metrics.ClientMetrics} shared by several clients.
+     *
+     * @param metricsListener the listener, <code>null</code> to take no measurements
+     */
+    void setMetricsListener(ClientMetricsListener metricsListener);
+
+    /**
+     * Sets the cache answering repeated requests without contacting the service. Requests are
+     * cached by the service URL, the document text or URL, its MIME type, the response format
+     * and the image flags; documents sent from files are not cached. The cache may be shared
+     * by several clients.
+     *
+     * @param responseCache the cache, <code>null</code> to send every request to the service
+     */
+    void setResponseCache(ServiceResponseCache responseCache);
+
+    /**
+     * Enables or disables the coalescing of identical requests: a request made while an identical
+     * one is in flight waits for the response of the first instead of being sent, and is given a
+     * document of its own parsed from it. A failure of the first request, including its
+     * cancellation, is reported to every request waiting for it. Requests are identical under the
+     * same terms as for the {@link #setResponseCache(ServiceResponseCache) cache}. Off by default.
+     *
+     * @param requestCoalescing whether identical requests in flight share a single call to the service
+     */
+    void setRequestCoalescing(boolean requestCoalescing);
+
+    /**
+     * @return the number of requests which were answered by an identical request in flight,
+     * since coalescing was last enabled
+     */
+    long getCoalescedRequests();
+
+    /**
+     * Opens a connection to the service in advance, so that the first request does not
+     * pay for the connection and TLS setup. Connections are pooled and shared by all
+     * clients of the same S4 host.
+     */
+    void warmUp();
 }
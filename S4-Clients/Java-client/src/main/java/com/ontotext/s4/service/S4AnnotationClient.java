@@ -16,16 +16,28 @@
  */
 package com.ontotext.s4.service;
 
+import com.ontotext.s4.client.ResponseStream;
+import com.ontotext.s4.client.HedgingPolicy;
+import com.ontotext.s4.common.StringPool;
 import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotationProjection;
+import com.ontotext.s4.model.annotation.AnnotationTable;
+import com.ontotext.s4.model.annotation.LazyAnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotationVisitor;
+import com.ontotext.s4.service.util.BatchOptions;
+import com.ontotext.s4.service.util.BatchResults;
+import com.ontotext.s4.service.util.ChunkingOptions;
+import com.ontotext.s4.service.util.MicroBatchOptions;
 import com.ontotext.s4.service.util.ResponseFormat;
 import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
 import com.ontotext.s4.service.util.SupportedMimeType;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
 
 public interface S4AnnotationClient extends S4AbstractClient {
     /**
@@ -84,65 +96,247 @@ public interface S4AnnotationClient extends S4AbstractClient {
             throws S4ServiceClientException;
 
     /**
-     * Annotates a single document and returns an {@link InputStream} from
-     * which the contents of the serialized annotated document can be read
+     * Annotates a single document and returns a {@link ResponseStream} from
+     * which the contents of the serialized annotated document can be read.
+     * The response is decompressed if needed, and can be saved to a file
+     * with {@link ResponseStream#transferTo(java.nio.file.Path)}
      *
      * @param documentText the contents of the document which will be annotated
      * @param documentMimeType the MIME type of the file which will be annotated
      * @param serializationFormat the format which will be used for serialization of the annotated document
-     * @return An {@link InputStream} from which the serialization of the annotated document can be read
+     * @return A {@link ResponseStream} from which the serialization of the annotated document can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             String documentText, SupportedMimeType documentMimeType, ResponseFormat serializationFormat)
             throws S4ServiceClientException;
 
     /**
      * Annotates the contents of a single file returning an
-     * {@link InputStream} from which the annotated content can be read
+     * {@link ResponseStream} from which the annotated content can be read
      *
      * @param documentFile the file which will be annotated
      * @param documentEncoding the encoding of the file which will be annotated
      * @param documentMimeType the MIME type of the file which will be annotated
      * @param serializationFormat the serialization format used for the annotated content
-     * @return An {@link InputStream} from which the serialization of the annotated document can be read
+     * @return A {@link ResponseStream} from which the serialization of the annotated document can be read
      * @throws IOException if there are problems reading the contents of the file
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             File documentFile, Charset documentEncoding, SupportedMimeType documentMimeType,
                 ResponseFormat serializationFormat)
             throws IOException, S4ServiceClientException;
 
     /**
      * Annotates a single document publicly available under a given URL.
-     * Returns An {@link InputStream} from which the annotated content can be read
+     * Returns A {@link ResponseStream} from which the annotated content can be read
      *
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be annotated
      * @param serializationFormat the serialization format of the output
-     * @return An {@link InputStream} from where the serialized output can be read
+     * @return A {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType, ResponseFormat serializationFormat)
             throws S4ServiceClientException;
 
     /**
      * Annotates a single document publicly available under a given URL and
      * categorizes and tags (if specified) any images inside.
-     * Returns an {@link InputStream} from which the annotated content can be read
+     * Returns a {@link ResponseStream} from which the annotated content can be read
      *
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be annotated
      * @param serializationFormat the serialization format of the output
      * @param imageTagging The boolean flag to allow/deny image tagging of the document
      * @param imageCategorization The boolean flag to allow/deny image categorization of the document
-     * @return An {@link InputStream} from where the serialized output can be read
+     * @return A {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType, ResponseFormat serializationFormat,
                 boolean imageTagging, boolean imageCategorization)
             throws S4ServiceClientException;
+
+    /**
+     * Annotates a single document and hands the annotations to a visitor as the response is read,
+     * without building an {@link AnnotatedDocument}. The memory used does not grow with the number
+     * of annotations, which suits consumers that convert or filter the annotations on the fly.
+     *
+     * @param documentText the document content to annotate
+     * @param documentMimeType the MIME type of the document which will be annotated
+     * @param visitor receives the text, the annotations and the other properties of the annotated document
+     * @throws S4ServiceClientException Error
+     */
+    public void annotateDocument(
+            String documentText, SupportedMimeType documentMimeType, AnnotationVisitor visitor)
+            throws S4ServiceClientException;
+
+    /**
+     * Annotates a single document and hands the annotations to a visitor as the response is read.
+     *
+     * @param request the document to annotate
+     * @param visitor receives the text, the annotations and the other properties of the annotated document
+     * @throws S4ServiceClientException Error
+     * @see #annotateDocument(String, SupportedMimeType, AnnotationVisitor)
+     */
+    public void annotateDocument(ServiceRequest request, AnnotationVisitor visitor)
+            throws S4ServiceClientException;
+
+    /**
+     * Annotates a single document and returns its annotations in the compact columnar form of an
+     * {@link AnnotationTable}, built as the response is read. The table takes much less memory than
+     * an {@link AnnotatedDocument} with many annotations.
+     *
+     * @param documentText the document content to annotate
+     * @param documentMimeType the MIME type of the document which will be annotated
+     * @return An {@link AnnotationTable} containing the original content as well as the annotations produced
+     * @throws S4ServiceClientException Error
+     */
+    public AnnotationTable annotateDocumentAsTable(String documentText, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException;
+
+    /**
+     * Annotates a single document and returns its annotations as an {@link AnnotationTable}.
+     *
+     * @param request the document to annotate
+     * @return An {@link AnnotationTable} containing the original content as well as the annotations produced
+     * @throws S4ServiceClientException Error
+     * @see #annotateDocumentAsTable(String, SupportedMimeType)
+     */
+    public AnnotationTable annotateDocumentAsTable(ServiceRequest request) throws S4ServiceClientException;
+
+    /**
+     * Annotates a single document with the specified MIME type without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     * <p>
+     * Through an {@link com.ontotext.s4.client.AsyncTransport} such as
+     * {@link com.ontotext.s4.client.Http2Transport} no thread waits for the service, so any number
+     * of requests may be in flight. Otherwise, and for documents which are hedged, chunked, batched,
+     * parsed lazily or projected, each request in progress holds a thread of the executor of the
+     * {@link com.ontotext.s4.client.ConnectionPool}.
+     *
+     * @param documentText the document content to annotate
+     * @param documentMimeType the MIME type of the document which will be annotated
+     * @return A {@link CompletableFuture} of the {@link AnnotatedDocument}. Service errors are reported as
+     * an {@link java.util.concurrent.ExecutionException} caused by {@link S4ServiceClientException},
+     * or passed as that exception to the dependent stages
+     */
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(
+            String documentText, SupportedMimeType documentMimeType);
+
+    /**
+     * Annotates a single document publicly available under a given URL without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     *
+     * @param documentUrl the publicly accessible URL from where the document will be downloaded
+     * @param documentMimeType the MIME type of the document which will be annotated
+     * @return A {@link CompletableFuture} of the {@link AnnotatedDocument}
+     */
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(
+            URL documentUrl, SupportedMimeType documentMimeType);
+
+    /**
+     * Annotates a document publicly available under a given URL and tags and categorizes any images
+     * inside, without blocking the caller. Cancelling the returned future aborts the request in progress.
+     *
+     * @param documentUrl the publicly accessible URL from where the document will be downloaded
+     * @param documentMimeType the MIME type of the document which will be annotated
+     * @param imageTagging The boolean flag to allow/deny image tagging of the document
+     * @param imageCategorization The boolean flag to allow/deny image categorization of the document
+     * @return A {@link CompletableFuture} of the {@link AnnotatedDocument}
+     */
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(
+            URL documentUrl, SupportedMimeType documentMimeType, boolean imageTagging, boolean imageCategorization);
+
+    /**
+     * Sends an explicitly constructed request without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     *
+     * @param request the request which will be sent to the service
+     * @return A {@link CompletableFuture} of the {@link AnnotatedDocument}
+     */
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(ServiceRequest request);
+
+    /**
+     * Annotates a batch of documents, sending up to {@link BatchOptions#getConcurrency()} requests
+     * at the same time. The requests are read from the iterable only as fast as the results are
+     * taken, and a failed request is reported in its own result without stopping the batch.
+     * A batch abandoned before its end should be closed, which cancels the requests in flight.
+     *
+     * @param requests the requests which will be sent to the service
+     * @param options the concurrency and ordering of the batch
+     * @return the {@link BatchResults} of the requests, in their order unless
+     * {@link BatchOptions#isOrdered()} is off
+     */
+    public BatchResults<AnnotatedDocument> annotateDocuments(
+            Iterable<? extends ServiceRequest> requests, BatchOptions options);
+
+    /**
+     * Enables the chunking of large plain-text documents: a document given as text, longer than
+     * {@link ChunkingOptions#getMaxChunkSize()}, is split at paragraph or sentence boundaries into
+     * overlapping chunks which are annotated at the same time. The annotations are joined into one
+     * {@link AnnotatedDocument} with offsets into the whole text, keeping one annotation where the
+     * chunks overlap. Entities which need more context than a chunk gives may be found differently
+     * than in the whole document. Chunking is off by default, and does not apply to documents read
+     * from files or URLs, or to responses read as streams.
+     *
+     * @param chunking how to split large documents, <code>null</code> to always send them whole
+     */
+    public void setChunking(ChunkingOptions chunking);
+
+    /**
+     * Enables the packing of small plain-text documents, such as tweets, into combined requests:
+     * documents given as text, no longer than {@link MicroBatchOptions#getMaxDocumentLength()},
+     * are joined by a separator until the batch is full or has waited long enough, annotated
+     * together, and each caller receives the annotations of its own document with offsets into
+     * its text. Annotations reaching over the separator are dropped. Micro-batching is off by
+     * default, and does not apply to responses read as streams.
+     *
+     * @param microBatching how to pack small documents, <code>null</code> to send each one alone
+     */
+    public void setMicroBatching(MicroBatchOptions microBatching);
+
+    /**
+     * Keeps only some annotation types, features and properties of the annotated documents returned
+     * by this client and passed to visitors. The parts left out are skipped while the response is
+     * parsed, which saves time and memory when a few of the many types of a pipeline are needed.
+     * Responses read as streams are not projected.
+     *
+     * @param projection the parts of the documents which are kept, <code>null</code> to keep all of them
+     */
+    public void setProjection(AnnotationProjection projection);
+
+    /**
+     * Takes the string values of the features of annotations, such as their classes and URIs,
+     * from a pool, so that documents kept in memory share one copy of each value which recurs
+     * across them. The pool may be shared with other clients. Responses read as streams are not
+     * pooled; feature names are shared by the JSON parser anyway.
+     *
+     * @param stringPool the pool of feature values, <code>null</code> to give each document its own values
+     */
+    public void setStringPool(StringPool stringPool);
+
+    /**
+     * Makes the documents annotated in a single request {@link LazyAnnotatedDocument}s, which keep
+     * the response and decode each part of it, such as the annotations of a type, when it is first
+     * read. This saves the decoding of the parts a consumer never reads. The projection of the client
+     * applies to lazy documents, while feature values are not pooled. Documents annotated in chunks
+     * or in batches with others are always decoded at once. Lazy parsing is off by default.
+     *
+     * @param lazyParsing whether documents are decoded when their parts are read
+     */
+    public void setLazyParsing(boolean lazyParsing);
+
+    /**
+     * Enables hedging of the requests whose response is parsed into an {@link AnnotatedDocument}:
+     * a request which has not been answered within a percentile of the recent latencies is sent
+     * once more, the first response is used and the other request is cancelled. Hedging is off
+     * by default.
+     *
+     * @param hedgingPolicy when to hedge and how many extra requests to allow, <code>null</code> to disable hedging
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy);
 }
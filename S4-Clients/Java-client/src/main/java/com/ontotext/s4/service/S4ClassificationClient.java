@@ -16,15 +16,17 @@
  */
 package com.ontotext.s4.service;
 
+import com.ontotext.s4.client.ResponseStream;
 import com.ontotext.s4.model.classification.ClassifiedDocument;
 import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
 import com.ontotext.s4.service.util.SupportedMimeType;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
 
 public interface S4ClassificationClient extends S4AbstractClient {
 
@@ -70,21 +72,23 @@ public interface S4ClassificationClient extends S4AbstractClient {
             throws S4ServiceClientException;
 
     /**
-     * Classifies a single document and returns an {@link InputStream} from
-     * which the contents of the serialized annotated document can be read
+     * Classifies a single document and returns a {@link ResponseStream} from
+     * which the contents of the serialized annotated document can be read.
+     * The response is decompressed if needed, and can be saved to a file
+     * with {@link ResponseStream#transferTo(java.nio.file.Path)}
      *
      * @param documentText the contents of the document which will be classified
      * @param documentMimeType the MIME type of the file which will be classified
-     * @return An {@link InputStream} from which the serialization of the classified document can be read
+     * @return A {@link ResponseStream} from which the serialization of the classified document can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             String documentText, SupportedMimeType documentMimeType)
             throws S4ServiceClientException;
 
     /**
      * Classifies the contents of a single file returning an
-     * {@link InputStream} from which the classification information can be read
+     * {@link ResponseStream} from which the classification information can be read
      *
      * @param documentFile the file which will be classified
      * @param documentEncoding the encoding of the file which will be classified
@@ -95,7 +99,7 @@ public interface S4ClassificationClient extends S4AbstractClient {
      * @throws IOException if there are problems reading the contents of the file
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             File documentFile, Charset documentEncoding, SupportedMimeType documentMimeType)
             throws IOException,	S4ServiceClientException;
 
@@ -105,10 +109,48 @@ public interface S4ClassificationClient extends S4AbstractClient {
      *
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be classified
-     * @return An {@link InputStream} from where the serialized output can be read
+     * @return A {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType)
             throws S4ServiceClientException;
+
+    /**
+     * Classifies a single document with the specified MIME type without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     * <p>
+     * Through an {@link com.ontotext.s4.client.AsyncTransport} such as
+     * {@link com.ontotext.s4.client.Http2Transport} no thread waits for the service, so any number
+     * of requests may be in flight. Otherwise each request in progress holds a thread of the
+     * executor of the {@link com.ontotext.s4.client.ConnectionPool}.
+     *
+     * @param documentText the document content to classify
+     * @param documentMimeType the MIME type of the document which will be classified
+     * @return A {@link CompletableFuture} of the {@link ClassifiedDocument}. Service errors are reported as
+     * an {@link java.util.concurrent.ExecutionException} caused by {@link S4ServiceClientException},
+     * or passed as that exception to the dependent stages
+     */
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(
+            String documentText, SupportedMimeType documentMimeType);
+
+    /**
+     * Classifies a single document publicly available under a given URL without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     *
+     * @param documentUrl the publicly accessible URL from where the document will be downloaded
+     * @param documentMimeType the MIME type of the document which will be classified
+     * @return A {@link CompletableFuture} of the {@link ClassifiedDocument}
+     */
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(
+            URL documentUrl, SupportedMimeType documentMimeType);
+
+    /**
+     * Sends an explicitly constructed request without blocking the caller.
+     * Cancelling the returned future aborts the request in progress.
+     *
+     * @param request the request which will be sent to the service
+     * @return A {@link CompletableFuture} of the {@link ClassifiedDocument}
+     */
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(ServiceRequest request);
 }
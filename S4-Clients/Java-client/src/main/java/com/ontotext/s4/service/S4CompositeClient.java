@@ -0,0 +1,87 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service;
+
+import com.ontotext.s4.service.util.CompositeResult;
+import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
+import com.ontotext.s4.service.util.SupportedMimeType;
+
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the same document to several annotation services and the classification service at
+ * once, e.g. to 'news', 'sbt' and 'news-classifier', and merges their responses, so that the
+ * time to process a document is that of the slowest service rather than the sum of all of them.
+ * The request is serialized only once for all the services, and services on the same route
+ * share its {@link com.ontotext.s4.client.ConnectionPool connection pool}.
+ */
+public interface S4CompositeClient {
+
+    /**
+     * Annotates and classifies a single document with the specified MIME type.
+     *
+     * @param documentText the document content to process
+     * @param documentMimeType the MIME type of the document
+     * @return the responses of all the services
+     * @throws S4ServiceClientException if any of the services fails or they do not all respond in time
+     */
+    public CompositeResult processDocument(String documentText, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException;
+
+    /**
+     * Annotates and classifies a single document publicly available under a given URL.
+     *
+     * @param documentUrl the publicly accessible URL from where the document will be downloaded
+     * @param documentMimeType the MIME type of the document
+     * @return the responses of all the services
+     * @throws S4ServiceClientException if any of the services fails or they do not all respond in time
+     */
+    public CompositeResult processDocument(URL documentUrl, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException;
+
+    /**
+     * Sends a request to all the services at once and waits for their responses. If any of them fails,
+     * or the {@link #setTimeout(long) timeout} elapses first, the calls still in progress are cancelled.
+     *
+     * @param rq the request which will be sent to every service
+     * @return the responses of all the services
+     * @throws S4ServiceClientException if any of the services fails or they do not all respond in time
+     */
+    public CompositeResult processDocument(ServiceRequest rq) throws S4ServiceClientException;
+
+    /**
+     * Limits the time to wait for all the services together. The timeouts of the connection pools
+     * still apply to each call.
+     *
+     * @param timeoutMillis the time in milliseconds within which every service must respond, 0 for no limit
+     */
+    public void setTimeout(long timeoutMillis);
+
+    public long getTimeout();
+
+    /**
+     * @return the clients of the annotation services by service name, e.g. to configure them
+     */
+    public Map<String, S4AnnotationClient> getAnnotationClients();
+
+    /**
+     * @return the client of the classification service, <code>null</code> if documents are not classified
+     */
+    public S4ClassificationClient getClassificationClient();
+}
@@ -17,11 +17,16 @@
 package com.ontotext.s4.service;
 
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.ontotext.s4.catalog.ServiceDescriptor;
 import com.ontotext.s4.catalog.ServicesCatalog;
+import com.ontotext.s4.client.RateLimiter;
+import com.ontotext.s4.client.RateLimiters;
 import com.ontotext.s4.service.impl.S4AnnotationClientImpl;
 import com.ontotext.s4.service.impl.S4ClassificationClientImpl;
+import com.ontotext.s4.service.impl.S4CompositeClientImpl;
 
 
 public class ServiceClientsFactory {
@@ -84,4 +89,51 @@ public class ServiceClientsFactory {
     public static S4ClassificationClient createClassificationClient(URL serviceURL, String apiKey, String keySecret) {
         return new S4ClassificationClientImpl(serviceURL, apiKey, keySecret);
     }
-}
\ No newline at end of file
+
+    /**
+     * Constructs an {@link S4CompositeClient} which annotates each document with the given services and
+     * classifies it with the 'news-classifier' service, all at once. The services share the connection pool
+     * of their route.
+     *
+     * @param apiKey Your S4 Api Key
+     * @param keySecret Your S4 Key Secret
+     * @param classify whether documents are classified as well
+     * @param annotationServices the names of the annotation services, e.g. 'news' and 'sbt'
+     * @return An {@link S4CompositeClient} to access the services together
+     */
+    public static S4CompositeClient createCompositeClient(String apiKey, String keySecret, boolean classify,
+                                                          String... annotationServices) {
+        Map<String, S4AnnotationClient> annotationClients = new LinkedHashMap<>();
+        for(String service : annotationServices) {
+            annotationClients.put(service, createAnnotationClient(service, apiKey, keySecret));
+        }
+        return createCompositeClient(annotationClients, classify ? createClassificationClient(apiKey, keySecret) : null);
+    }
+
+    /**
+     * Constructs an {@link S4CompositeClient} on top of clients created and configured beforehand.
+     *
+     * @param annotationClients the clients of the annotation services by service name
+     * @param classificationClient the client of the classification service, <code>null</code> to not classify documents
+     * @return An {@link S4CompositeClient} to access the services together
+     */
+    public static S4CompositeClient createCompositeClient(Map<String, S4AnnotationClient> annotationClients,
+                                                          S4ClassificationClient classificationClient) {
+        return new S4CompositeClientImpl(annotationClients, classificationClient);
+    }
+
+    /**
+     * Keeps all clients of an API key within its quota. The limiter is shared by the clients
+     * created before and after the call, unless one {@link S4AbstractClient#setRateLimiter sets}
+     * its own. Without it, the requests of a key are not limited.
+     *
+     * @param apiKey Your S4 API Key
+     * @param requestsPerSecond the request quota of the key, 0 for unlimited
+     * @param charactersPerSecond the character quota of the key, 0 for unlimited
+     * @return the limiter shared by the clients of the key, which keeps its first quota if the
+     * key already has one
+     */
+    public static RateLimiter limitRate(String apiKey, double requestsPerSecond, double charactersPerSecond) {
+        return RateLimiters.getOrCreate(apiKey, requestsPerSecond, charactersPerSecond);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.cli;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.ontotext.s4.catalog.ServiceDescriptor;
+import com.ontotext.s4.catalog.ServicesCatalog;
+import com.ontotext.s4.client.ApacheHttpClient4Transport;
+import com.ontotext.s4.client.ApacheHttpClient5Transport;
+import com.ontotext.s4.client.ConnectionPool;
+import com.ontotext.s4.client.Http2Transport;
+import com.ontotext.s4.client.Transport;
+import com.ontotext.s4.client.UrlConnectionTransport;
+import com.ontotext.s4.client.metrics.ClientMetrics;
+import com.ontotext.s4.client.metrics.EndpointMetrics;
+import com.ontotext.s4.client.metrics.LatencyHistogram;
+import com.ontotext.s4.service.S4AnnotationClient;
+import com.ontotext.s4.service.impl.S4AnnotationClientImpl;
+import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.SupportedMimeType;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput and latency of concurrent annotation requests with small and
+ * large documents, so that transports and client settings can be compared on real traffic.
+ * By default every document size is sent through each {@link Transport} in turn: the
+ * {@link java.net.HttpURLConnection} of the JDK, <code>java.net.http</code> over HTTP/2,
+ * Apache HttpClient 4 and Apache HttpClient 5.
+ */
+public class S4Benchmark {
+
+    private static final String SENTENCE =
+            "Barack Obama met Angela Merkel in Berlin to discuss the economy of the European Union. ";
+
+    private static class BenchmarkParams {
+
+        @Parameter(names = {"-k", "--api-key"}, required = true,
+                description = "The S4 API key")
+        private String apiKey;
+
+        @Parameter(names = {"-s", "--key-secret"}, required = true,
+                description = "The S4 key secret")
+        private String keySecret;
+
+        @Parameter(names = {"-t", "--service-type"}, required = false,
+                description = "The S4 service ID to be used")
+        private String serviceType = "news";
+
+        @Parameter(names = {"-e", "--endpoint"}, required = false,
+                description = "URL of an endpoint of the service, instead of the one of the service type. May be repeated")
+        private List<String> endpoints = new ArrayList<>();
+
+        @Parameter(names = {"-n", "--requests"}, required = false,
+                description = "Number of requests per document size")
+        private int requests = 200;
+
+        @Parameter(names = {"-c", "--concurrency"}, required = false,
+                description = "Number of requests in flight at the same time")
+        private int concurrency = 8;
+
+        @Parameter(names = {"--small-size"}, required = false,
+                description = "Size in characters of the small documents")
+        private int smallSize = 280;
+
+        @Parameter(names = {"--large-size"}, required = false,
+                description = "Size in characters of the large documents")
+        private int largeSize = 100000;
+
+        @Parameter(names = {"--warm-up"}, required = false,
+                description = "Number of requests sent before measuring")
+        private int warmUp = 20;
+
+        @Parameter(names = {"--transport"}, required = false,
+                description = "The transport to measure: urlconnection, http2, apache4, apache5, or all to compare them")
+        private String transport = "all";
+
+        @Parameter(names = {"--buffer-size"}, required = false,
+                description = "The buffer size of the transport in bytes, 0 for its default")
+        private int bufferSize;
+
+        @Parameter(names = {"--stream-window"}, required = false,
+                description = "The HTTP/2 stream flow-control window in bytes, 0 for the JDK default")
+        private int streamWindow;
+
+        @Parameter(names = {"--connection-window"}, required = false,
+                description = "The HTTP/2 connection flow-control window in bytes, 0 for the JDK default")
+        private int connectionWindow;
+
+        @Parameter(names = {"--compression"}, required = false,
+                description = "Compress request and response bodies")
+        private boolean compression;
+
+        @Parameter(names = {"-h", "--help"}, help = true,
+                description = "Display this help text")
+        private boolean help;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        BenchmarkParams params = new BenchmarkParams();
+        JCommander commander;
+        try {
+            commander = new JCommander(params, args);
+        } catch (ParameterException pe) {
+            System.out.println(pe.getMessage());
+            return;
+        }
+        commander.setProgramName(S4Benchmark.class.getSimpleName());
+        if (params.help) {
+            commander.usage();
+            return;
+        }
+
+        ServiceDescriptor service = ServicesCatalog.getItem(params.serviceType);
+        if (!params.endpoints.isEmpty()) {
+            service.setServiceUrls(params.endpoints);
+        }
+        S4AnnotationClient client = new S4AnnotationClientImpl(service, params.apiKey, params.keySecret);
+        client.setRequestCompression(params.compression);
+
+        List<String> transports = "all".equals(params.transport)
+                ? Arrays.asList("urlconnection", "http2", "apache4", "apache5")
+                : Arrays.asList(params.transport);
+        for(String transport : transports) {
+            if(createTransport(transport, params) == null) {
+                System.out.println("Unknown transport: " + transport);
+                return;
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(params.concurrency);
+        try {
+            for(String transport : transports) {
+                List<ConnectionPool> pools = new ArrayList<>();
+                for(URL endpoint : client.getLoadBalancer().getEndpoints()) {
+                    // a transport per pool, as it takes the settings of its pool
+                    ConnectionPool pool = ConnectionPool.getShared(endpoint);
+                    pool.setTransport(createTransport(transport, params));
+                    pools.add(pool);
+                }
+                try {
+                    client.warmUp();
+                    System.out.println("Transport: " + transport);
+                    run(client, workers, "small", document(params.smallSize), params);
+                    run(client, workers, "large", document(params.largeSize), params);
+                    printProtocols(pools);
+                } finally {
+                    for(ConnectionPool pool : pools) {
+                        pool.getTransport().close();
+                        pool.setTransport(null);
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * @return the transport with the given name, <code>null</code> if there is none
+     */
+    private static Transport createTransport(String name, BenchmarkParams params) {
+        switch(name) {
+            case "urlconnection":
+                return new UrlConnectionTransport();
+            case "http2":
+                // the windows apply to the whole JVM, only the first call sets them
+                Http2Transport.configureJdkClient(params.connectionWindow, params.streamWindow, 0, 0, 0);
+                Http2Transport http2 = new Http2Transport();
+                if(params.bufferSize > 0) {
+                    http2.setBufferSize(params.bufferSize);
+                }
+                return http2;
+            case "apache4":
+                ApacheHttpClient4Transport apache4 = new ApacheHttpClient4Transport();
+                if(params.bufferSize > 0) {
+                    apache4.setBufferSize(params.bufferSize);
+                }
+                return apache4;
+            case "apache5":
+                ApacheHttpClient5Transport apache5 = new ApacheHttpClient5Transport();
+                if(params.bufferSize > 0) {
+                    apache5.setBufferSize(params.bufferSize);
+                }
+                return apache5;
+            default:
+                return null;
+        }
+    }
+
+    private static void printProtocols(List<ConnectionPool> pools) {
+        for(ConnectionPool pool : pools) {
+            if(pool.getTransport() instanceof Http2Transport) {
+                Http2Transport transport = (Http2Transport)pool.getTransport();
+                System.out.printf("  %d responses over HTTP/2, %d over HTTP/1.1%n",
+                        transport.getHttp2Responses(), transport.getHttp11Responses());
+            }
+        }
+    }
+
+    private static String document(int size) {
+        StringBuilder text = new StringBuilder(size + SENTENCE.length());
+        while (text.length() < size) {
+            text.append(SENTENCE);
+        }
+        return text.substring(0, size);
+    }
+
+    private static void run(S4AnnotationClient client, ExecutorService workers, String name, String text,
+                            BenchmarkParams params) throws InterruptedException {
+
+        send(client, workers, text, params.warmUp, new LatencyHistogram(), new AtomicInteger());
+
+        ClientMetrics metrics = new ClientMetrics(name);
+        client.setMetricsListener(metrics);
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicInteger failures = new AtomicInteger();
+        long started = System.nanoTime();
+        send(client, workers, text, params.requests, latencies, failures);
+        long elapsed = System.nanoTime() - started;
+        client.setMetricsListener(null);
+
+        System.out.printf("%s documents (%d characters), %d requests, concurrency %d%n",
+                name, text.length(), params.requests, params.concurrency);
+        System.out.printf("  throughput: %.1f requests/s, %d failed%n",
+                params.requests * 1e9 / elapsed, failures.get());
+        System.out.println("  latency: " + latencies.snapshot());
+        for (EndpointMetrics endpoint : metrics.getEndpoints().values()) {
+            System.out.println("  " + endpoint.getEndpoint());
+            System.out.println("    connect: " + endpoint.getConnectTime());
+            System.out.println("    time to first byte: " + endpoint.getTimeToFirstByte());
+            System.out.printf("    request bytes: %d (%d sent), response bytes: %d (%d received)%n",
+                    endpoint.getRequestBytes(), endpoint.getRequestBytesSent(),
+                    endpoint.getResponseBytes(), endpoint.getResponseBytesReceived());
+            System.out.println("    status codes: " + endpoint.getStatusCodes() + ", errors: " + endpoint.getErrors());
+        }
+    }
+
+    private static void send(final S4AnnotationClient client, ExecutorService workers, final String text,
+                             int count, final LatencyHistogram latencies, final AtomicInteger failures)
+            throws InterruptedException {
+
+        List<Future<?>> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(workers.submit(new Runnable() {
+                public void run() {
+                    long started = System.nanoTime();
+                    try {
+                        client.annotateDocument(text, SupportedMimeType.PLAINTEXT);
+                        latencies.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    } catch (S4ServiceClientException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> request : requests) {
+            try {
+                request.get();
+            } catch (ExecutionException e) {
+                failures.incrementAndGet();
+            }
+        }
+    }
+}
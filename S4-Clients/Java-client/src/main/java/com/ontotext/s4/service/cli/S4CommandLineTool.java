@@ -21,6 +21,7 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.ontotext.s4.catalog.ServiceDescriptor;
 import com.ontotext.s4.catalog.ServicesCatalog;
+import com.ontotext.s4.client.ResponseStream;
 import com.ontotext.s4.service.S4AnnotationClient;
 import com.ontotext.s4.service.S4ClassificationClient;
 import com.ontotext.s4.service.impl.S4AnnotationClientImpl;
@@ -28,14 +29,12 @@ import com.ontotext.s4.service.impl.S4ClassificationClientImpl;
 import com.ontotext.s4.service.util.OutputMessages;
 import com.ontotext.s4.service.util.ResponseFormat;
 import com.ontotext.s4.service.util.SupportedMimeType;
-import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
 
 
 public class S4CommandLineTool {
@@ -123,7 +122,7 @@ public class S4CommandLineTool {
         return true;
     }
 
-    public static InputStream executeAnnotationRequest(
+    public static ResponseStream executeAnnotationRequest(
             CommandLineParams params, S4AnnotationClient client, SupportedMimeType mimetype)
             throws IOException {
 
@@ -137,7 +136,7 @@ public class S4CommandLineTool {
         }
     }
 
-    public static InputStream executeClassificationRequest(
+    public static ResponseStream executeClassificationRequest(
             CommandLineParams params, S4ClassificationClient client, SupportedMimeType mimetype)
             throws IOException {
 
@@ -148,11 +147,9 @@ public class S4CommandLineTool {
         }
     }
 
-    public static void saveOutputToFile(String outputFileName, InputStream resultData) {
-        FileOutputStream outStream;
+    public static void saveOutputToFile(String outputFileName, ResponseStream resultData) {
         try {
-            outStream = new FileOutputStream(outputFileName);
-            IOUtils.copy(resultData, outStream);
+            resultData.transferTo(Paths.get(outputFileName));
         } catch (IOException ioe) {
             System.out.println(ioe.getMessage());
             System.exit(1);
@@ -181,7 +178,7 @@ public class S4CommandLineTool {
             SupportedMimeType mimetype = SupportedMimeType.valueOf(params.documentType);
             ServiceDescriptor service = ServicesCatalog.getItem(params.serviceType);
 
-            InputStream resultText;
+            ResponseStream resultText;
             if (params.serviceType.equals("news-classifier")){
                 S4ClassificationClient client = new S4ClassificationClientImpl(service, params.apiKey, params.keySecret);
                 try {
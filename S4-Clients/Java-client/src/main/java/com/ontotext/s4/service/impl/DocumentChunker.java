@@ -0,0 +1,234 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+
+/**
+ * Splits plain text into overlapping chunks and joins the annotations of the chunks into
+ * one document.
+ * <p>
+ * A chunk ends at the last paragraph break in the second half of its allowed size, or else at
+ * the last sentence end, or else at the last white space, and is cut hard only within a single
+ * long word. The next chunk starts at the first sentence, or word, within the overlap before
+ * that end. When joining, the offsets are shifted by the start of their chunk, and where the
+ * annotations of two chunks of the same type overlap in the shared text, only one is kept:
+ * preferably one not touching the edge of its chunk, then the longer, then the one farther
+ * from the edge.
+ */
+final class DocumentChunker {
+
+    private DocumentChunker() {
+    }
+
+    /**
+    * @param text the text to split
+    * @param maxChunkSize the largest number of characters in a chunk
+    * @param overlap the number of characters a chunk should share with the previous one
+    * @return the start and end offsets of the chunks, covering the whole text
+    */
+    static List<int[]> split(String text, int maxChunkSize, int overlap) {
+        overlap = Math.min(overlap, maxChunkSize / 2);
+        List<int[]> chunks = new ArrayList<>();
+        int start = 0;
+        while(text.length() - start > maxChunkSize) {
+            int end = chunkEnd(text, start + maxChunkSize / 2, start + maxChunkSize);
+            chunks.add(new int[] { start, end });
+            int next = overlap == 0 ? end : chunkStart(text, end - overlap, end);
+            start = next > start ? next : end;
+        }
+        chunks.add(new int[] { start, text.length() });
+        return chunks;
+    }
+
+    /**
+    * @return the best end of a chunk in (from, to], where <code>to</code> is inside the text
+    */
+    private static int chunkEnd(String text, int from, int to) {
+        for(int i = to; i > from; i--) {
+            if(text.charAt(i - 1) == '\n' && (text.charAt(i - 2) == '\n'
+                    || text.charAt(i - 2) == '\r' && i > 2 && text.charAt(i - 3) == '\n')) {
+                return i;
+            }
+        }
+        for(int i = to; i > from; i--) {
+            if(isSentenceEnd(text, i)) {
+                return i;
+            }
+        }
+        for(int i = to; i > from; i--) {
+            if(Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        // do not split a surrogate pair
+        return Character.isLowSurrogate(text.charAt(to)) ? to - 1 : to;
+    }
+
+    /**
+    * @return the best start of the next chunk in [from, end), or <code>end</code>
+    */
+    private static int chunkStart(String text, int from, int end) {
+        for(int i = from; i < end; i++) {
+            if(isSentenceEnd(text, i)) {
+                return skipWhitespace(text, i, end);
+            }
+        }
+        for(int i = from; i < end; i++) {
+            if(Character.isWhitespace(text.charAt(i))) {
+                return skipWhitespace(text, i, end);
+            }
+        }
+        return Character.isLowSurrogate(text.charAt(from)) ? from + 1 : from;
+    }
+
+    /**
+    * @return whether a sentence ends right before the white space at the given offset
+    */
+    private static boolean isSentenceEnd(String text, int i) {
+        if(i < 1 || i >= text.length() || !Character.isWhitespace(text.charAt(i))) {
+            return false;
+        }
+        char previous = text.charAt(i - 1);
+        return previous == '.' || previous == '!' || previous == '?';
+    }
+
+    private static int skipWhitespace(String text, int i, int end) {
+        while(i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+    * Join the annotated chunks of a document. The annotations of the chunks are modified.
+    *
+    * @param text the whole text
+    * @param chunks the offsets of the chunks, as returned by {@link #split(String, int, int)}
+    * @param parts the annotated chunks, in the same order
+    * @return the annotated document
+    */
+    static AnnotatedDocument merge(String text, List<int[]> chunks, List<AnnotatedDocument> parts) {
+        List<Map<String, List<Annotation>>> rebased = new ArrayList<>();
+        for(int i = 0; i < parts.size(); i++) {
+            Map<String, List<Annotation>> entities = parts.get(i).getEntities();
+            Map<String, List<Annotation>> shifted = new LinkedHashMap<>();
+            if(entities != null) {
+                for(Map.Entry<String, List<Annotation>> type : entities.entrySet()) {
+                    List<Annotation> annotations = new ArrayList<>();
+                    if(type.getValue() != null) {
+                        for(Annotation annotation : type.getValue()) {
+                            annotation.setStartOffset(annotation.getStartOffset() + chunks.get(i)[0]);
+                            annotation.setEndOffset(annotation.getEndOffset() + chunks.get(i)[0]);
+                            annotations.add(annotation);
+                        }
+                    }
+                    shifted.put(type.getKey(), annotations);
+                }
+            }
+            rebased.add(shifted);
+        }
+
+        // settle the conflicts in the text shared by each pair of neighbouring chunks
+        for(int i = 0; i + 1 < rebased.size(); i++) {
+            int sharedStart = chunks.get(i + 1)[0];
+            int sharedEnd = chunks.get(i)[1];
+            for(Map.Entry<String, List<Annotation>> type : rebased.get(i).entrySet()) {
+                List<Annotation> next = rebased.get(i + 1).get(type.getKey());
+                if(next == null) {
+                    continue;
+                }
+                for(Annotation left : new ArrayList<>(type.getValue())) {
+                    if(left.getEndOffset() <= sharedStart) {
+                        continue;
+                    }
+                    for(Annotation right : new ArrayList<>(next)) {
+                        if(right.getStartOffset() >= sharedEnd || right.getStartOffset() >= left.getEndOffset()
+                                || left.getStartOffset() >= right.getEndOffset()) {
+                            continue;
+                        }
+                        if(prefer(right, chunks.get(i + 1), left, chunks.get(i), text.length())) {
+                            type.getValue().remove(left);
+                            break;
+                        }
+                        next.remove(right);
+                    }
+                }
+            }
+        }
+
+        Map<String, List<Annotation>> entities = new LinkedHashMap<>();
+        for(Map<String, List<Annotation>> part : rebased) {
+            for(Map.Entry<String, List<Annotation>> type : part.entrySet()) {
+                List<Annotation> annotations = entities.get(type.getKey());
+                if(annotations == null) {
+                    annotations = new ArrayList<>();
+                    entities.put(type.getKey(), annotations);
+                }
+                annotations.addAll(type.getValue());
+            }
+        }
+        for(List<Annotation> annotations : entities.values()) {
+            Collections.sort(annotations, new Comparator<Annotation>() {
+                public int compare(Annotation a, Annotation b) {
+                    return Long.compare(a.getStartOffset(), b.getStartOffset());
+                }
+            });
+        }
+        return new AnnotatedDocument(text, entities, parts.get(0).getImages(), parts.get(0).getOtherFeatures());
+    }
+
+    /**
+    * @return whether annotation <code>a</code> of chunk <code>aChunk</code> is a better reading of the
+    * shared text than annotation <code>b</code> of chunk <code>bChunk</code>
+    */
+    private static boolean prefer(Annotation a, int[] aChunk, Annotation b, int[] bChunk, int length) {
+        long aMargin = margin(a, aChunk, length);
+        long bMargin = margin(b, bChunk, length);
+        if((aMargin > 0) != (bMargin > 0)) {
+            return aMargin > 0;
+        }
+        long aLength = a.getEndOffset() - a.getStartOffset();
+        long bLength = b.getEndOffset() - b.getStartOffset();
+        if(aLength != bLength) {
+            return aLength > bLength;
+        }
+        return aMargin > bMargin;
+    }
+
+    /**
+    * @return the distance of the annotation from the nearest edge where its chunk was cut from the text
+    */
+    private static long margin(Annotation annotation, int[] chunk, int length) {
+        long margin = Long.MAX_VALUE;
+        if(chunk[0] > 0) {
+            margin = annotation.getStartOffset() - chunk[0];
+        }
+        if(chunk[1] < length) {
+            margin = Math.min(margin, chunk[1] - annotation.getEndOffset());
+        }
+        return margin;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ontotext.s4.common.DaemonThreadFactory;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+import com.ontotext.s4.service.util.MicroBatchOptions;
+
+/**
+ * Packs small plain-text documents into combined requests, as described by {@link MicroBatchOptions},
+ * and splits the annotations of each combined document back into its parts.
+ * <p>
+ * The documents of a batch are joined by the separator, so the offset of each one in the combined
+ * text is known; an annotation is given to the document it lies in, shifted to its offsets, and
+ * annotations reaching over a separator are dropped. If the service returns a text other than
+ * the one sent, the offsets can not be trusted and the documents of the batch are sent one by one.
+ * Batches are sent on an executor of their own, as the threads submitting documents wait for them.
+ */
+final class MicroBatcher {
+
+    /**
+    * Annotates a plain-text document.
+    */
+    interface Annotator {
+        AnnotatedDocument annotate(String text);
+    }
+
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("s4-batch-timer"));
+
+    private final MicroBatchOptions options;
+
+    private final Annotator annotator;
+
+    /**
+    * Sends the batches.
+    */
+    private final Executor executor;
+
+    private List<Item> pending = new ArrayList<>();
+
+    private int pendingLength;
+
+    /**
+    * Counts the batches taken, so that a timer does not send a later batch than its own.
+    */
+    private long generation;
+
+    /**
+    * @param options how documents are batched
+    * @param annotator annotates the batches
+    * @param executor sends the batches, without waiting for the threads of the submitters
+    */
+    MicroBatcher(MicroBatchOptions options, Annotator annotator, Executor executor) {
+        this.options = options;
+        this.annotator = annotator;
+        this.executor = executor;
+    }
+
+    MicroBatchOptions getOptions() {
+        return options;
+    }
+
+    /**
+    * Add a document to the current batch.
+    *
+    * @param text the document, no longer than {@link MicroBatchOptions#getMaxDocumentLength()}
+    * @return the future annotated document
+    */
+    Future<AnnotatedDocument> submit(String text) {
+        Item item = new Item(text);
+        List<List<Item>> full = new ArrayList<>();
+        synchronized(this) {
+            if(!pending.isEmpty()
+                    && pendingLength + options.getSeparator().length() + text.length() > options.getMaxBatchLength()) {
+                full.add(take());
+            }
+            pending.add(item);
+            pendingLength += (pending.size() > 1 ? options.getSeparator().length() : 0) + text.length();
+            if(pending.size() >= options.getMaxBatchDocuments() || pendingLength >= options.getMaxBatchLength()) {
+                full.add(take());
+            } else if(pending.size() == 1) {
+                final long batch = generation;
+                TIMER.schedule(new Runnable() {
+                    public void run() {
+                        flush(batch);
+                    }
+                }, options.getMaxDelay(), TimeUnit.MILLISECONDS);
+            }
+        }
+        for(List<Item> batch : full) {
+            send(batch);
+        }
+        return item.result;
+    }
+
+    /**
+    * Send the batch of the given generation, if it is still waiting.
+    */
+    private void flush(long batch) {
+        List<Item> items;
+        synchronized(this) {
+            if(batch != generation || pending.isEmpty()) {
+                return;
+            }
+            items = take();
+        }
+        send(items);
+    }
+
+    private List<Item> take() {
+        List<Item> items = pending;
+        pending = new ArrayList<>();
+        pendingLength = 0;
+        generation++;
+        return items;
+    }
+
+    private void send(final List<Item> items) {
+        executor.execute(new Runnable() {
+            public void run() {
+                annotate(items);
+            }
+        });
+    }
+
+    private void annotate(List<Item> items) {
+        try {
+            if(items.size() == 1) {
+                items.get(0).result.complete(annotator.annotate(items.get(0).text));
+                return;
+            }
+            String[] texts = new String[items.size()];
+            for(int i = 0; i < texts.length; i++) {
+                texts[i] = items.get(i).text;
+            }
+            String combined = String.join(options.getSeparator(), texts);
+            AnnotatedDocument document = annotator.annotate(combined);
+            if(combined.equals(document.getText())) {
+                List<AnnotatedDocument> parts = split(document, texts, options.getSeparator());
+                for(int i = 0; i < parts.size(); i++) {
+                    items.get(i).result.complete(parts.get(i));
+                }
+                return;
+            }
+        } catch(Throwable e) {
+            // even an error must reach the callers, who would otherwise wait forever
+            for(Item item : items) {
+                item.result.completeExceptionally(e);
+            }
+            return;
+        }
+        // the text was changed by the service, so its offsets do not match the parts
+        for(Item item : items) {
+            try {
+                item.result.complete(annotator.annotate(item.text));
+            } catch(Throwable e) {
+                item.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+    * Split the annotations of a combined document among its parts.
+    *
+    * @param combined the annotated combination of the parts
+    * @param texts the texts of the parts
+    * @param separator the separator between the parts
+    * @return an annotated document for each part
+    */
+    static List<AnnotatedDocument> split(AnnotatedDocument combined, String[] texts, String separator) {
+        long[] starts = new long[texts.length];
+        List<Map<String, List<Annotation>>> entities = new ArrayList<>();
+        long start = 0;
+        for(int i = 0; i < texts.length; i++) {
+            starts[i] = start;
+            start += texts[i].length() + separator.length();
+            entities.add(new LinkedHashMap<String, List<Annotation>>());
+        }
+        if(combined.getEntities() != null) {
+            for(Map.Entry<String, List<Annotation>> type : combined.getEntities().entrySet()) {
+                for(Map<String, List<Annotation>> part : entities) {
+                    part.put(type.getKey(), new ArrayList<Annotation>());
+                }
+                if(type.getValue() == null) {
+                    continue;
+                }
+                for(Annotation annotation : type.getValue()) {
+                    int part = Arrays.binarySearch(starts, annotation.getStartOffset());
+                    if(part < 0) {
+                        part = -part - 2;
+                    }
+                    if(part < 0 || annotation.getEndOffset() > starts[part] + texts[part].length()) {
+                        // the annotation reaches over a separator
+                        continue;
+                    }
+                    annotation.setStartOffset(annotation.getStartOffset() - starts[part]);
+                    annotation.setEndOffset(annotation.getEndOffset() - starts[part]);
+                    entities.get(part).get(type.getKey()).add(annotation);
+                }
+            }
+        }
+        List<AnnotatedDocument> parts = new ArrayList<>();
+        for(int i = 0; i < texts.length; i++) {
+            parts.add(new AnnotatedDocument(texts[i], entities.get(i), null, null));
+        }
+        return parts;
+    }
+
+    private static class Item {
+
+        final String text;
+
+        final CompletableFuture<AnnotatedDocument> result = new CompletableFuture<>();
+
+        Item(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -18,41 +18,146 @@
 package com.ontotext.s4.service.impl;
 
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.ontotext.s4.cache.CacheKey;
+import com.ontotext.s4.cache.ServiceResponseCache;
 import com.ontotext.s4.catalog.ServiceDescriptor;
+import com.ontotext.s4.client.AttemptHook;
+import com.ontotext.s4.client.ClientMetricsListener;
 import com.ontotext.s4.client.HttpClient;
 import com.ontotext.s4.client.HttpClientException;
+import com.ontotext.s4.client.LoadBalancer;
+import com.ontotext.s4.client.RateLimiter;
+import com.ontotext.s4.client.RateLimiters;
+import com.ontotext.s4.client.ResponseStream;
+import com.ontotext.s4.client.RetryPolicy;
 import com.ontotext.s4.common.Parameters;
 import com.ontotext.s4.service.S4AbstractClient;
+import com.ontotext.s4.service.util.FileServiceRequest;
 import com.ontotext.s4.service.util.ResponseFormat;
 import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
+import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 public abstract class S4AbstractClientImpl implements S4AbstractClient {
 
     protected HttpClient client;
     protected boolean requestCompression;
 
+    /**
+     * The API key identifier, used to look up the {@link RateLimiters shared rate limiter} of the key
+     */
+    private final String apiKeyId;
+
+    /**
+     * Rate limiter of this client, overriding the one shared by the API key
+     */
+    private volatile RateLimiter rateLimiter;
+
+    /**
+     * Cache of the responses of this client, if any
+     */
+    private volatile ServiceResponseCache responseCache;
+
+    /**
+     * The calls in flight by request, if identical requests are coalesced
+     */
+    private volatile SingleFlight<CacheKey, byte[]> flights;
+
     
     public S4AbstractClientImpl(ServiceDescriptor item, String apiKeyId, String keySecret) {
-        URL endpoint;
+        List<URL> endpoints = new ArrayList<>();
         try {
-            endpoint = new URL(item.getServiceUrl());
+            for(String url : item.getServiceUrls()) {
+                endpoints.add(new URL(url));
+            }
         } catch (MalformedURLException murle) {
             throw new IllegalArgumentException("Invalid ServiceDescriptor specified. No API endpoint found.", murle);
         }
-        this.client = new HttpClient(endpoint, apiKeyId, keySecret);
+        if(endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Invalid ServiceDescriptor specified. No API endpoint found.");
+        }
+        this.apiKeyId = apiKeyId;
+        // requests are balanced between the endpoints of the service
+        this.client = new HttpClient(endpoints, apiKeyId, keySecret);
+        // annotation and classification requests have no side effects and are safe to repeat
+        this.client.setRetryPolicy(new RetryPolicy());
     }
 
     public S4AbstractClientImpl(URL endpoint, String apiKeyId, String keySecret) {
+        this.apiKeyId = apiKeyId;
         this.client = new HttpClient(endpoint, apiKeyId, keySecret);
+        this.client.setRetryPolicy(new RetryPolicy());
     }
 
     public void setRequestCompression(boolean requestCompression) {
         this.requestCompression = requestCompression;
+        client.setRequestBodyEncoding(requestCompression ? "gzip" : null);
+    }
+
+    public void setRequestCompressionThreshold(int thresholdBytes) {
+        client.setCompressionThreshold(thresholdBytes);
+    }
+
+    public Boolean isRequestCompressionAccepted() {
+        return client.isRequestBodyCompressionAccepted();
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        client.setRetryPolicy(retryPolicy);
+    }
+
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return client.getLoadBalancer();
+    }
+
+    public void setMetricsListener(ClientMetricsListener metricsListener) {
+        client.setMetricsListener(metricsListener);
+    }
+
+    public void setResponseCache(ServiceResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public void setRequestCoalescing(boolean requestCoalescing) {
+        if(requestCoalescing != (flights != null)) {
+            flights = requestCoalescing ? new SingleFlight<CacheKey, byte[]>() : null;
+        }
+    }
+
+    public long getCoalescedRequests() {
+        SingleFlight<CacheKey, byte[]> flights = this.flights;
+        return flights == null ? 0 : flights.getCoalesced();
+    }
+
+    public void warmUp() {
+        try {
+            client.warmUp();
+        } catch(HttpClientException e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -69,6 +174,316 @@ public abstract class S4AbstractClientImpl implements S4AbstractClient {
         return response.get("message");
     }
 
+    /**
+     * Reads a JSON response in a way of its own, e.g. without building all of it.
+     * @param <T> Type
+     */
+    protected interface ResponseReader<T> {
+        /**
+         * @param in the response, which is closed by the caller
+         * @return the value read
+         * @throws IOException if the response can not be read
+         */
+        T read(InputStream in) throws IOException;
+    }
+
+    /**
+     * Sends a request to the service and parses the JSON response.
+     * @param rq the request which will be sent to the service
+     * @param responseType the type of the response
+     * @param <T> Type
+     * @return the parsed response
+     * @throws S4ServiceClientException if the request fails
+     */
+    protected <T> T process(final ServiceRequest rq, final TypeReference<T> responseType)
+            throws S4ServiceClientException {
+        final ServiceResponseCache cache = responseCache;
+        SingleFlight<CacheKey, byte[]> flights = this.flights;
+        final CacheKey key = cache == null && flights == null ? null : cacheKey(rq, ResponseFormat.JSON);
+        if(key == null) {
+            return send(new Callable<T>() {
+                public T call() throws HttpClientException {
+                    return client.request("", "POST", responseType, rq, constructHeaders(ResponseFormat.JSON),
+                            permits(rq));
+                }
+            });
+        }
+
+        byte[] content = fetch(rq, key, cache, flights);
+        if(content == null) {
+            return null;
+        }
+        try {
+            // every caller gets a document of its own
+            return client.readValue(content, responseType);
+        } catch(HttpClientException e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends a request to the service and parses the JSON response without blocking. If the transport
+     * of the client is an {@link com.ontotext.s4.client.AsyncTransport} no thread waits for the
+     * service, not even for the rate limiter or between retries. Requests for documents in files and
+     * requests going through the response cache or coalesced with identical ones are processed
+     * by a task on the executor of the client instead.
+     * @param rq the request which will be sent to the service
+     * @param responseType the type of the response
+     * @param <T> Type
+     * @return the future parsed response, failed with an {@link S4ServiceClientException} if the request
+     * fails; cancelling it aborts the request
+     */
+    protected <T> CompletableFuture<T> processAsync(final ServiceRequest rq, final TypeReference<T> responseType) {
+        if(rq instanceof FileServiceRequest || responseCache != null || flights != null) {
+            return client.submit(new Callable<T>() {
+                public T call() {
+                    return process(rq, responseType);
+                }
+            });
+        }
+        final CompletableFuture<T> request = client.requestAsync("", "POST", responseType, rq,
+                constructHeaders(ResponseFormat.JSON), permits(rq));
+        final CompletableFuture<T> result = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if(cancelled) {
+                    request.cancel(mayInterruptIfRunning);
+                }
+                return cancelled;
+            }
+        };
+        request.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                if(failure != null) {
+                    result.completeExceptionally(serviceFailure(failure));
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the failure of an asynchronous request, as {@link #send(Callable)} reports it
+     */
+    private S4ServiceClientException serviceFailure(Throwable failure) {
+        if(failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if(failure instanceof S4ServiceClientException) {
+            return (S4ServiceClientException)failure;
+        }
+        if(failure instanceof HttpClientException) {
+            HttpClientException e = (HttpClientException)failure;
+            try {
+                JsonNode msg = handleErrors(e);
+                return new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
+            } catch(S4ServiceClientException handled) {
+                return handled;
+            }
+        }
+        return new S4ServiceClientException(failure.getMessage(), failure);
+    }
+
+    /**
+     * Sends a request to the service and reads the JSON response with a reader of its own.
+     * @param rq the request which will be sent to the service
+     * @param reader reads the response
+     * @param <T> Type
+     * @return the value read from the response
+     * @throws S4ServiceClientException if the request fails
+     */
+    protected <T> T process(final ServiceRequest rq, final ResponseReader<T> reader)
+            throws S4ServiceClientException {
+        final ServiceResponseCache cache = responseCache;
+        SingleFlight<CacheKey, byte[]> flights = this.flights;
+        final CacheKey key = cache == null && flights == null ? null : cacheKey(rq, ResponseFormat.JSON);
+        if(key == null) {
+            return send(new Callable<T>() {
+                public T call() throws HttpClientException, IOException {
+                    try(ResponseStream stream = client.requestForStream(
+                            "", "POST", rq, constructHeaders(ResponseFormat.JSON), permits(rq))) {
+                        return stream == null ? null : reader.read(stream);
+                    }
+                }
+            });
+        }
+
+        byte[] content = fetch(rq, key, cache, flights);
+        if(content == null) {
+            return null;
+        }
+        try {
+            return reader.read(new ByteArrayInputStream(content));
+        } catch(IOException e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the JSON response to a request from the cache, or else from the service, sharing the
+     * call with identical requests in flight.
+     */
+    private byte[] fetch(final ServiceRequest rq, final CacheKey key, final ServiceResponseCache cache,
+                         SingleFlight<CacheKey, byte[]> flights) throws S4ServiceClientException {
+        byte[] content = cache == null ? null : cache.get(key);
+        if(content != null) {
+            return content;
+        }
+        Callable<byte[]> download = new Callable<byte[]>() {
+            public byte[] call() {
+                byte[] content = send(new Callable<byte[]>() {
+                    public byte[] call() throws HttpClientException, IOException {
+                        try(ResponseStream stream = client.requestForStream(
+                                "", "POST", rq, constructHeaders(ResponseFormat.JSON), permits(rq))) {
+                            return stream == null ? null : IOUtils.toByteArray(stream);
+                        }
+                    }
+                });
+                if(cache != null && content != null) {
+                    cache.put(key, content);
+                }
+                return content;
+            }
+        };
+        try {
+            // identical requests in flight share a single call to the service
+            return flights == null ? download.call() : flights.execute(key, download);
+        } catch(S4ServiceClientException e) {
+            throw e;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4ServiceClientException("Interrupted while waiting for the service", e);
+        } catch(Exception e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Makes one call to the service on behalf of {@link #process(ServiceRequest, TypeReference)}.
+     * Subclasses may override this to change how calls are made, e.g. to hedge them.
+     * @param exchange the call, which acquires its permits and sends its request
+     * @param <T> Type
+     * @return the result of the call
+     * @throws S4ServiceClientException if the call fails
+     */
+    protected <T> T send(Callable<T> exchange) throws S4ServiceClientException {
+        try {
+            return exchange.call();
+        } catch(HttpClientException e) {
+            JsonNode msg = handleErrors(e);
+            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
+        } catch(S4ServiceClientException e) {
+            throw e;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4ServiceClientException("Interrupted while waiting for the service", e);
+        } catch(Exception e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends a request to the service and returns the raw response.
+     * @param rq the request which will be sent to the service
+     * @param serializationFormat the format of the response
+     * @return a {@link ResponseStream} from which the response can be read
+     * @throws S4ServiceClientException if the request fails
+     */
+    protected ResponseStream processForStream(ServiceRequest rq, ResponseFormat serializationFormat)
+            throws S4ServiceClientException {
+        ServiceResponseCache cache = responseCache;
+        CacheKey key = cache == null ? null : cacheKey(rq, serializationFormat);
+        if(key != null) {
+            ResponseStream cached = cache.getStream(key);
+            if(cached != null) {
+                return cached;
+            }
+        }
+        try {
+            ResponseStream stream = client.requestForStream("", "POST", rq, constructHeaders(serializationFormat),
+                    permits(rq));
+            return key == null || stream == null ? stream : cache.cacheStream(key, stream);
+        } catch(HttpClientException e) {
+            JsonNode msg = handleErrors(e);
+            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
+        }
+    }
+
+    /**
+     * @param rq a request
+     * @param serializationFormat the format of the response
+     * @return the key of the response in a {@link ServiceResponseCache}, or <code>null</code> if the
+     * request is not cached because its document is read from a file
+     */
+    protected CacheKey cacheKey(ServiceRequest rq, ResponseFormat serializationFormat) {
+        if(rq instanceof FileServiceRequest) {
+            return null;
+        }
+        return CacheKey.of(client.getBaseUrl().toString(), rq.getDocument(), rq.getDocumentUrl(),
+                rq.getDocumentType(), serializationFormat.name(),
+                String.valueOf(rq.getImageTagging()), String.valueOf(rq.getImageCategorization()));
+    }
+
+    /**
+     * Returns the hook which waits until the rate limiter of the client allows an attempt of the
+     * request to be sent. Every attempt takes permits, as retries count against the quota too.
+     * @param rq the request which will be sent to the service
+     * @return the hook taking the permits, <code>null</code> if the requests of the client are not limited
+     */
+    protected AttemptHook permits(ServiceRequest rq) {
+        final RateLimiter limiter = rateLimiter != null ? rateLimiter : RateLimiters.forApiKey(apiKeyId);
+        if(limiter == null) {
+            return null;
+        }
+        final long characters = documentLength(rq);
+        return new AttemptHook() {
+            public void beforeAttempt(int attempt) throws HttpClientException {
+                try {
+                    limiter.acquire(characters);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new HttpClientException(
+                            new InterruptedIOException("Interrupted while waiting for the rate limiter"));
+                }
+            }
+
+            public CompletableFuture<Void> beforeAttemptAsync(int attempt) {
+                return limiter.acquireAsync(characters);
+            }
+        };
+    }
+
+    /**
+     * @param rq a request
+     * @return the number of document characters sent with the request, as charged by the quota.
+     * Documents passed by URL are downloaded by the service and count as empty
+     */
+    protected static long documentLength(ServiceRequest rq) {
+        if(rq.getDocument() != null) {
+            return rq.getDocument().length();
+        }
+        if(rq instanceof FileServiceRequest) {
+            // the byte size is an upper bound of the character count
+            return ((FileServiceRequest)rq).getDocumentFile().length();
+        }
+        return 0;
+    }
+
+    /**
+     * Checks that a document file can be read before it is streamed to the service.
+     * @param documentFile The file to check
+     * @throws IOException if the file is not readable
+     */
+    protected void checkReadable(File documentFile) throws IOException {
+        Path documentPath = documentFile.toPath();
+        if(!Files.isReadable(documentPath)) {
+            throw new IOException("File " + documentPath.toString() + " is not readable.");
+        }
+    }
+
     /**
      * Construct headers Map to be sent with the request
      * @param serializationFormat A response type accepted by the S4 API
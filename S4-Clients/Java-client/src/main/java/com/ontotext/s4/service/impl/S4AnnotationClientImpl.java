@@ -18,11 +18,24 @@ package com.ontotext.s4.service.impl;
 
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.ontotext.s4.catalog.ServiceDescriptor;
-import com.ontotext.s4.client.HttpClientException;
+import com.ontotext.s4.client.ResponseStream;
+import com.ontotext.s4.client.HedgingPolicy;
+import com.ontotext.s4.client.RequestHedger;
+import com.ontotext.s4.common.DaemonThreadFactory;
+import com.ontotext.s4.common.StringPool;
 import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotatedDocumentParser;
+import com.ontotext.s4.model.annotation.AnnotationProjection;
+import com.ontotext.s4.model.annotation.AnnotationTable;
+import com.ontotext.s4.model.annotation.LazyAnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotationVisitor;
 import com.ontotext.s4.service.S4AnnotationClient;
+import com.ontotext.s4.service.util.BatchOptions;
+import com.ontotext.s4.service.util.BatchResults;
+import com.ontotext.s4.service.util.ChunkingOptions;
+import com.ontotext.s4.service.util.FileServiceRequest;
+import com.ontotext.s4.service.util.MicroBatchOptions;
 import com.ontotext.s4.service.util.S4ServiceClientException;
 import com.ontotext.s4.service.util.ResponseFormat;
 import com.ontotext.s4.service.util.ServiceRequest;
@@ -32,13 +45,59 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 
 public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4AnnotationClient {
 
+    /**
+     * Runs the requests into which documents are split, for the chunks of large documents and
+     * the batches of small ones, created with the first of them. The document itself may be
+     * annotated by a task on the executor of the connection pool, which must not wait for that
+     * executor. It has as many threads as the pool has connections, as more requests than that
+     * would only wait for a connection.
+     */
+    private ExecutorService splitExecutor;
+
+    /**
+     * Hedges the requests for annotated documents, <code>null</code> if they are not hedged
+     */
+    private volatile RequestHedger hedger;
+
+    /**
+     * How large plain-text documents are split, <code>null</code> if they are sent whole
+     */
+    private volatile ChunkingOptions chunking;
+
+    /**
+     * The parts of the annotated documents which are kept, <code>null</code> for all of them
+     */
+    private volatile AnnotationProjection projection;
+
+    /**
+     * Pool of the string values of features, <code>null</code> if values are not pooled
+     */
+    private volatile StringPool stringPool;
+
+    /**
+     * Whether documents annotated in a single request are decoded when their parts are read
+     */
+    private volatile boolean lazyParsing;
+
+    /**
+     * Packs small plain-text documents into combined requests, <code>null</code> if they are sent alone
+     */
+    private volatile MicroBatcher batcher;
+
     /**
      * Constructs a <code>S4AnnotationClient</code> for accessing a specific processing
      * pipeline on the s4.ontotext.com platform using the given credentials.
@@ -112,15 +171,9 @@ public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4An
                                               SupportedMimeType documentMimeType)
             throws IOException, S4ServiceClientException {
 
-        Path documentPath = documentFile.toPath();
-        if(!Files.isReadable(documentPath)) {
-            throw new IOException("File " + documentPath.toString() + " is not readable.");
-        }
-        ByteBuffer buff = 
-        		ByteBuffer.wrap(Files.readAllBytes(documentPath));
-        String content = documentEncoding.decode(buff).toString();
-
-        return annotateDocument(content, documentMimeType);
+        checkReadable(documentFile);
+        ServiceRequest rq = new FileServiceRequest(documentFile, documentEncoding, documentMimeType);
+        return processRequest(rq);
     }
 
     /**
@@ -140,32 +193,27 @@ public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4An
     }
 
     /**
-     * Annotates a single document and returns an {@link InputStream} from
+     * Annotates a single document and returns a {@link ResponseStream} from
      * which the contents of the serialized annotated document can be read
      *
      * @param documentText the contents of the document which will be annotated
      * @param documentMimeType the MIME type of the file which will be annotated
      * @param serializationFormat the format which will be used for serialization of the annotated document
-     * @return an {@link InputStream} from which the serialization of the annotated document can be read
+     * @return a {@link ResponseStream} from which the serialization of the annotated document can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(String documentText, SupportedMimeType documentMimeType,
+    public ResponseStream annotateDocumentAsStream(String documentText, SupportedMimeType documentMimeType,
                                                 ResponseFormat serializationFormat)
             throws S4ServiceClientException {
 
         ServiceRequest rq =
                 new ServiceRequest(documentText, documentMimeType);
-        try {
-            return client.requestForStream("", "POST", rq, constructHeaders(serializationFormat));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
-        }
+        return processForStream(rq, serializationFormat);
     }
 
     /**
      * Annotates the contents of a single file returning an
-     * {@link InputStream} from which the annotated content can be read
+     * {@link ResponseStream} from which the annotated content can be read
      *
      * @param documentContent the file which will be annotated
      * @param documentEncoding the encoding of the file which will be annotated
@@ -175,20 +223,14 @@ public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4An
      * @throws IOException if there are problems reading the contents of the file
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             File documentContent, Charset documentEncoding, SupportedMimeType documentMimeType,
             ResponseFormat serializationFormat) throws IOException,
             S4ServiceClientException {
 
-        Path documentPath = documentContent.toPath();
-        if(!Files.isReadable(documentPath)) {
-            throw new IOException("File " + documentPath.toString() + " is not readable.");
-        }
-        ByteBuffer buff = 
-        		ByteBuffer.wrap(Files.readAllBytes(documentPath));
-        String content = documentEncoding.decode(buff).toString();
-
-        return annotateDocumentAsStream(content, documentMimeType, serializationFormat);
+        checkReadable(documentContent);
+        ServiceRequest rq = new FileServiceRequest(documentContent, documentEncoding, documentMimeType);
+        return processForStream(rq, serializationFormat);
     }
 
     /**
@@ -198,51 +240,142 @@ public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4An
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be annotated
      * @param serializationFormat the serialization format of the output
-     * @return an {@link InputStream} from where the serialized output can be read
+     * @return a {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType, ResponseFormat serializationFormat)
             throws S4ServiceClientException {
 
         ServiceRequest rq =
                 new ServiceRequest(documentUrl, documentMimeType);
-        try {
-            return client.requestForStream("", "POST", rq, constructHeaders(serializationFormat));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
-        }
+        return processForStream(rq, serializationFormat);
     }
 
     /**
      * Annotates a single document publicly available under a given URL and
      * categorizes and tags (if specified) any images inside.
-     * Returns an {@link InputStream} from which the annotated content can be read
+     * Returns a {@link ResponseStream} from which the annotated content can be read
      *
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be annotated
      * @param serializationFormat the serialization format of the output
      * @param imageTagging The boolean flag to allow/deny image tagging of the document
      * @param imageCategorization The boolean flag to allow/deny image categorization of the document
-     * @return an {@link InputStream} from where the serialized output can be read
+     * @return a {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream annotateDocumentAsStream(
+    public ResponseStream annotateDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType, ResponseFormat serializationFormat,
             boolean imageTagging, boolean imageCategorization)
             throws S4ServiceClientException {
 
         ServiceRequest rq =
                 new ServiceRequest(documentUrl, documentMimeType, imageTagging, imageCategorization);
-        try {
-            return client.requestForStream("", "POST", rq, constructHeaders(serializationFormat));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
+        return processForStream(rq, serializationFormat);
+    }
+
+    public void annotateDocument(String documentText, SupportedMimeType documentMimeType, AnnotationVisitor visitor)
+            throws S4ServiceClientException {
+        annotateDocument(new ServiceRequest(documentText, documentMimeType), visitor);
+    }
+
+    public void annotateDocument(ServiceRequest request, AnnotationVisitor visitor)
+            throws S4ServiceClientException {
+        try(ResponseStream stream = processForStream(request, ResponseFormat.JSON)) {
+            if(stream != null) {
+                AnnotatedDocumentParser.parse(stream, projection, stringPool, visitor);
+                // reading to the end lets the connection be reused and the response be cached
+                IOUtils.copy(stream, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+        } catch(IOException e) {
+            throw new S4ServiceClientException(e.getMessage(), e);
         }
     }
 
+    public AnnotationTable annotateDocumentAsTable(String documentText, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException {
+        return annotateDocumentAsTable(new ServiceRequest(documentText, documentMimeType));
+    }
+
+    public AnnotationTable annotateDocumentAsTable(ServiceRequest request) throws S4ServiceClientException {
+        if(isSplit(request)) {
+            AnnotatedDocument document = processRequest(request);
+            return document == null ? null : AnnotationTable.of(document);
+        }
+        final AnnotationProjection projection = this.projection;
+        final StringPool pool = this.stringPool;
+        return process(request, new ResponseReader<AnnotationTable>() {
+            public AnnotationTable read(InputStream in) throws IOException {
+                return AnnotatedDocumentParser.readTable(in, projection, pool);
+            }
+        });
+    }
+
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(String documentText, SupportedMimeType documentMimeType) {
+        return annotateDocumentAsync(new ServiceRequest(documentText, documentMimeType));
+    }
+
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(URL documentUrl, SupportedMimeType documentMimeType) {
+        return annotateDocumentAsync(new ServiceRequest(documentUrl, documentMimeType));
+    }
+
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(
+            URL documentUrl, SupportedMimeType documentMimeType, boolean imageTagging, boolean imageCategorization) {
+        return annotateDocumentAsync(
+                new ServiceRequest(documentUrl, documentMimeType, imageTagging, imageCategorization));
+    }
+
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedger = hedgingPolicy == null ? null : new RequestHedger(hedgingPolicy);
+    }
+
+    public void setProjection(AnnotationProjection projection) {
+        this.projection = projection;
+    }
+
+    public void setStringPool(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
+    public void setChunking(ChunkingOptions chunking) {
+        this.chunking = chunking;
+    }
+
+    public void setMicroBatching(MicroBatchOptions microBatching) {
+        this.batcher = microBatching == null ? null : new MicroBatcher(microBatching, new MicroBatcher.Annotator() {
+            public AnnotatedDocument annotate(String text) {
+                return processWhole(new ServiceRequest(text, SupportedMimeType.PLAINTEXT), null);
+            }
+        }, getSplitExecutor());
+    }
+
+    public CompletableFuture<AnnotatedDocument> annotateDocumentAsync(final ServiceRequest rq) {
+        if(hedger == null && !lazyParsing && projection == null && stringPool == null && !isSplit(rq)) {
+            return processAsync(rq, new TypeReference<AnnotatedDocument>() {});
+        }
+        // hedges, chunks, batches and documents read in a way of their own need a thread of their own
+        return client.submit(new Callable<AnnotatedDocument>() {
+            public AnnotatedDocument call() {
+                return processRequest(rq);
+            }
+        });
+    }
+
+    public BatchResults<AnnotatedDocument> annotateDocuments(
+            Iterable<? extends ServiceRequest> requests, BatchOptions options) {
+        return new BatchResults<>(requests.iterator(), options, client,
+                new BatchResults.Processor<AnnotatedDocument>() {
+                    public AnnotatedDocument process(ServiceRequest rq) {
+                        return processRequest(rq);
+                    }
+                });
+    }
+
     /**
      * This low level method allows the user to specify every parameter explicitly by setting the properties
      * of the OnlineService request object. Returns an object which wraps the annotated document.
@@ -251,14 +384,154 @@ public class S4AnnotationClientImpl extends S4AbstractClientImpl implements S4An
      * @return an {@link AnnotatedDocument} containing the original content as well as the annotations produced
      * @throws S4ServiceClientException Error
      */
-    private AnnotatedDocument processRequest(ServiceRequest rq)
+    private AnnotatedDocument processRequest(final ServiceRequest rq)
             throws S4ServiceClientException {
+        AnnotationProjection projection = this.projection;
+        if(isPlainText(rq)) {
+            // chunks and batches are split by their text, so they are projected once joined or split
+            ChunkingOptions chunking = this.chunking;
+            if(chunking != null && rq.getDocument().length() > chunking.getMaxChunkSize()) {
+                return project(processChunks(rq.getDocument(), chunking), projection);
+            }
+            MicroBatcher batcher = this.batcher;
+            if(batcher != null && rq.getDocument().length() <= batcher.getOptions().getMaxDocumentLength()) {
+                return project(await(batcher.submit(rq.getDocument())), projection);
+            }
+        }
+        return processWhole(rq, projection);
+    }
+
+    /**
+     * Annotates a document in a single request.
+     *
+     * @param rq the request which will be sent to the service
+     * @param projection the parts of the document which are kept, <code>null</code> for all of them
+     * @return the annotated document
+     * @throws S4ServiceClientException Error
+     */
+    private AnnotatedDocument processWhole(ServiceRequest rq, final AnnotationProjection projection)
+            throws S4ServiceClientException {
+        if(lazyParsing) {
+            return process(rq, new ResponseReader<AnnotatedDocument>() {
+                public AnnotatedDocument read(InputStream in) throws IOException {
+                    return new LazyAnnotatedDocument(IOUtils.toByteArray(in), projection);
+                }
+            });
+        }
+        final StringPool pool = this.stringPool;
+        if(projection == null && pool == null) {
+            return process(rq, new TypeReference<AnnotatedDocument>() {});
+        }
+        return process(rq, new ResponseReader<AnnotatedDocument>() {
+            public AnnotatedDocument read(InputStream in) throws IOException {
+                return AnnotatedDocumentParser.read(in, projection, pool);
+            }
+        });
+    }
+
+    /**
+     * @param rq a request
+     * @return whether the document of the request is annotated in chunks or in a batch with others
+     */
+    private boolean isSplit(ServiceRequest rq) {
+        if(!isPlainText(rq)) {
+            return false;
+        }
+        ChunkingOptions chunking = this.chunking;
+        MicroBatcher batcher = this.batcher;
+        int length = rq.getDocument().length();
+        return chunking != null && length > chunking.getMaxChunkSize()
+                || batcher != null && length <= batcher.getOptions().getMaxDocumentLength();
+    }
+
+    private static boolean isPlainText(ServiceRequest rq) {
+        return !(rq instanceof FileServiceRequest) && rq.getDocument() != null
+                && SupportedMimeType.PLAINTEXT.value.equals(rq.getDocumentType());
+    }
+
+    private static AnnotatedDocument project(AnnotatedDocument document, AnnotationProjection projection) {
+        return projection == null ? document : projection.project(document);
+    }
+
+    /**
+     * Annotates a plain-text document in chunks, up to the concurrency of the options at a time,
+     * and joins them into one document. If a chunk fails, the others are cancelled.
+     *
+     * @param text the text of the document
+     * @param options how to split the document
+     * @return the annotated document, with offsets into the whole text
+     * @throws S4ServiceClientException if any chunk fails
+     */
+    private AnnotatedDocument processChunks(String text, ChunkingOptions options)
+            throws S4ServiceClientException {
+        List<int[]> chunks = DocumentChunker.split(text, options.getMaxChunkSize(), options.getOverlap());
+        List<Future<AnnotatedDocument>> futures = new ArrayList<>();
+        List<AnnotatedDocument> parts = new ArrayList<>();
+        try {
+            for(int[] chunk : chunks) {
+                if(futures.size() >= options.getConcurrency()) {
+                    // chunks are awaited in order, each one completed frees a place for the next
+                    parts.add(await(futures.get(parts.size())));
+                }
+                final ServiceRequest rq = new ServiceRequest(text.substring(chunk[0], chunk[1]), SupportedMimeType.PLAINTEXT);
+                futures.add(client.submit(new Callable<AnnotatedDocument>() {
+                    public AnnotatedDocument call() {
+                        return processWhole(rq, null);
+                    }
+                }, getSplitExecutor()));
+            }
+            while(parts.size() < futures.size()) {
+                parts.add(await(futures.get(parts.size())));
+            }
+        } finally {
+            if(parts.size() < chunks.size()) {
+                for(Future<AnnotatedDocument> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return DocumentChunker.merge(text, chunks, parts);
+    }
+
+    private synchronized ExecutorService getSplitExecutor() {
+        if(splitExecutor == null) {
+            splitExecutor = DaemonThreadFactory.newBoundedExecutor(
+                    "s4-split", client.getConnectionPool().getMaxConnectionsPerRoute());
+        }
+        return splitExecutor;
+    }
+
+    /**
+     * Waits for a document annotated on another thread.
+     */
+    private static AnnotatedDocument await(Future<AnnotatedDocument> future) throws S4ServiceClientException {
         try {
-            return client.request("", "POST", new TypeReference<AnnotatedDocument>() {}, rq,
-                    constructHeaders(ResponseFormat.JSON));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4ServiceClientException("Interrupted while waiting for the service", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof S4ServiceClientException) {
+                throw (S4ServiceClientException)e.getCause();
+            }
+            throw new S4ServiceClientException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Hedges each call to the service, if a {@link HedgingPolicy} is set. Calls are hedged below
+     * the coalescing of identical requests, so that a hedge is not mistaken for a duplicate.
+     */
+    @Override
+    protected <T> T send(final Callable<T> exchange) throws S4ServiceClientException {
+        final RequestHedger hedger = this.hedger;
+        if(hedger == null) {
+            return super.send(exchange);
         }
+        return super.send(new Callable<T>() {
+            public T call() throws Exception {
+                return hedger.call(exchange);
+            }
+        });
     }
 }
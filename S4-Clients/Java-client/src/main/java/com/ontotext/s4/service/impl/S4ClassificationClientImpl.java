@@ -17,11 +17,11 @@
 package com.ontotext.s4.service.impl;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.ontotext.s4.client.ResponseStream;
 import com.ontotext.s4.catalog.ServiceDescriptor;
-import com.ontotext.s4.client.HttpClientException;
 import com.ontotext.s4.model.classification.ClassifiedDocument;
 import com.ontotext.s4.service.S4ClassificationClient;
+import com.ontotext.s4.service.util.FileServiceRequest;
 import com.ontotext.s4.service.util.S4ServiceClientException;
 import com.ontotext.s4.service.util.ResponseFormat;
 import com.ontotext.s4.service.util.ServiceRequest;
@@ -29,12 +29,9 @@ import com.ontotext.s4.service.util.SupportedMimeType;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 public class S4ClassificationClientImpl extends S4AbstractClientImpl implements S4ClassificationClient {
 
@@ -91,15 +88,9 @@ public class S4ClassificationClientImpl extends S4AbstractClientImpl implements
     public ClassifiedDocument classifyDocument(File documentFile, Charset documentEncoding, SupportedMimeType documentMimeType)
             throws IOException, S4ServiceClientException {
 
-        Path documentPath = documentFile.toPath();
-        if(!Files.isReadable(documentPath)) {
-            throw new IOException("File " + documentPath.toString()	+ " is not readable.");
-        }
-        ByteBuffer buff;
-        buff = ByteBuffer.wrap(Files.readAllBytes(documentPath));
-        String content = documentEncoding.decode(buff).toString();
-
-        return classifyDocument(content, documentMimeType);
+        checkReadable(documentFile);
+        ServiceRequest rq = new FileServiceRequest(documentFile, documentEncoding, documentMimeType);
+        return classifyRequest(rq);
     }
 
     /**
@@ -119,30 +110,25 @@ public class S4ClassificationClientImpl extends S4AbstractClientImpl implements
     }
 
     /**
-     * Classifies a single document and returns an {@link InputStream} from
+     * Classifies a single document and returns a {@link ResponseStream} from
      * which the contents of the serialized annotated document can be read
      *
      * @param documentText the contents of the document which will be classified
      * @param documentMimeType the MIME type of the file which will be classified
-     * @return An {@link InputStream} from which the serialization of the classified document can be read
+     * @return A {@link ResponseStream} from which the serialization of the classified document can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             String documentText, SupportedMimeType documentMimeType)
             throws S4ServiceClientException {
 
         ServiceRequest rq = new ServiceRequest(documentText, documentMimeType);
-        try {
-            return client.requestForStream("", "POST", rq, constructHeaders(ResponseFormat.JSON));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
-        }
+        return processForStream(rq, ResponseFormat.JSON);
     }
 
     /**
      * Classifies the contents of a single file returning an
-     * {@link InputStream} from which the classification information can be read
+     * {@link ResponseStream} from which the classification information can be read
      *
      * @param documentFile the file which will be classified
      * @param documentEncoding the encoding of the file which will be classified
@@ -153,18 +139,13 @@ public class S4ClassificationClientImpl extends S4AbstractClientImpl implements
      * @throws IOException if there are problems reading the contents of the file
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             File documentFile, Charset documentEncoding, SupportedMimeType documentMimeType)
             throws IOException,	S4ServiceClientException {
 
-        Path documentPath = documentFile.toPath();
-        if(!Files.isReadable(documentPath)) {
-            throw new IOException("File " + documentPath.toString() + " is not readable.");
-        }
-        ByteBuffer buff =
-        		ByteBuffer.wrap(Files.readAllBytes(documentPath));
-        String content = documentEncoding.decode(buff).toString();
-        return classifyDocumentAsStream(content, documentMimeType);
+        checkReadable(documentFile);
+        ServiceRequest rq = new FileServiceRequest(documentFile, documentEncoding, documentMimeType);
+        return processForStream(rq, ResponseFormat.JSON);
     }
 
     /**
@@ -173,20 +154,27 @@ public class S4ClassificationClientImpl extends S4AbstractClientImpl implements
      *
      * @param documentUrl the publicly accessible URL from where the document will be downloaded
      * @param documentMimeType the MIME type of the document which will be classified
-     * @return An {@link InputStream} from where the serialized output can be read
+     * @return A {@link ResponseStream} from where the serialized output can be read
      * @throws S4ServiceClientException Error
      */
-    public InputStream classifyDocumentAsStream(
+    public ResponseStream classifyDocumentAsStream(
             URL documentUrl, SupportedMimeType documentMimeType)
             throws S4ServiceClientException {
 
         ServiceRequest rq = new ServiceRequest(documentUrl, documentMimeType);
-        try {
-            return client.requestForStream("", "POST", rq, constructHeaders(ResponseFormat.JSON));
-        } catch(HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
-        }
+        return processForStream(rq, ResponseFormat.JSON);
+    }
+
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(String documentText, SupportedMimeType documentMimeType) {
+        return classifyDocumentAsync(new ServiceRequest(documentText, documentMimeType));
+    }
+
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(URL documentUrl, SupportedMimeType documentMimeType) {
+        return classifyDocumentAsync(new ServiceRequest(documentUrl, documentMimeType));
+    }
+
+    public CompletableFuture<ClassifiedDocument> classifyDocumentAsync(final ServiceRequest rq) {
+        return processAsync(rq, new TypeReference<ClassifiedDocument>() {});
     }
 
     /**
@@ -200,13 +188,6 @@ public class S4ClassificationClientImpl extends S4AbstractClientImpl implements
     private ClassifiedDocument classifyRequest(ServiceRequest rq)
             throws S4ServiceClientException {
 
-        try {
-            return client.request("", "POST", new TypeReference<ClassifiedDocument>() {}, rq,
-                    constructHeaders(ResponseFormat.JSON));
-
-        } catch (HttpClientException e) {
-            JsonNode msg = handleErrors(e);
-            throw new S4ServiceClientException(msg == null ? e.getMessage() : msg.asText(), e);
-        }
+        return process(rq, new TypeReference<ClassifiedDocument>() {});
     }
 }
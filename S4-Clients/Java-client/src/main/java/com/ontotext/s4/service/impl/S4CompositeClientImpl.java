@@ -0,0 +1,192 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.classification.ClassifiedDocument;
+import com.ontotext.s4.service.S4AnnotationClient;
+import com.ontotext.s4.service.S4ClassificationClient;
+import com.ontotext.s4.service.S4CompositeClient;
+import com.ontotext.s4.service.util.CompositeResult;
+import com.ontotext.s4.service.util.FileServiceRequest;
+import com.ontotext.s4.service.util.PreparedServiceRequest;
+import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
+import com.ontotext.s4.service.util.SupportedMimeType;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class S4CompositeClientImpl implements S4CompositeClient {
+
+    /**
+     * The clients of the annotation services by service name, in the order their results are reported
+     */
+    private final Map<String, S4AnnotationClient> annotationClients;
+
+    /**
+     * The client of the classification service, <code>null</code> if documents are not classified
+     */
+    private final S4ClassificationClient classificationClient;
+
+    /**
+     * The time in milliseconds within which all the services must respond, 0 for no limit
+     */
+    private volatile long timeout;
+
+    /**
+     * Create a client calling the given services.
+     *
+     * @param annotationClients the clients of the annotation services by service name
+     * @param classificationClient the client of the classification service, <code>null</code> to not classify documents
+     */
+    public S4CompositeClientImpl(Map<String, S4AnnotationClient> annotationClients,
+                                 S4ClassificationClient classificationClient) {
+        if(annotationClients.isEmpty() && classificationClient == null) {
+            throw new IllegalArgumentException("No service specified");
+        }
+        this.annotationClients = Collections.unmodifiableMap(new LinkedHashMap<>(annotationClients));
+        this.classificationClient = classificationClient;
+    }
+
+    public CompositeResult processDocument(String documentText, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException {
+        return processDocument(new ServiceRequest(documentText, documentMimeType));
+    }
+
+    public CompositeResult processDocument(URL documentUrl, SupportedMimeType documentMimeType)
+            throws S4ServiceClientException {
+        return processDocument(new ServiceRequest(documentUrl, documentMimeType));
+    }
+
+    public CompositeResult processDocument(ServiceRequest rq) throws S4ServiceClientException {
+        // the body is serialized once for all the services, files are streamed to each of them instead
+        ServiceRequest prepared = rq instanceof FileServiceRequest || rq instanceof PreparedServiceRequest
+                ? rq : new PreparedServiceRequest(rq);
+        long timeout = this.timeout;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        Map<String, CompletableFuture<AnnotatedDocument>> annotations = new LinkedHashMap<>();
+        CompletableFuture<ClassifiedDocument> classification = null;
+        // the service names of the calls in flight
+        Map<CompletableFuture<?>, String> pending = new LinkedHashMap<>();
+        boolean done = false;
+        try {
+            for(Map.Entry<String, S4AnnotationClient> service : annotationClients.entrySet()) {
+                CompletableFuture<AnnotatedDocument> annotation = service.getValue().annotateDocumentAsync(prepared);
+                annotations.put(service.getKey(), annotation);
+                pending.put(annotation, service.getKey());
+            }
+            if(classificationClient != null) {
+                classification = classificationClient.classifyDocumentAsync(prepared);
+                pending.put(classification, "classification");
+            }
+            while(!pending.isEmpty()) {
+                // whichever service answers first is checked first, so a failure is seen at once
+                awaitAny(pending, timeout, deadline);
+                for(Iterator<Map.Entry<CompletableFuture<?>, String>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<CompletableFuture<?>, String> call = it.next();
+                    if(call.getKey().isDone()) {
+                        checkSucceeded(call.getValue(), call.getKey());
+                        it.remove();
+                    }
+                }
+            }
+
+            Map<String, AnnotatedDocument> documents = new LinkedHashMap<>();
+            for(Map.Entry<String, CompletableFuture<AnnotatedDocument>> annotation : annotations.entrySet()) {
+                documents.put(annotation.getKey(), annotation.getValue().join());
+            }
+            done = true;
+            return new CompositeResult(rq, documents, classification == null ? null : classification.join());
+        } finally {
+            if(!done) {
+                // a failed service fails the whole document, the others need not be waited for
+                for(CompletableFuture<?> future : pending.keySet()) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("The timeout must not be negative");
+        }
+        this.timeout = timeoutMillis;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public Map<String, S4AnnotationClient> getAnnotationClients() {
+        return annotationClients;
+    }
+
+    public S4ClassificationClient getClassificationClient() {
+        return classificationClient;
+    }
+
+    /**
+     * Waits until one of the calls in flight completes or the deadline common to all the services passes.
+     */
+    private static void awaitAny(Map<CompletableFuture<?>, String> pending, long timeout, long deadline)
+            throws S4ServiceClientException {
+        CompletableFuture<Object> any = CompletableFuture.anyOf(
+                pending.keySet().toArray(new CompletableFuture<?>[pending.size()]));
+        try {
+            if(timeout == 0) {
+                any.get();
+            } else {
+                any.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4ServiceClientException("Interrupted while waiting for the services", e);
+        } catch(TimeoutException e) {
+            throw new S4ServiceClientException("The services did not respond within " + timeout
+                    + " ms, still waiting for " + String.join(", ", pending.values()), e);
+        } catch(ExecutionException e) {
+            // the failed call is reported with the name of its service
+        }
+    }
+
+    /**
+     * Reports the failure of a service whose call has completed.
+     */
+    private static void checkSucceeded(String service, CompletableFuture<?> future) throws S4ServiceClientException {
+        try {
+            future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new S4ServiceClientException("Interrupted while waiting for the service", e);
+        } catch(ExecutionException e) {
+            throw new S4ServiceClientException(service + ": " + e.getCause().getMessage(), e.getCause());
+        } catch(CancellationException e) {
+            throw new S4ServiceClientException(service + ": the request was cancelled", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one call per key at a time: a caller asking for a key which is already being
+ * computed waits for that call and shares its result, or its failure, instead of starting
+ * another. The key is forgotten as soon as the call ends, so nothing is cached. A call which
+ * fails because its caller was interrupted or cancelled it is not shared: one of the waiting
+ * callers makes the call again for the others.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the results, which are shared and should not be modified
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+    * @param key the key of the call
+    * @param call computes the result, in the calling thread, unless a call for the key is in flight
+    * @return the result of the call in flight for the key, or of the given call
+    * @throws Exception the failure of the call
+    */
+    V execute(K key, Callable<V> call) throws Exception {
+        while(true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = calls.putIfAbsent(key, flight);
+            if(inFlight == null) {
+                // the key is forgotten before the call completes, so that no caller woken by it joins it again
+                try {
+                    V result = call.call();
+                    calls.remove(key, flight);
+                    flight.complete(result);
+                    return result;
+                } catch(Exception | Error e) {
+                    calls.remove(key, flight);
+                    flight.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            coalesced.incrementAndGet();
+            try {
+                return inFlight.get();
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(isAbandoned(cause)) {
+                    // the caller which made the call gave up on it, which says nothing of the
+                    // service, so the next call for the key is made by one of those who waited
+                    continue;
+                }
+                if(cause instanceof Exception) {
+                    throw (Exception)cause;
+                }
+                throw (Error)cause;
+            }
+        }
+    }
+
+    /**
+    * @return whether a call failed because the thread making it was interrupted or its request
+    *         was cancelled, rather than because of the service
+    */
+    private static boolean isAbandoned(Throwable failure) {
+        for(Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if(cause instanceof InterruptedException || cause instanceof CancellationException
+                    || cause instanceof InterruptedIOException && !(cause instanceof SocketTimeoutException)) {
+                return true;
+            }
+            if(cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+    * @return the number of times callers joined a call in flight instead of making their own
+    */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+}
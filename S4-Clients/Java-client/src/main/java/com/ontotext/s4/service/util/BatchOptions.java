@@ -0,0 +1,87 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+/**
+ * Describes how a batch of requests is sent to the service: how many requests may be in
+ * flight at the same time, whether the results are returned in the order of the requests,
+ * and how many completed results may wait for the caller before no more requests are read.
+ */
+public class BatchOptions {
+
+    /**
+    * Default number of requests in flight.
+    */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    private boolean ordered = true;
+
+    private int bufferSize;
+
+    public BatchOptions() {
+
+    }
+
+    /**
+    * @param concurrency the maximum number of requests in flight
+    * @param ordered whether the results are returned in the order of the requests
+    */
+    public BatchOptions(int concurrency, boolean ordered) {
+        setConcurrency(concurrency);
+        this.ordered = ordered;
+    }
+
+    /**
+    * @return the maximum number of requests in flight
+    */
+    public int getConcurrency() {
+        return concurrency;
+    }
+    public void setConcurrency(int concurrency) {
+        if(concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+    * @return whether the results are returned in the order of the requests, rather than as they complete
+    */
+    public boolean isOrdered() {
+        return ordered;
+    }
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+    * @return the maximum number of completed results which may wait to be taken by the caller
+    * while further requests are sent, 0 for as many as the concurrency. With ordered results a
+    * slow request holds back the ones after it, and the buffer is what keeps the others busy
+    */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    public void setBufferSize(int bufferSize) {
+        if(bufferSize < 0) {
+            throw new IllegalArgumentException("The buffer size must not be negative");
+        }
+        this.bufferSize = bufferSize;
+    }
+}
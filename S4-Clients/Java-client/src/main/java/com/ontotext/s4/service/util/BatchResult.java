@@ -0,0 +1,87 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+/**
+ * The outcome of one request of a batch: either the processed response or the error which
+ * the request ended with. A failed request does not stop the rest of the batch.
+ *
+ * @param <T> the type of the processed response
+ */
+public class BatchResult<T> {
+
+    private final long index;
+
+    private final ServiceRequest request;
+
+    private final T result;
+
+    private final S4ServiceClientException failure;
+
+    public BatchResult(long index, ServiceRequest request, T result, S4ServiceClientException failure) {
+        this.index = index;
+        this.request = request;
+        this.result = result;
+        this.failure = failure;
+    }
+
+    /**
+    * @return the position of the request in the batch, starting from 0
+    */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+    * @return the request this is the outcome of
+    */
+    public ServiceRequest getRequest() {
+        return request;
+    }
+
+    /**
+    * @return whether the request succeeded
+    */
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+    * @return the processed response, <code>null</code> if the request failed
+    */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+    * @return the error the request failed with, <code>null</code> if it succeeded
+    */
+    public S4ServiceClientException getFailure() {
+        return failure;
+    }
+
+    /**
+    * @return the processed response
+    * @throws S4ServiceClientException the error the request failed with
+    */
+    public T get() throws S4ServiceClientException {
+        if(failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.ontotext.s4.client.HttpClient;
+
+/**
+ * The results of a batch of requests, sent on the executor of an {@link HttpClient} as the
+ * results are taken.
+ * <p>
+ * At most {@link BatchOptions#getConcurrency()} requests are in flight, and no request is read
+ * from the source while the requests in flight and the results waiting to be taken reach the
+ * concurrency plus the {@link BatchOptions#getBufferSize() buffer size}, so a caller consuming
+ * slowly holds back the source instead of letting the results pile up. The source is only read
+ * by the thread taking the results. Each result carries the error of its own request, if any.
+ * <p>
+ * Closing the batch cancels the requests in flight; a batch abandoned before its end should be
+ * closed. Results must be taken by a single thread.
+ *
+ * @param <T> the type of the processed responses
+ */
+public class BatchResults<T> implements Iterator<BatchResult<T>>, Closeable {
+
+    /**
+    * Sends one request of a batch and processes its response.
+    *
+    * @param <T> the type of the processed response
+    */
+    public interface Processor<T> {
+        T process(ServiceRequest request) throws S4ServiceClientException;
+    }
+
+    private final Iterator<? extends ServiceRequest> requests;
+
+    private final HttpClient client;
+
+    private final Processor<T> processor;
+
+    private final int concurrency;
+
+    private final int window;
+
+    private final boolean ordered;
+
+    private final Object lock = new Object();
+
+    /**
+    * The requests sent and not yet taken, in the order they were sent.
+    */
+    private final ArrayDeque<Item> outstanding = new ArrayDeque<>();
+
+    /**
+    * The requests completed and not yet taken, in the order they completed. Used only for unordered results.
+    */
+    private final ArrayDeque<Item> completed = new ArrayDeque<>();
+
+    private int running;
+
+    private long completions;
+
+    private long sent;
+
+    private boolean closed;
+
+    /**
+    * @param requests the requests to send
+    * @param options the concurrency and ordering of the batch
+    * @param client the client whose executor sends the requests
+    * @param processor sends a request and processes its response
+    */
+    public BatchResults(Iterator<? extends ServiceRequest> requests, BatchOptions options,
+            HttpClient client, Processor<T> processor) {
+        this.requests = requests;
+        this.client = client;
+        this.processor = processor;
+        this.concurrency = options.getConcurrency();
+        this.window = concurrency + (options.getBufferSize() > 0 ? options.getBufferSize() : concurrency);
+        this.ordered = options.isOrdered();
+    }
+
+    public boolean hasNext() {
+        fill();
+        synchronized(lock) {
+            return !closed && !outstanding.isEmpty();
+        }
+    }
+
+    /**
+    * Wait for the next result.
+    *
+    * @return the next result, which may be a failure
+    * @throws S4ServiceClientException if interrupted while waiting; the batch is closed
+    */
+    public BatchResult<T> next() throws S4ServiceClientException {
+        while(true) {
+            long seen;
+            synchronized(lock) {
+                seen = completions;
+            }
+            fill();
+            synchronized(lock) {
+                if(closed || outstanding.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Item ready = null;
+                if(ordered) {
+                    if(outstanding.peekFirst().result != null) {
+                        ready = outstanding.removeFirst();
+                    }
+                } else if(!completed.isEmpty()) {
+                    ready = completed.removeFirst();
+                    outstanding.remove(ready);
+                }
+                if(ready != null) {
+                    return ready.result;
+                }
+                try {
+                    // a completion frees a slot, so go back to sending before waiting again
+                    while(completions == seen) {
+                        lock.wait();
+                    }
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new S4ServiceClientException("Interrupted while waiting for the batch", e);
+                }
+            }
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+    * Cancel the requests in flight and stop reading the source.
+    */
+    public void close() {
+        List<Item> items;
+        synchronized(lock) {
+            closed = true;
+            items = new ArrayList<>(outstanding);
+            outstanding.clear();
+            completed.clear();
+        }
+        for(Item item : items) {
+            Future<?> future = item.future;
+            if(future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+    * Send requests from the source while the concurrency and the window allow.
+    */
+    private void fill() {
+        while(true) {
+            synchronized(lock) {
+                if(closed || running >= concurrency || outstanding.size() >= window) {
+                    return;
+                }
+            }
+            if(!requests.hasNext()) {
+                return;
+            }
+            final Item item = new Item(sent++, requests.next());
+            synchronized(lock) {
+                outstanding.addLast(item);
+                running++;
+            }
+            item.future = client.submit(new Callable<Void>() {
+                public Void call() {
+                    complete(item);
+                    return null;
+                }
+            });
+        }
+    }
+
+    private void complete(Item item) {
+        BatchResult<T> result = null;
+        try {
+            result = new BatchResult<>(item.index, item.request, processor.process(item.request), null);
+        } catch(S4ServiceClientException e) {
+            result = new BatchResult<>(item.index, item.request, null, e);
+        } catch(RuntimeException e) {
+            result = new BatchResult<>(item.index, item.request, null, new S4ServiceClientException(e.getMessage(), e));
+        } finally {
+            if(result == null) {
+                // an error escaped the processor, which must not leave the caller waiting
+                result = new BatchResult<>(item.index, item.request, null,
+                        new S4ServiceClientException("The request did not complete", null));
+            }
+            synchronized(lock) {
+                item.result = result;
+                running--;
+                completions++;
+                if(!ordered && !closed) {
+                    completed.addLast(item);
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private class Item {
+
+        final long index;
+
+        final ServiceRequest request;
+
+        volatile Future<?> future;
+
+        /**
+        * Guarded by the lock.
+        */
+        BatchResult<T> result;
+
+        Item(long index, ServiceRequest request) {
+            this.index = index;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+/**
+ * Describes how a large plain-text document is split into chunks which are annotated at the
+ * same time. Chunks end at a paragraph break where possible, otherwise at the end of a
+ * sentence or a word, and each chunk repeats the end of the previous one so that entities
+ * near a seam are seen whole by at least one of them.
+ */
+public class ChunkingOptions {
+
+    /**
+    * Default size of a chunk in characters.
+    */
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 20000;
+
+    /**
+    * Default number of characters which a chunk shares with the previous one.
+    */
+    public static final int DEFAULT_OVERLAP = 300;
+
+    /**
+    * Default number of chunks annotated at the same time.
+    */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+
+    private int overlap = DEFAULT_OVERLAP;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+    * @return the largest number of characters in a chunk. Documents no longer than that are sent whole
+    */
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+    public void setMaxChunkSize(int maxChunkSize) {
+        if(maxChunkSize < 2) {
+            throw new IllegalArgumentException("The chunk size must be at least 2");
+        }
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+    * @return the number of characters a chunk shares with the previous one, at most half the chunk size
+    */
+    public int getOverlap() {
+        return overlap;
+    }
+    public void setOverlap(int overlap) {
+        if(overlap < 0) {
+            throw new IllegalArgumentException("The overlap must not be negative");
+        }
+        this.overlap = overlap;
+    }
+
+    /**
+    * @return the maximum number of chunks of a document annotated at the same time
+    */
+    public int getConcurrency() {
+        return concurrency;
+    }
+    public void setConcurrency(int concurrency) {
+        if(concurrency < 1) {
+            throw new IllegalArgumentException("The concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+}
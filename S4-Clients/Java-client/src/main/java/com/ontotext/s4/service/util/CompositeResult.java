@@ -0,0 +1,114 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+import com.ontotext.s4.model.classification.ClassificationCategory;
+import com.ontotext.s4.model.classification.ClassifiedDocument;
+
+/**
+ * The merged responses of several services to the same document: the annotated document
+ * returned by each annotation service and the categories returned by the classifier.
+ */
+public class CompositeResult {
+
+    private final ServiceRequest request;
+
+    private final Map<String, AnnotatedDocument> annotations;
+
+    private final ClassifiedDocument classification;
+
+    public CompositeResult(ServiceRequest request, Map<String, AnnotatedDocument> annotations,
+                           ClassifiedDocument classification) {
+        this.request = request;
+        this.annotations = Collections.unmodifiableMap(annotations);
+        this.classification = classification;
+    }
+
+    /**
+    * @return the request sent to the services
+    */
+    public ServiceRequest getRequest() {
+        return request;
+    }
+
+    /**
+    * @return the annotated documents by the name of the service which returned them, in the
+    * order the services were given
+    */
+    public Map<String, AnnotatedDocument> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+    * @param service the name of an annotation service
+    * @return the document annotated by the service, <code>null</code> if it was not called
+    */
+    public AnnotatedDocument getAnnotatedDocument(String service) {
+        return annotations.get(service);
+    }
+
+    /**
+    * @param service the name of an annotation service
+    * @return the entities found by the service by type, <code>null</code> if it was not called
+    */
+    public Map<String, List<Annotation>> getEntities(String service) {
+        AnnotatedDocument document = annotations.get(service);
+        return document == null ? null : document.getEntities();
+    }
+
+    /**
+    * @return the text of the document, as returned by the first annotation service
+    */
+    public String getText() {
+        for(AnnotatedDocument document : annotations.values()) {
+            if(document != null) {
+                return document.getText();
+            }
+        }
+        return null;
+    }
+
+    /**
+    * @return the classification of the document, <code>null</code> if it was not classified
+    */
+    public ClassifiedDocument getClassification() {
+        return classification;
+    }
+
+    /**
+    * @return the most probable category of the document, <code>null</code> if it was not classified
+    */
+    public String getCategory() {
+        return classification == null ? null : classification.getCategory();
+    }
+
+    /**
+    * @return the most probable categories of the document with their scores, empty if it was not classified
+    */
+    public List<ClassificationCategory> getScores() {
+        if(classification == null || classification.getAllScores() == null) {
+            return Collections.emptyList();
+        }
+        return classification.getAllScores();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * A {@link ServiceRequest} whose document is read from a local file while the request is
+ * being sent. The file is decoded and JSON-escaped chunk by chunk, so memory use does not
+ * depend on the size of the file. The file is read again whenever the request is re-sent.
+ */
+@JsonSerialize(using = FileServiceRequest.Serializer.class)
+public class FileServiceRequest extends ServiceRequest {
+
+    /**
+    * The file containing the document to process.
+    */
+    private final File documentFile;
+
+    /**
+    * The encoding of the document file.
+    */
+    private final Charset documentEncoding;
+
+    /**
+    * Construct a request for the online service to annotate or classify the contents of a file.
+    *
+    * @param documentFile the file containing the document
+    * @param documentEncoding the encoding of the file
+    * @param type the MIME type that the service should use to parse the document.
+    */
+    public FileServiceRequest(File documentFile, Charset documentEncoding, SupportedMimeType type) {
+        this.documentFile = documentFile;
+        this.documentEncoding = documentEncoding;
+        setDocumentType(type.value);
+    }
+
+    public File getDocumentFile() {
+        return documentFile;
+    }
+
+    public Charset getDocumentEncoding() {
+        return documentEncoding;
+    }
+
+    /**
+    * Writes the request, streaming the contents of the file into the <code>document</code> property.
+    */
+    public static class Serializer extends JsonSerializer<FileServiceRequest> {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        @Override
+        public void serialize(FileServiceRequest rq, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+
+            gen.writeStartObject();
+            gen.writeFieldName("document");
+            writeDocument(rq, gen);
+            gen.writeStringField("documentType", rq.getDocumentType());
+            gen.writeBooleanField("imageTagging", rq.getImageTagging());
+            gen.writeBooleanField("imageCategorization", rq.getImageCategorization());
+            gen.writeEndObject();
+        }
+
+        private void writeDocument(FileServiceRequest rq, JsonGenerator gen) throws IOException {
+            JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+            char[] buffer = new char[CHUNK_SIZE];
+            int pending = 0;
+
+            // the opening quote goes through writeRawValue so that the generator emits the separator
+            gen.writeRawValue("\"");
+            try (Reader reader = new InputStreamReader(
+                    Files.newInputStream(rq.documentFile.toPath()), rq.documentEncoding)) {
+                int read;
+                while((read = reader.read(buffer, pending, CHUNK_SIZE - pending)) != -1) {
+                    int length = pending + read;
+                    // keep a trailing high surrogate for the next chunk, raw output can not split a pair
+                    pending = length > 0 && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+                    char[] escaped = encoder.quoteAsString(new String(buffer, 0, length - pending));
+                    gen.writeRaw(escaped, 0, escaped.length);
+                    if(pending > 0) {
+                        buffer[0] = buffer[length - 1];
+                    }
+                }
+                if(pending > 0) {
+                    char[] escaped = encoder.quoteAsString(new String(buffer, 0, pending));
+                    gen.writeRaw(escaped, 0, escaped.length);
+                }
+            }
+            gen.writeRaw('"');
+        }
+    }
+}
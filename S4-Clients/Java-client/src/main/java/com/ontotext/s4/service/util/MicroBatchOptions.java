@@ -0,0 +1,103 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+/**
+ * Describes how small plain-text documents, e.g. tweets, are packed into combined requests.
+ * A batch is sent when it reaches its length or number of documents, or when its first
+ * document has waited for the given delay.
+ */
+public class MicroBatchOptions {
+
+    /**
+    * Default separator between the documents of a batch, a paragraph break which the
+    * sentence splitters of the pipelines do not join across.
+    */
+    public static final String DEFAULT_SEPARATOR = "\n\n";
+
+    private int maxDocumentLength = 1000;
+
+    private int maxBatchLength = 10000;
+
+    private int maxBatchDocuments = 100;
+
+    private long maxDelay = 10;
+
+    private String separator = DEFAULT_SEPARATOR;
+
+    /**
+    * @return the largest document which is batched, longer ones are sent alone
+    */
+    public int getMaxDocumentLength() {
+        return maxDocumentLength;
+    }
+    public void setMaxDocumentLength(int maxDocumentLength) {
+        this.maxDocumentLength = maxDocumentLength;
+    }
+
+    /**
+    * @return the largest number of characters in a batch, separators included
+    */
+    public int getMaxBatchLength() {
+        return maxBatchLength;
+    }
+    public void setMaxBatchLength(int maxBatchLength) {
+        if(maxBatchLength < 1) {
+            throw new IllegalArgumentException("The batch length must be positive");
+        }
+        this.maxBatchLength = maxBatchLength;
+    }
+
+    /**
+    * @return the largest number of documents in a batch
+    */
+    public int getMaxBatchDocuments() {
+        return maxBatchDocuments;
+    }
+    public void setMaxBatchDocuments(int maxBatchDocuments) {
+        if(maxBatchDocuments < 1) {
+            throw new IllegalArgumentException("The number of documents in a batch must be positive");
+        }
+        this.maxBatchDocuments = maxBatchDocuments;
+    }
+
+    /**
+    * @return the time in milliseconds for which the first document of a batch waits for others
+    */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+    public void setMaxDelay(long maxDelay) {
+        if(maxDelay < 0) {
+            throw new IllegalArgumentException("The delay must not be negative");
+        }
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+    * @return the text put between the documents of a batch
+    */
+    public String getSeparator() {
+        return separator;
+    }
+    public void setSeparator(String separator) {
+        if(separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("The separator must not be empty");
+        }
+        this.separator = separator;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * A {@link ServiceRequest} which is serialized to JSON once, when it is created, and sent as
+ * it is to any number of services afterwards, e.g. by an
+ * {@link com.ontotext.s4.service.S4CompositeClient}. The JSON is kept next to the document,
+ * so the request takes about twice the memory of a plain one. A prepared request can not be
+ * changed.
+ */
+@JsonSerialize(using = PreparedServiceRequest.Serializer.class)
+public class PreparedServiceRequest extends ServiceRequest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+    * The serialized request.
+    */
+    private final String json;
+
+    /**
+    * Prepare a request for sending.
+    *
+    * @param rq the request to serialize, which must not read its document from a file
+    * @throws IllegalArgumentException if the request reads its document from a file
+    */
+    public PreparedServiceRequest(ServiceRequest rq) {
+        if(rq instanceof FileServiceRequest) {
+            throw new IllegalArgumentException("A request reading its document from a file can not be prepared");
+        }
+        super.setDocument(rq.getDocument());
+        super.setDocumentUrl(rq.getDocumentUrl());
+        super.setDocumentType(rq.getDocumentType());
+        super.setImageTagging(rq.getImageTagging());
+        super.setImageCategorization(rq.getImageCategorization());
+        try {
+            this.json = rq instanceof PreparedServiceRequest
+                    ? ((PreparedServiceRequest)rq).json : MAPPER.writeValueAsString(rq);
+        } catch(JsonProcessingException e) {
+            throw new IllegalArgumentException("The request can not be serialized", e);
+        }
+    }
+
+    /**
+    * @return the request as JSON
+    */
+    public String getJson() {
+        return json;
+    }
+
+    @Override
+    public void setDocument(String document) {
+        throw new UnsupportedOperationException("A prepared request can not be changed");
+    }
+
+    @Override
+    public void setDocumentUrl(String documentUrl) {
+        throw new UnsupportedOperationException("A prepared request can not be changed");
+    }
+
+    @Override
+    public void setDocumentType(String documentType) {
+        throw new UnsupportedOperationException("A prepared request can not be changed");
+    }
+
+    @Override
+    public void setImageTagging(boolean imageTagging) {
+        throw new UnsupportedOperationException("A prepared request can not be changed");
+    }
+
+    @Override
+    public void setImageCategorization(boolean imageCategorization) {
+        throw new UnsupportedOperationException("A prepared request can not be changed");
+    }
+
+    /**
+    * Writes the JSON the request was serialized to.
+    */
+    public static class Serializer extends JsonSerializer<PreparedServiceRequest> {
+
+        @Override
+        public void serialize(PreparedServiceRequest rq, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeRawValue(rq.json);
+        }
+    }
+}
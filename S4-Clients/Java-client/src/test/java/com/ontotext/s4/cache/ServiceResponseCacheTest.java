@@ -0,0 +1,149 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ontotext.s4.client.ResponseStream;
+
+public class ServiceResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keysDependOnEveryPart() {
+        assertEquals(CacheKey.of("a", "b"), CacheKey.of("a", "b"));
+        assertTrue(!CacheKey.of("ab", "").equals(CacheKey.of("a", "b")));
+        assertTrue(!CacheKey.of("a", null).equals(CacheKey.of("a", "")));
+    }
+
+    @Test
+    public void frequentEntriesSurviveAScan() {
+        TinyLfuCache cache = new TinyLfuCache(100 * (TinyLfuCache.ENTRY_OVERHEAD + 100));
+        for(int round = 0; round < 5; round++) {
+            for(int i = 0; i < 50; i++) {
+                if(cache.get(key("hot", i)) == null) {
+                    cache.put(key("hot", i), new byte[100]);
+                }
+            }
+        }
+        // a long run of documents seen once
+        for(int i = 0; i < 1000; i++) {
+            cache.put(key("cold", i), new byte[100]);
+        }
+        int kept = 0;
+        for(int i = 0; i < 50; i++) {
+            if(cache.get(key("hot", i)) != null) {
+                kept++;
+            }
+        }
+        assertTrue("kept " + kept, kept >= 45);
+        assertTrue(cache.weight() <= 100 * (TinyLfuCache.ENTRY_OVERHEAD + 100));
+        assertTrue(cache.evictions() > 0);
+    }
+
+    @Test
+    public void diskTierSurvivesRestart() throws IOException {
+        File directory = folder.newFolder("cache");
+        ServiceResponseCache cache = new ServiceResponseCache(1 << 20, directory.toPath(), 1 << 20);
+        cache.put(key("doc", 1), "annotated".getBytes(StandardCharsets.UTF_8));
+        cache.close();
+
+        cache = new ServiceResponseCache(1 << 20, directory.toPath(), 1 << 20);
+        try {
+            assertArrayEquals("annotated".getBytes(StandardCharsets.UTF_8), cache.get(key("doc", 1)));
+            assertNull(cache.get(key("doc", 2)));
+            assertEquals(1, cache.getStats().getDiskHits());
+            assertEquals(1, cache.getStats().getMisses());
+            // the disk hit was copied to the heap
+            cache.get(key("doc", 1));
+            assertEquals(1, cache.getStats().getMemoryHits());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void diskTierOverwritesTheOldestValues() throws IOException {
+        DiskCache disk = new DiskCache(folder.newFolder("ring").toPath(), 1000, 64);
+        try {
+            for(int i = 0; i < 30; i++) {
+                disk.put(key("doc", i), new byte[100]);
+            }
+            assertNull(disk.get(key("doc", 0)));
+            assertNotNull(disk.get(key("doc", 29)));
+            assertTrue(disk.size() <= 10);
+        } finally {
+            disk.close();
+        }
+    }
+
+    @Test
+    public void tornValuesReadAsMisses() throws IOException {
+        File directory = folder.newFolder("torn");
+        DiskCache disk = new DiskCache(directory.toPath(), 1000, 64);
+        disk.put(key("doc", 1), "annotated".getBytes(StandardCharsets.UTF_8));
+        disk.close();
+        RandomAccessFile data = new RandomAccessFile(new File(directory, "data"), "rw");
+        try {
+            data.write('X');
+        } finally {
+            data.close();
+        }
+        disk = new DiskCache(directory.toPath(), 1000, 64);
+        try {
+            assertNull(disk.get(key("doc", 1)));
+        } finally {
+            disk.close();
+        }
+    }
+
+    @Test
+    public void streamsAreCachedOnceReadToTheEnd() throws IOException {
+        ServiceResponseCache cache = new ServiceResponseCache(1 << 20);
+        ResponseStream response = cache.cacheStream(key("doc", 1), cache.getStream(seed(cache)));
+        assertNull(cache.get(key("doc", 1)));
+        assertEquals("annotated", IOUtils.toString(response, "UTF-8"));
+        response.close();
+        assertEquals("annotated", IOUtils.toString(cache.getStream(key("doc", 1)), "UTF-8"));
+    }
+
+    private static CacheKey seed(ServiceResponseCache cache) {
+        CacheKey seed = key("seed", 0);
+        cache.put(seed, "annotated".getBytes(StandardCharsets.UTF_8));
+        return seed;
+    }
+
+    private static CacheKey key(String prefix, int i) {
+        return CacheKey.of("http://localhost/", prefix + i);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpClientAsyncTest {
+
+    /**
+    * More requests than the pool executor has threads, and than the default connection limit.
+    */
+    private static final int REQUESTS = 50;
+
+    private static final long TIMEOUT = 10000;
+
+    private HttpServer server;
+
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    private final CountDownLatch arrivals = new CountDownLatch(REQUESTS);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+    * Counts the tasks run by the executor of the pool, which the asynchronous path must not use.
+    */
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    private ConnectionPool pool;
+
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/held", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                arrivals.countDown();
+                try {
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, null, "{\"value\":1}");
+            }
+        });
+        server.createContext("/value", handler(200, null, "{\"value\":1}"));
+        server.createContext("/redirect", handler(303, "/value", ""));
+        server.createContext("/unavailable", handler(503, null, ""));
+        server.start();
+
+        pool = new ConnectionPool(REQUESTS, ConnectionPool.DEFAULT_TLS_SESSION_TIMEOUT);
+        pool.setTransport(new Http2Transport());
+        pool.setExecutor(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                tasks.incrementAndGet();
+            }
+        });
+        client = new HttpClient(new URL("http://localhost:" + server.getAddress().getPort() + "/"), "key", "secret",
+                pool);
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(1);
+        client.setRetryPolicy(policy);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+        pool.getExecutor().shutdownNow();
+        pool.getTransport().close();
+    }
+
+    @Test
+    public void requestsInFlightHoldNoThreads() throws Exception {
+        List<CompletableFuture<Map<String, Integer>>> responses = new ArrayList<>();
+        for(int i = 0; i < REQUESTS; i++) {
+            responses.add(client.requestAsync("held", "POST", new TypeReference<Map<String, Integer>>() {},
+                    Collections.singletonMap("text", "document " + i), Collections.<String, String>emptyMap(), null));
+        }
+        // all of them wait for the server at once, with no thread of the client waiting for them
+        assertTrue(arrivals.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        release.countDown();
+        for(CompletableFuture<Map<String, Integer>> response : responses) {
+            assertEquals(1, response.get(TIMEOUT, TimeUnit.MILLISECONDS).get("value").intValue());
+        }
+        assertEquals(0, tasks.get());
+        assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void redirectIsFollowedWithinTheAttempt() throws Exception {
+        Map<String, Integer> value = client.requestAsync("redirect", "POST", new TypeReference<Map<String, Integer>>() {},
+                Collections.singletonMap("text", "x"), Collections.<String, String>emptyMap(), null)
+                .get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(1, value.get("value").intValue());
+        assertEquals(1, hits.get("/redirect").get());
+        assertEquals(1, hits.get("/value").get());
+        assertEquals(0, tasks.get());
+    }
+
+    @Test
+    public void unavailableServiceIsRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        AttemptHook hook = new AttemptHook() {
+            public void beforeAttempt(int attempt) {
+                attempts.incrementAndGet();
+            }
+        };
+        try {
+            client.requestAsync("unavailable", "GET", new TypeReference<Map<String, Integer>>() {}, null,
+                    Collections.<String, String>emptyMap(), hook).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The service was available");
+        } catch(ExecutionException e) {
+            assertEquals(503, ((HttpClientException)e.getCause()).getStatusCode());
+        }
+        int maxAttempts = client.getRetryPolicy().getMaxAttempts();
+        assertEquals(maxAttempts, hits.get("/unavailable").get());
+        assertEquals(maxAttempts, attempts.get());
+        assertEquals(0, tasks.get());
+    }
+
+    @Test
+    public void attemptWaitsForTheHook() throws Exception {
+        final CompletableFuture<Void> allowed = new CompletableFuture<>();
+        AttemptHook hook = new AttemptHook() {
+            public void beforeAttempt(int attempt) {
+                fail("The attempt waited for the hook on a thread");
+            }
+
+            public CompletableFuture<Void> beforeAttemptAsync(int attempt) {
+                return allowed;
+            }
+        };
+        CompletableFuture<Map<String, Integer>> response = client.requestAsync("value", "GET",
+                new TypeReference<Map<String, Integer>>() {}, null, Collections.<String, String>emptyMap(), hook);
+        Thread.sleep(100);
+        assertTrue(!response.isDone() && !hits.containsKey("/value"));
+        allowed.complete(null);
+        assertEquals(1, response.get(TIMEOUT, TimeUnit.MILLISECONDS).get("value").intValue());
+    }
+
+    @Test
+    public void cancellingAbortsTheExchange() throws Exception {
+        CompletableFuture<Map<String, Integer>> response = client.requestAsync("held", "GET",
+                new TypeReference<Map<String, Integer>>() {}, null, Collections.<String, String>emptyMap(), null);
+        for(long waited = 0; arrivals.getCount() == REQUESTS && waited < TIMEOUT; waited += 10) {
+            Thread.sleep(10);
+        }
+        assertEquals(REQUESTS - 1, arrivals.getCount());
+        assertTrue(response.cancel(true));
+        // the aborted exchange hands its connection back without waiting for the server
+        for(long waited = 0; pool.getLeasedConnections() > 0 && waited < TIMEOUT; waited += 10) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getLeasedConnections());
+        assertTrue(release.getCount() > 0);
+    }
+
+    private HttpHandler handler(final int status, final String location, final String body) {
+        return new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                hits.putIfAbsent(path, new AtomicInteger());
+                hits.get(path).incrementAndGet();
+                respond(exchange, status, location, body);
+            }
+        };
+    }
+
+    private static void respond(HttpExchange exchange, int status, String location, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getRequestBody().close();
+        if(location != null) {
+            exchange.getResponseHeaders().add("Location", location);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        // the server may drop a kept-alive connection after an empty response, every exchange gets a new one
+        exchange.getResponseHeaders().add("Connection", "close");
+        exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+}
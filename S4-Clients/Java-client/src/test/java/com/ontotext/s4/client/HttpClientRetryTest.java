@@ -0,0 +1,142 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpClientRetryTest {
+
+    private HttpServer server;
+
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/value", handler(200, null, "{\"value\":1}"));
+        server.createContext("/invalid", handler(200, null, "{\"value\":"));
+        server.createContext("/redirect", handler(303, "/value", ""));
+        server.createContext("/loop", handler(303, "/loop", ""));
+        server.createContext("/unavailable", handler(503, null, ""));
+        server.start();
+
+        client = new HttpClient(new URL("http://localhost:" + server.getAddress().getPort() + "/"), "key", "secret",
+                new ConnectionPool());
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(1);
+        client.setRetryPolicy(policy);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void redirectIsFollowedWithinTheAttempt() {
+        Map<String, Integer> value = client.request("redirect", "POST", new TypeReference<Map<String, Integer>>() {},
+                Collections.singletonMap("text", "x"), Collections.<String, String>emptyMap());
+        assertEquals(1, value.get("value").intValue());
+        assertEquals(1, hits.get("/redirect").get());
+        assertEquals(1, hits.get("/value").get());
+    }
+
+    @Test
+    public void redirectLoopFailsWithoutRetries() {
+        try {
+            client.request("loop", "GET", new TypeReference<Map<String, Integer>>() {}, null,
+                    Collections.<String, String>emptyMap());
+            fail("The redirect loop was not detected");
+        } catch(HttpClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Too many redirects"));
+        }
+        // the first request and five redirects, in a single attempt
+        assertEquals(6, hits.get("/loop").get());
+    }
+
+    @Test
+    public void unparseableResponseIsNotRetried() {
+        try {
+            client.request("invalid", "GET", new TypeReference<Map<String, Integer>>() {}, null,
+                    Collections.<String, String>emptyMap());
+            fail("The invalid body was parsed");
+        } catch(HttpClientException e) {
+            assertEquals(200, e.getStatusCode());
+        }
+        assertEquals(1, hits.get("/invalid").get());
+    }
+
+    @Test
+    public void unavailableServiceIsRetried() {
+        try {
+            client.request("unavailable", "GET", new TypeReference<Map<String, Integer>>() {}, null,
+                    Collections.<String, String>emptyMap());
+            fail("The service was available");
+        } catch(HttpClientException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(client.getRetryPolicy().getMaxAttempts(), hits.get("/unavailable").get());
+    }
+
+    private HttpHandler handler(final int status, final String location, final String body) {
+        return new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                hits.putIfAbsent(path, new AtomicInteger());
+                hits.get(path).incrementAndGet();
+                byte[] content = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getRequestBody().close();
+                if(location != null) {
+                    exchange.getResponseHeaders().add("Location", location);
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                // the server may drop a kept-alive connection after an empty response, which would
+                // fail the next hop on it and make the client retry; every exchange gets a new one
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class HttpRequestFutureTest {
+
+    @Test
+    public void dependentStagesRunOnCompletion() throws Exception {
+        HttpRequestFuture<String> future = new HttpRequestFuture<>(new Callable<String>() {
+            public String call() {
+                return "annotated";
+            }
+        });
+        CompletableFuture<Integer> length = future.thenApply(new Function<String, Integer>() {
+            public Integer apply(String value) {
+                return value.length();
+            }
+        });
+        new Thread(future).start();
+        assertEquals(9, length.get(5, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void failureIsTheCauseOfTheExecutionException() throws Exception {
+        final IOException failure = new IOException("Service unavailable");
+        HttpRequestFuture<String> future = new HttpRequestFuture<>(new Callable<String>() {
+            public String call() throws IOException {
+                throw failure;
+            }
+        });
+        future.run();
+        try {
+            future.get();
+            fail("The failure was not reported");
+        } catch(ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void cancellingInterruptsTheTask() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        HttpRequestFuture<String> future = new HttpRequestFuture<>(new Callable<String>() {
+            public String call() {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch(InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "too late";
+            }
+        });
+        Thread runner = new Thread(future);
+        runner.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        runner.join(5000);
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void cancelledTaskIsNotRun() {
+        final boolean[] ran = new boolean[1];
+        HttpRequestFuture<String> future = new HttpRequestFuture<>(new Callable<String>() {
+            public String call() {
+                ran[0] = true;
+                return "";
+            }
+        });
+        future.cancel(true);
+        future.run();
+        assertTrue(future.isCancelled());
+        assertFalse(ran[0]);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class LoadBalancerTest {
+
+    private static final HttpClientException UNAVAILABLE = new HttpClientException("Unavailable", null, 503, -1);
+
+    private LoadBalancer balancer;
+
+    private Endpoint first;
+
+    private Endpoint second;
+
+    @Before
+    public void setUp() throws MalformedURLException {
+        balancer = new LoadBalancer(
+                Arrays.asList(new URL("http://first.example.com/"), new URL("http://second.example.com/")),
+                Arrays.asList(new ConnectionPool(), new ConnectionPool()));
+        first = balancer.getEndpointStates().get(0);
+        second = balancer.getEndpointStates().get(1);
+    }
+
+    @Test
+    public void latencyRisesAtOnceAndFallsGradually() {
+        first.start();
+        first.finish(ago(100), null);
+        double peak = first.getLatency();
+        assertTrue(peak >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        first.start();
+        first.finish(ago(1), null);
+        assertTrue(first.getLatency() < peak);
+        assertTrue(first.getLatency() > TimeUnit.MILLISECONDS.toNanos(50));
+
+        first.start();
+        first.finish(ago(300), null);
+        assertTrue(first.getLatency() >= TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    @Test
+    public void fasterEndpointIsChosen() {
+        first.start();
+        first.finish(ago(100), null);
+        second.start();
+        second.finish(ago(1), null);
+        for(int i = 0; i < 100; i++) {
+            assertSame(second, balancer.select());
+        }
+    }
+
+    @Test
+    public void busierEndpointIsAvoided() {
+        for(int i = 0; i < 3; i++) {
+            first.start();
+        }
+        for(int i = 0; i < 100; i++) {
+            assertSame(second, balancer.select());
+        }
+    }
+
+    @Test
+    public void consecutiveFailuresEjectTheEndpoint() {
+        balancer.setFailureThreshold(2);
+        balancer.setEjectionTime(60000);
+
+        first.finish(first.start(), UNAVAILABLE);
+        assertEquals(1, first.getConsecutiveFailures());
+        first.finish(first.start(), null);
+        assertEquals(0, first.getConsecutiveFailures());
+
+        first.finish(first.start(), UNAVAILABLE);
+        first.finish(first.start(), new HttpClientException(new ConnectException("Connection refused")));
+        assertTrue(first.isEjected());
+        assertEquals(Arrays.asList(first.getUrl()), balancer.getEjectedEndpoints());
+        for(int i = 0; i < 100; i++) {
+            assertSame(second, balancer.select());
+        }
+    }
+
+    @Test
+    public void clientErrorsAreNotFailures() {
+        balancer.setFailureThreshold(1);
+        first.finish(first.start(), new HttpClientException("Bad request", null, 400, -1));
+        assertEquals(0, first.getConsecutiveFailures());
+        assertFalse(first.isEjected());
+    }
+
+    @Test
+    public void failedProbeDoublesTheEjection() throws InterruptedException {
+        balancer.setFailureThreshold(1);
+        balancer.setEjectionTime(50);
+
+        first.finish(first.start(), UNAVAILABLE);
+        long ejection = first.getEjectedUntil() - System.nanoTime();
+        assertFalse(first.isAvailable(System.nanoTime()));
+        Thread.sleep(60);
+
+        // a single probe is let through
+        assertTrue(first.isAvailable(System.nanoTime()));
+        long probe = first.start();
+        assertFalse(first.isAvailable(System.nanoTime()));
+        first.finish(probe, UNAVAILABLE);
+        assertTrue(first.getEjectedUntil() - System.nanoTime() > ejection);
+        assertTrue(first.getEjectedUntil() - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void successfulProbeClosesTheBreaker() throws InterruptedException {
+        balancer.setFailureThreshold(1);
+        balancer.setEjectionTime(50);
+
+        first.finish(first.start(), UNAVAILABLE);
+        Thread.sleep(60);
+        first.finish(first.start(), null);
+        assertFalse(first.isEjected());
+        assertTrue(first.isAvailable(System.nanoTime()));
+        assertTrue(balancer.getEjectedEndpoints().isEmpty());
+    }
+
+    @Test
+    public void endpointDueFirstIsUsedWhenAllAreEjected() {
+        balancer.setFailureThreshold(1);
+        balancer.setEjectionTime(60000);
+        second.finish(second.start(), UNAVAILABLE);
+        first.finish(first.start(), UNAVAILABLE);
+        assertSame(second, balancer.select());
+    }
+
+    @Test
+    public void redirectIsFollowedOnTheSameEndpoint() throws Exception {
+        List<String> hits = new CopyOnWriteArrayList<>();
+        HttpServer one = server("one", hits);
+        HttpServer two = server("two", hits);
+        try {
+            HttpClient client = new HttpClient(Arrays.asList(url(one), url(two)), "key", "secret");
+            client.setRetryPolicy(null);
+            for(int i = 0; i < 10; i++) {
+                hits.clear();
+                // the slow first hop makes the other endpoint look cheaper for the second one
+                Map<String, String> value = client.request("start", "POST", new TypeReference<Map<String, String>>() {},
+                        Collections.singletonMap("text", "x"), Collections.<String, String>emptyMap());
+                assertEquals(2, hits.size());
+                String server = hits.get(0).substring(0, hits.get(0).indexOf(' '));
+                assertEquals(server + " /start", hits.get(0));
+                assertEquals(server + " /next", hits.get(1));
+                assertEquals(server, value.get("server"));
+            }
+        } finally {
+            one.stop(0);
+            two.stop(0);
+        }
+    }
+
+    private static long ago(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+    * Starts a server which redirects /start to the relative location next after a while,
+    * and records the requests it gets as its name and the path.
+    */
+    private static HttpServer server(final String name, final List<String> hits) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                hits.add(name + " " + path);
+                exchange.getRequestBody().close();
+                exchange.getResponseHeaders().add("Connection", "close");
+                if(path.equals("/start")) {
+                    try {
+                        Thread.sleep(50);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.getResponseHeaders().add("Location", "next");
+                    exchange.sendResponseHeaders(303, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] content = ("{\"server\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, content.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static URL url(HttpServer server) throws MalformedURLException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+}
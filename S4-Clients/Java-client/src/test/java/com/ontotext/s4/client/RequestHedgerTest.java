@@ -0,0 +1,200 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.ontotext.s4.client.metrics.ClientMetrics;
+import com.ontotext.s4.client.metrics.EndpointMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RequestHedgerTest {
+
+    private HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+    * The number of the request which the server answers late.
+    */
+    private volatile int slowRequest;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if(requests.incrementAndGet() == slowRequest) {
+                    try {
+                        Thread.sleep(5000);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] content = "{\"value\":1}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void delayIsThePercentileOfRecentLatencies() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(3);
+        policy.setPercentile(50);
+        policy.setMinDelay(0);
+        RequestHedger hedger = new RequestHedger(policy);
+
+        hedger.call(sleeping(10));
+        hedger.call(sleeping(40));
+        assertEquals(-1, hedger.getHedgeDelay());
+        hedger.call(sleeping(80));
+        long delay = hedger.getHedgeDelay();
+        assertTrue(String.valueOf(delay), delay >= 40 && delay < 80);
+        assertEquals(0, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void delayIsNotShorterThanTheMinimum() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(1);
+        policy.setMinDelay(100);
+        RequestHedger hedger = new RequestHedger(policy);
+
+        hedger.call(sleeping(0));
+        assertEquals(100, hedger.getHedgeDelay());
+    }
+
+    @Test
+    public void fasterHedgeWins() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(1);
+        policy.setMinDelay(20);
+        RequestHedger hedger = new RequestHedger(policy);
+        hedger.call(sleeping(0));
+
+        final AtomicInteger attempts = new AtomicInteger();
+        String result = hedger.call(new Callable<String>() {
+            public String call() throws InterruptedException {
+                if(attempts.incrementAndGet() == 1) {
+                    Thread.sleep(5000);
+                    return "primary";
+                }
+                return "hedge";
+            }
+        });
+        assertEquals("hedge", result);
+        assertEquals(1, hedger.getHedgeCount());
+        assertEquals(1, hedger.getHedgesWon());
+    }
+
+    @Test
+    public void hedgesAreLimitedByTheBudget() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(1);
+        policy.setMinDelay(20);
+        policy.setBudgetReserve(1);
+        policy.setBudgetRatio(0);
+        RequestHedger hedger = new RequestHedger(policy);
+        hedger.call(sleeping(0));
+
+        hedger.call(sleeping(100));
+        assertEquals(1, hedger.getHedgeCount());
+        // the budget is spent, the slow request is waited for
+        hedger.call(sleeping(100));
+        assertEquals(1, hedger.getHedgeCount());
+    }
+
+    @Test
+    public void cancelledHedgeIsNotAnEndpointFailure() throws Exception {
+        final HttpClient client = new HttpClient(
+                new URL("http://localhost:" + server.getAddress().getPort() + "/"), "key", "secret", new ConnectionPool());
+        client.getLoadBalancer().setFailureThreshold(1);
+        ClientMetrics metrics = new ClientMetrics();
+        client.setMetricsListener(metrics);
+
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(1);
+        policy.setMinDelay(50);
+        RequestHedger hedger = new RequestHedger(policy);
+        Callable<Map<String, Integer>> task = new Callable<Map<String, Integer>>() {
+            public Map<String, Integer> call() {
+                return client.get("", new TypeReference<Map<String, Integer>>() {},
+                        Collections.<String, String>emptyMap());
+            }
+        };
+
+        // the first call is not hedged, it only measures the latency
+        hedger.call(task);
+        slowRequest = requests.get() + 1;
+        assertEquals(1, hedger.call(task).get("value").intValue());
+        assertEquals(1, hedger.getHedgesWon());
+
+        Endpoint endpoint = client.getLoadBalancer().getPrimary();
+        for(int i = 0; i < 100 && endpoint.getOutstanding() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, endpoint.getOutstanding());
+        assertEquals(0, endpoint.getConsecutiveFailures());
+        assertFalse(endpoint.isEjected());
+
+        EndpointMetrics endpointMetrics = metrics.getEndpoints().values().iterator().next();
+        assertEquals(3, endpointMetrics.getExchangeCount());
+        assertEquals(0, endpointMetrics.getFailureCount());
+        assertEquals(1, endpointMetrics.getAbandonedCount());
+    }
+
+    private static Callable<String> sleeping(final long millis) {
+        return new Callable<String>() {
+            public String call() throws InterruptedException {
+                Thread.sleep(millis);
+                return "done";
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void retryableStatusIsRetriedUpToTheMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(3);
+        HttpClientException unavailable = new HttpClientException("Unavailable", null, 503, -1);
+        assertTrue(policy.retryDelay(unavailable, 1) >= 0);
+        assertTrue(policy.retryDelay(unavailable, 2) >= 0);
+        assertEquals(-1, policy.retryDelay(unavailable, 3));
+    }
+
+    @Test
+    public void clientErrorsAndUnparseableResponsesAreFinal() {
+        RetryPolicy policy = new RetryPolicy();
+        assertEquals(-1, policy.retryDelay(new HttpClientException("Bad request", null, 400, -1), 1));
+        assertEquals(-1, policy.retryDelay(
+                new HttpClientException("Invalid response body", new IOException("Unexpected token"), 200), 1));
+    }
+
+    @Test
+    public void connectionErrorsAreRetriedUnlessInterrupted() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.retryDelay(new HttpClientException(new ConnectException("Connection refused")), 1) >= 0);
+        assertTrue(policy.retryDelay(new HttpClientException(new SocketTimeoutException("Read timed out")), 1) >= 0);
+        assertEquals(-1, policy.retryDelay(new HttpClientException(new InterruptedIOException("Request cancelled")), 1));
+
+        policy.setRetryConnectionErrors(false);
+        assertEquals(-1, policy.retryDelay(new HttpClientException(new ConnectException("Connection refused")), 1));
+    }
+
+    @Test
+    public void backoffIsBoundedByTheDoublingCeiling() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(10);
+        policy.setInitialBackoff(100);
+        policy.setMaxBackoff(500);
+        HttpClientException unavailable = new HttpClientException("Unavailable", null, 503, -1);
+        for(int i = 0; i < 100; i++) {
+            assertTrue(policy.retryDelay(unavailable, 1) <= 100);
+            assertTrue(policy.retryDelay(unavailable, 2) <= 200);
+            assertTrue(policy.retryDelay(unavailable, 5) <= 500);
+        }
+    }
+
+    @Test
+    public void retryAfterIsTheMinimumDelayUnlessTooLong() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(10);
+        policy.setMaxRetryAfter(5000);
+        assertTrue(policy.retryDelay(new HttpClientException("Too many requests", null, 429, 2000), 1) >= 2000);
+        assertEquals(-1, policy.retryDelay(new HttpClientException("Too many requests", null, 429, 60000), 1));
+    }
+
+    @Test
+    public void retryAfterIsParsedFromSecondsOrDate() {
+        assertEquals(-1, HttpClient.parseRetryAfter(null));
+        assertEquals(-1, HttpClient.parseRetryAfter(" "));
+        assertEquals(-1, HttpClient.parseRetryAfter("soon"));
+        assertEquals(120000, HttpClient.parseRetryAfter(" 120 "));
+        assertEquals(0, HttpClient.parseRetryAfter("-5"));
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long delay = HttpClient.parseRetryAfter(format.format(new Date(System.currentTimeMillis() + 60000)));
+        assertTrue(String.valueOf(delay), delay > 55000 && delay <= 60000);
+        assertEquals(0, HttpClient.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    @Test
+    public void budgetStartsAtTheReserveAndRefillsByTheRatio() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        // two requests earn one retry
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void budgetNeverExceedsTheReserve() {
+        RetryBudget budget = new RetryBudget(1, 2);
+        for(int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketRateLimiterTest {
+
+    @Test
+    public void burstIsAvailableAtOnce() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 3, 0, 0);
+        assertTrue(limiter.tryAcquire(100));
+        assertTrue(limiter.tryAcquire(100));
+        assertTrue(limiter.tryAcquire(100));
+        assertFalse(limiter.tryAcquire(100));
+    }
+
+    @Test
+    public void bucketRefillsAtItsRate() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(50, 1, 0, 0);
+        assertTrue(limiter.tryAcquire(0));
+        assertFalse(limiter.tryAcquire(0));
+        Thread.sleep(40);
+        assertTrue(limiter.tryAcquire(0));
+    }
+
+    @Test
+    public void waitingRequestsBorrowFromTheBucket() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, 0, 0);
+        assertTrue(delay(limiter, 0) <= 0);
+        // each request waiting for the bucket takes its permit in advance, so the next one waits longer
+        long second = delay(limiter, 0);
+        long third = delay(limiter, 0);
+        assertTrue(String.valueOf(second), second > 50 && second <= 100);
+        assertTrue(String.valueOf(third), third > 150 && third <= 200);
+        assertFalse(limiter.tryAcquire(0));
+    }
+
+    @Test
+    public void documentLargerThanTheBurstDelaysTheNextRequests() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 0, 1000, 1000);
+        assertTrue(delay(limiter, 5000) <= 0);
+        long next = delay(limiter, 1);
+        assertTrue(String.valueOf(next), next > 3900 && next <= 4001);
+    }
+
+    @Test
+    public void unlimitedQuotaNeverWaits() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(0, 0);
+        for(int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire(1000000));
+        }
+    }
+
+    @Test
+    public void clientsOfAKeyShareOneLimiter() {
+        try {
+            RateLimiter limiter = RateLimiters.getOrCreate("shared-key", 1, 0);
+            assertSame(limiter, RateLimiters.forApiKey("shared-key"));
+            // the quota of the first call stays
+            assertSame(limiter, RateLimiters.getOrCreate("shared-key", 100, 0));
+            assertTrue(limiter.tryAcquire(0));
+            assertFalse(RateLimiters.forApiKey("shared-key").tryAcquire(0));
+        } finally {
+            RateLimiters.unregister("shared-key");
+        }
+    }
+
+    /**
+    * @return the time in milliseconds before the permits are granted
+    */
+    private static long delay(TokenBucketRateLimiter limiter, long characters) {
+        return TimeUnit.NANOSECONDS.toMillis(limiter.reserve(characters, false));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@RunWith(Parameterized.class)
+public class TransportTest {
+
+    @Parameters
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][] {
+                {UrlConnectionTransport.class},
+                {ApacheHttpClient4Transport.class},
+                {ApacheHttpClient5Transport.class},
+                {Http2Transport.class}});
+    }
+
+    private final Class<? extends Transport> transportClass;
+
+    private Transport transport;
+
+    private HttpServer server;
+
+    private ConnectionPool pool;
+
+    public TransportTest(Class<? extends Transport> transportClass) {
+        this.transportClass = transportClass;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/echo", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+                exchange.getResponseHeaders().add("X-Method", exchange.getRequestMethod());
+                exchange.getResponseHeaders().add("X-Test", String.valueOf(exchange.getRequestHeaders().getFirst("X-Test")));
+                exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "{\"message\":\"not found\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(404, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        transport = transportClass.getDeclaredConstructor().newInstance();
+        pool = new ConnectionPool(2, ConnectionPool.DEFAULT_TLS_SESSION_TIMEOUT);
+        pool.setTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void bufferedBodyIsSent() throws IOException {
+        byte[] content = "{\"text\":\"buffered\"}".getBytes(StandardCharsets.UTF_8);
+        TransportResponse response = pool.execute(request("POST", content, null));
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("POST", response.getHeader("x-method"));
+            assertEquals("yes", response.getHeader("X-Test"));
+            assertArrayEquals(content, IOUtils.toByteArray(response.getBody()));
+        } finally {
+            response.close();
+        }
+        assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void streamedBodyIsWrittenByTheCaller() throws IOException {
+        final byte[] chunk = new byte[20000];
+        Arrays.fill(chunk, (byte)'s');
+        final Thread caller = Thread.currentThread();
+        final List<Thread> writers = new ArrayList<>();
+        TransportResponse response = pool.execute(request("POST", null, new TransportRequest.BodyWriter() {
+            public void writeTo(OutputStream out) throws IOException {
+                writers.add(Thread.currentThread());
+                for(int i = 0; i < 3; i++) {
+                    out.write(chunk);
+                }
+            }
+        }));
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(3 * chunk.length, IOUtils.toByteArray(response.getBody()).length);
+        } finally {
+            response.close();
+        }
+        assertEquals(Arrays.asList(caller), writers);
+        assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void errorBodyIsReadable() throws IOException {
+        TransportResponse response = pool.execute(request("GET", null, null));
+        try {
+            assertEquals(404, response.getStatusCode());
+            assertTrue(response.getHeader("Content-Type").contains("json"));
+            assertEquals("{\"message\":\"not found\"}",
+                    IOUtils.toString(response.getBody(), StandardCharsets.UTF_8.name()));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void connectionIsLeasedUntilTheResponseIsClosed() throws IOException {
+        TransportResponse response = pool.execute(request("POST", new byte[] {'1'}, null));
+        assertEquals(1, pool.getLeasedConnections());
+        response.close();
+        response.close();
+        assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void abortedRequestIsNotSent() throws IOException {
+        TransportRequest request = request("POST", new byte[] {'1'}, null);
+        request.abort();
+        assertTrue(request.isAborted());
+        try {
+            pool.execute(request).close();
+            fail("An aborted request was sent");
+        } catch(IOException e) {
+            // expected
+        }
+        assertEquals(0, pool.getLeasedConnections());
+    }
+
+    private TransportRequest request(String method, byte[] content, TransportRequest.BodyWriter body)
+            throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        headers.add(new String[] {"X-Test", "yes"});
+        headers.add(new String[] {"Content-Length", "1"});
+        String path = "GET".equals(method) ? "/missing" : "/echo";
+        return new TransportRequest(new URL("http://localhost:" + server.getAddress().getPort() + path),
+                method, headers, content, body, null);
+    }
+}
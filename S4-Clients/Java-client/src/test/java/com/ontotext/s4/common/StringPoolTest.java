@@ -0,0 +1,103 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.AnnotatedDocumentParser;
+
+public class StringPoolTest {
+
+    @Test
+    public void returnsTheSameInstanceForEqualStrings() {
+        StringPool pool = new StringPool();
+        String first = pool.intern(new String("http://dbpedia.org/ontology/Person"));
+        char[] chars = "<http://dbpedia.org/ontology/Person>".toCharArray();
+
+        assertSame(first, pool.intern(new String("http://dbpedia.org/ontology/Person")));
+        assertSame(first, pool.intern(chars, 1, chars.length - 2));
+        assertEquals("dbo", pool.intern("xdbox".toCharArray(), 1, 3));
+    }
+
+    @Test
+    public void staysWithinItsCapacity() {
+        StringPool pool = new StringPool(100, 8);
+        assertEquals(128, pool.getCapacity());
+        String hot = pool.intern(new String("Person"));
+        for(int i = 0; i < 10000; i++) {
+            pool.intern("value" + i);
+            // a value in use keeps its place against the values seen once
+            assertSame(hot, pool.intern(new String("Person")));
+        }
+        String longValue = "longer than eight";
+        assertNotSame(pool.intern(new String(longValue)), pool.intern(new String(longValue)));
+    }
+
+    @Test
+    public void givesEqualStringsUnderContention() throws Exception {
+        final StringPool pool = new StringPool(16, 64);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for(int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for(int i = 0; i < 100000; i++) {
+                            String value = "v" + (i % 50);
+                            if(!value.equals(pool.intern(value))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for(Future<Boolean> result : results) {
+                assertEquals(true, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sharesFeatureValuesAcrossDocuments() throws Exception {
+        StringPool pool = new StringPool();
+        byte[] json = ("{\"text\":\"Obama\",\"entities\":{\"Person\":[{\"indices\":[0,5],"
+                + "\"class\":\"http://dbpedia.org/ontology/Person\",\"confidence\":0.5}]}}").getBytes("UTF-8");
+        AnnotatedDocument first = AnnotatedDocumentParser.read(new ByteArrayInputStream(json), null, pool);
+        AnnotatedDocument second = AnnotatedDocumentParser.read(new ByteArrayInputStream(json), null, pool);
+
+        Object value = first.getEntities().get("Person").get(0).getFeatures().get("class");
+        assertEquals("http://dbpedia.org/ontology/Person", value);
+        assertSame(value, second.getEntities().get("Person").get(0).getFeatures().get("class"));
+        assertEquals(0.5, second.getEntities().get("Person").get(0).getFeatures().get("confidence"));
+    }
+}
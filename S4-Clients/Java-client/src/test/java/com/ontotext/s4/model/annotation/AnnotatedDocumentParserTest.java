@@ -0,0 +1,154 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AnnotatedDocumentParserTest {
+
+    private static final String DOCUMENT = "{\"entities\":{"
+            + "\"Person\":[{\"indices\":[0,5],\"string\":\"Obama\",\"type\":\"Person\",\"inst\":\"http://dbpedia.org/resource/Barack_Obama\"}],"
+            + "\"Location\":[{\"indices\":[14,20],\"string\":\"Berlin\",\"confidence\":0.9},{\"indices\":[25,31],\"string\":\"Munich\"}]},"
+            + "\"text\":\"Obama visited Berlin and Munich\","
+            + "\"images\":[{\"url\":\"http://example.com/a.png\"}]}";
+
+    @Test
+    public void visitsEveryPartOfTheDocument() throws IOException {
+        final List<String> events = new ArrayList<>();
+        final List<Map<String, Object>> features = new ArrayList<>();
+        AnnotatedDocumentParser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), new AnnotationVisitor() {
+            public void visitText(String text) {
+                events.add("text " + text);
+            }
+
+            public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> annotationFeatures) {
+                events.add(type + " " + startOffset + "-" + endOffset);
+                features.add(new LinkedHashMap<>(annotationFeatures));
+            }
+
+            public void visitFeature(String name, JsonNode value) {
+                events.add(name + " " + value.size());
+            }
+
+            public void visitEnd() {
+                events.add("end");
+            }
+        });
+
+        assertEquals("[Person 0-5, Location 14-20, Location 25-31, text Obama visited Berlin and Munich, images 1, end]",
+                events.toString());
+        assertEquals("Obama", features.get(0).get("string"));
+        assertEquals("http://dbpedia.org/resource/Barack_Obama", features.get(0).get("inst"));
+        assertEquals(0.9, features.get(1).get("confidence"));
+        assertEquals(1, features.get(2).size());
+    }
+
+    @Test
+    public void matchesTheDocumentModel() throws IOException {
+        final Map<String, List<Annotation>> entities = new LinkedHashMap<>();
+        AnnotatedDocumentParser.parse(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), new AnnotationVisitor() {
+            public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> features) {
+                if(!entities.containsKey(type)) {
+                    entities.put(type, new ArrayList<Annotation>());
+                }
+                entities.get(type).add(new Annotation(startOffset, endOffset, new LinkedHashMap<>(features)));
+            }
+        });
+
+        AnnotatedDocument document = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(DOCUMENT, AnnotatedDocument.class);
+        assertEquals(document.getEntities().keySet(), entities.keySet());
+        for(String type : entities.keySet()) {
+            for(int i = 0; i < entities.get(type).size(); i++) {
+                Annotation expected = document.getEntities().get(type).get(i);
+                Annotation actual = entities.get(type).get(i);
+                assertEquals(expected.getStartOffset(), actual.getStartOffset());
+                assertEquals(expected.getEndOffset(), actual.getEndOffset());
+                assertEquals(expected.getFeatures(), actual.getFeatures());
+            }
+        }
+    }
+
+    @Test
+    public void readsTheSameDocumentAsTheDocumentModel() throws IOException {
+        String json = DOCUMENT.replace("\"Location\":", "\"Organization\":[],\"Location\":");
+        AnnotatedDocument expected = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(json, AnnotatedDocument.class);
+        AnnotatedDocument actual = AnnotatedDocumentParser.read(new ByteArrayInputStream(json.getBytes("UTF-8")), null);
+
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getEntities().keySet(), actual.getEntities().keySet());
+        assertTrue(actual.getEntities().get("Organization").isEmpty());
+        assertEquals(expected.getEntities().get("Location").get(1).getFeatures(),
+                actual.getEntities().get("Location").get(1).getFeatures());
+        assertEquals(1, actual.getImages().size());
+    }
+
+    @Test
+    public void skipsWhatTheProjectionLeavesOut() throws IOException {
+        AnnotationProjection projection = new AnnotationProjection();
+        projection.setAnnotationTypes("Location");
+        projection.setFeatures("string");
+        projection.setKeepText(false);
+        projection.setKeepOtherFeatures(false);
+        AnnotatedDocument document = AnnotatedDocumentParser.read(
+                new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), projection);
+
+        assertNull(document.getText());
+        assertNull(document.getImages());
+        assertNull(document.getOtherFeatures());
+        assertEquals(Collections.singleton("Location"), document.getEntities().keySet());
+        Annotation berlin = document.getEntities().get("Location").get(0);
+        assertEquals(14, berlin.getStartOffset());
+        assertEquals(20, berlin.getEndOffset());
+        assertEquals(Collections.<String, Object>singletonMap("string", "Berlin"), berlin.getFeatures());
+    }
+
+    @Test
+    public void projectsParsedDocuments() throws IOException {
+        AnnotationProjection projection = new AnnotationProjection();
+        projection.setAnnotationTypes("Location");
+        projection.setFeatures("string");
+        projection.setKeepText(false);
+        AnnotatedDocument document = projection.project(AnnotatedDocumentParser.read(
+                new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null));
+
+        assertNull(document.getText());
+        assertEquals(1, document.getImages().size());
+        assertEquals(Collections.singleton("Location"), document.getEntities().keySet());
+        assertEquals(Collections.<String, Object>singletonMap("string", "Berlin"),
+                document.getEntities().get("Location").get(0).getFeatures());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AnnotationIndexTest {
+
+    private static Annotation annotation(long start, long end) {
+        return new Annotation(start, end, new HashMap<String, Object>());
+    }
+
+    private static Map<String, List<Annotation>> randomEntities(Random random) {
+        Map<String, List<Annotation>> entities = new LinkedHashMap<>();
+        for(String type : new String[] {"Sentence", "Token", "Person"}) {
+            List<Annotation> annotations = new ArrayList<>();
+            for(int i = 0; i < 300; i++) {
+                long start = random.nextInt(1000);
+                annotations.add(annotation(start, start + random.nextInt(type.equals("Sentence") ? 200 : 20)));
+            }
+            entities.put(type, annotations);
+        }
+        return entities;
+    }
+
+    @Test
+    public void answersLikeALinearScan() {
+        Random random = new Random(42);
+        Map<String, List<Annotation>> entities = randomEntities(random);
+        AnnotationIndex index = AnnotationIndex.of(entities);
+        assertEquals(900, index.size());
+
+        for(int query = 0; query < 500; query++) {
+            long start = random.nextInt(1100);
+            long end = start + random.nextInt(100);
+            List<Annotation> overlapping = new ArrayList<>();
+            List<Annotation> covering = new ArrayList<>();
+            List<Annotation> containedIn = new ArrayList<>();
+            for(List<Annotation> annotations : entities.values()) {
+                for(Annotation a : annotations) {
+                    if(a.getStartOffset() < end && a.getEndOffset() > start) {
+                        overlapping.add(a);
+                    }
+                    if(a.getStartOffset() <= start && a.getEndOffset() >= end) {
+                        covering.add(a);
+                    }
+                    if(a.getStartOffset() >= start && a.getEndOffset() <= end) {
+                        containedIn.add(a);
+                    }
+                }
+            }
+            assertSameAnnotations(overlapping, index.overlapping(start, end));
+            assertSameAnnotations(covering, index.covering(start, end));
+            assertSameAnnotations(containedIn, index.containedIn(start, end));
+        }
+    }
+
+    @Test
+    public void findsTheNearestAnnotation() {
+        Map<String, List<Annotation>> entities = new HashMap<>();
+        List<Annotation> annotations = new ArrayList<>();
+        Annotation first = annotation(10, 20);
+        Annotation second = annotation(30, 35);
+        Annotation inner = annotation(31, 33);
+        annotations.add(second);
+        annotations.add(first);
+        annotations.add(inner);
+        entities.put("Token", annotations);
+        AnnotationIndex index = AnnotationIndex.of(entities);
+
+        assertSame(first, index.nearest(0));
+        assertSame(first, index.nearest(24));
+        assertSame(second, index.nearest(26));
+        assertSame(inner, index.nearest(32));
+        // spans are half-open, an annotation does not contain the offset it ends at
+        assertSame(second, index.nearest(33));
+        assertSame(first, index.nearest(20));
+        assertSame(second, index.nearest(100));
+        assertSame(first, index.nearestBefore(29));
+        assertNull(index.nearestBefore(19));
+        assertSame(second, index.nearestAfter(21));
+        assertNull(AnnotationIndex.of(null).nearest(5));
+    }
+
+    @Test
+    public void walksAllTypesInTextOrder() {
+        AnnotatedDocument document = new AnnotatedDocument();
+        document.setEntities(randomEntities(new Random(7)));
+
+        long previous = -1;
+        int count = 0;
+        HashSet<String> types = new HashSet<>();
+        for(Map.Entry<String, Annotation> entry : document.getIndex()) {
+            assertTrue(entry.getValue().getStartOffset() >= previous);
+            assertTrue(document.getEntities().get(entry.getKey()).contains(entry.getValue()));
+            previous = entry.getValue().getStartOffset();
+            types.add(entry.getKey());
+            count++;
+        }
+        assertEquals(900, count);
+        assertEquals(3, types.size());
+        assertSame(document.getIndex(), document.getIndex());
+    }
+
+    private static void assertSameAnnotations(List<Annotation> expected, List<Annotation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(Annotation annotation : expected) {
+            assertTrue(actual.contains(annotation));
+        }
+    }
+}
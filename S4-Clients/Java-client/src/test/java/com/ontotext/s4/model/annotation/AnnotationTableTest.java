@@ -0,0 +1,94 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AnnotationTableTest {
+
+    private static final String DOCUMENT = "{\"text\":\"Obama visited Berlin and Munich\",\"entities\":{"
+            + "\"Person\":[{\"indices\":[0,5],\"string\":\"Obama\",\"class\":\"dbo:Person\"}],"
+            + "\"Location\":[{\"indices\":[14,20],\"string\":\"Berlin\",\"class\":\"dbo:Place\",\"confidence\":0.9},"
+            + "{\"indices\":[25,31],\"class\":\"dbo:Place\",\"string\":\"Munich\"}],"
+            + "\"Organization\":[]},"
+            + "\"lang\":\"en\"}";
+
+    private static AnnotationTable table() throws IOException {
+        return AnnotatedDocumentParser.readTable(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null);
+    }
+
+    @Test
+    public void readsAnnotationsIntoColumns() throws IOException {
+        AnnotationTable table = table();
+
+        assertEquals("Obama visited Berlin and Munich", table.getText());
+        assertEquals("[Person, Location, Organization]", table.getTypes().toString());
+        assertEquals(2, table.size("Location"));
+        assertEquals(0, table.size("Organization"));
+        assertEquals(0, table.size("Date"));
+        assertEquals(25, table.getStartOffset("Location", 1));
+        assertEquals(31, table.getEndOffset("Location", 1));
+        assertEquals("Munich", table.getFeature("Location", 1, "string"));
+        assertEquals(0.9, table.getFeature("Location", 0, "confidence"));
+        assertNull(table.getFeature("Location", 1, "confidence"));
+        assertEquals("en", table.getOtherFeatures().get("lang").asText());
+    }
+
+    @Test
+    public void viewsMatchTheDocumentModel() throws IOException {
+        AnnotatedDocument expected = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(DOCUMENT, AnnotatedDocument.class);
+        for(AnnotationTable table : new AnnotationTable[] {table(), AnnotationTable.of(expected)}) {
+            AnnotatedDocument actual = table.toAnnotatedDocument();
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.getEntities().keySet(), actual.getEntities().keySet());
+            for(Map.Entry<String, List<Annotation>> type : expected.getEntities().entrySet()) {
+                List<Annotation> annotations = actual.getEntities().get(type.getKey());
+                assertEquals(type.getValue().size(), annotations.size());
+                for(int i = 0; i < annotations.size(); i++) {
+                    assertEquals(type.getValue().get(i).getStartOffset(), annotations.get(i).getStartOffset());
+                    assertEquals(type.getValue().get(i).getEndOffset(), annotations.get(i).getEndOffset());
+                    assertEquals(type.getValue().get(i).getFeatures(), annotations.get(i).getFeatures());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void featuresOfAViewOnlyHoldWhatTheAnnotationHas() throws IOException {
+        Map<String, Object> features = table().getAnnotations("Location").get(1).getFeatures();
+
+        assertEquals(2, features.size());
+        assertTrue(features.containsKey("class"));
+        assertFalse(features.containsKey("confidence"));
+        assertEquals("dbo:Place", features.get("class"));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class LazyAnnotatedDocumentTest {
+
+    private static final String DOCUMENT = "{\"entities\":{"
+            + "\"Person\":[{\"indices\":[0,5],\"string\":\"Obama\",\"class\":\"dbo:Person\"}],"
+            + "\"Location\":[{\"indices\":[14,20],\"string\":\"Berlin\"},{\"indices\":[25,31],\"string\":\"Munich\"}],"
+            + "\"Organization\":[]},"
+            + "\"text\":\"Obama visited \\\"Berlin\\\" and Munich\","
+            + "\"images\":[{\"image\":\"http://example.com/a.png\"}],"
+            + "\"lang\":\"en\",\"user\":{\"name\":\"someone\"}}";
+
+    @Test
+    public void decodesTheSameDocumentAsTheDocumentModel() throws IOException {
+        AnnotatedDocument expected = new ObjectMapper()
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(DOCUMENT, AnnotatedDocument.class);
+        String pretty = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(
+                new ObjectMapper().readTree(DOCUMENT));
+        for(String json : new String[] {DOCUMENT, pretty}) {
+            assertDecoded(expected, new LazyAnnotatedDocument(json.getBytes("UTF-8")));
+        }
+    }
+
+    private static void assertDecoded(AnnotatedDocument expected, LazyAnnotatedDocument actual) {
+
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getEntities().keySet(), actual.getEntities().keySet());
+        assertEquals(expected.getEntities().get("Location").get(1).getFeatures(),
+                actual.getEntities().get("Location").get(1).getFeatures());
+        assertEquals(31, actual.getEntities().get("Location").get(1).getEndOffset());
+        assertTrue(actual.getEntities().get("Organization").isEmpty());
+        assertEquals("http://example.com/a.png", actual.getImages().get(0).getImageURL());
+        assertEquals(expected.getOtherFeatures(), actual.getOtherFeatures());
+    }
+
+    @Test
+    public void decodesOnlyWhatIsRead() throws IOException {
+        // every part but the Person annotations is broken, and is only noticed when read
+        String broken = "{\"entities\":{\"Person\":[{\"indices\":[0,5]}],\"Location\":[{\"indices\":\"x\"}]},"
+                + "\"text\":\"Obama\",\"images\":{\"image\":1}}";
+        LazyAnnotatedDocument document = new LazyAnnotatedDocument(broken.getBytes("UTF-8"));
+
+        assertEquals(2, document.getEntities().size());
+        assertEquals(5, document.getEntities().get("Person").get(0).getEndOffset());
+        assertEquals("Obama", document.getText());
+        try {
+            document.getEntities().get("Location");
+            throw new AssertionError("The Location annotations were decoded");
+        } catch(IllegalStateException expected) {
+            // only decoded when read
+        }
+    }
+
+    @Test
+    public void appliesAProjectionAndKeepsChanges() throws IOException {
+        AnnotationProjection projection = new AnnotationProjection();
+        projection.setAnnotationTypes("Person", "Location");
+        projection.setFeatures("string");
+        projection.setKeepOtherFeatures(false);
+        LazyAnnotatedDocument document = new LazyAnnotatedDocument(DOCUMENT.getBytes("UTF-8"), projection);
+
+        assertEquals("[Person, Location]", document.getEntities().keySet().toString());
+        assertEquals(Collections.<String, Object>singletonMap("string", "Obama"),
+                document.getEntities().get("Person").get(0).getFeatures());
+        assertNull(document.getImages());
+        assertNull(document.getOtherFeatures());
+
+        document.getEntities().put("Date", new ArrayList<Annotation>());
+        document.getEntities().remove("Person");
+        document.setText("changed");
+        List<String> types = new ArrayList<>(document.getEntities().keySet());
+        assertEquals("[Location, Date]", types.toString());
+        assertEquals(2, document.getEntities().get("Location").size());
+        assertEquals("changed", document.getText());
+        assertFalse(document.getEntities().containsKey("Person"));
+    }
+}
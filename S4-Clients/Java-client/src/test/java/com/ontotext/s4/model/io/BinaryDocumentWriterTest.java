@@ -0,0 +1,136 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+import com.ontotext.s4.model.annotation.AnnotationVisitor;
+import com.ontotext.s4.model.classification.ClassificationCategory;
+import com.ontotext.s4.model.classification.ClassifiedDocument;
+
+public class BinaryDocumentWriterTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static String document(int number) {
+        StringBuilder json = new StringBuilder("{\"text\":\"Document " + number + "\",\"entities\":{\"Person\":[");
+        for(int i = 0; i < 50; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"indices\":[").append(i * 10).append(',').append(i * 10 + 5)
+                    .append("],\"class\":\"http://dbpedia.org/ontology/Person\",\"inst\":\"http://dbpedia.org/resource/P")
+                    .append(i % 5).append("\",\"confidence\":0.").append(i % 10).append('}');
+        }
+        return json.append("]},\"lang\":\"en\"}").toString();
+    }
+
+    private static void assertSameDocument(AnnotatedDocument expected, AnnotatedDocument actual) {
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getOtherFeatures(), actual.getOtherFeatures());
+        assertEquals(expected.getEntities().keySet(), actual.getEntities().keySet());
+        for(Map.Entry<String, List<Annotation>> type : expected.getEntities().entrySet()) {
+            List<Annotation> annotations = actual.getEntities().get(type.getKey());
+            assertEquals(type.getValue().size(), annotations.size());
+            for(int i = 0; i < annotations.size(); i++) {
+                assertEquals(type.getValue().get(i).getStartOffset(), annotations.get(i).getStartOffset());
+                assertEquals(type.getValue().get(i).getEndOffset(), annotations.get(i).getEndOffset());
+                assertEquals(type.getValue().get(i).getFeatures(), annotations.get(i).getFeatures());
+            }
+        }
+    }
+
+    @Test
+    public void readsBackTheDocumentsWritten() throws IOException {
+        AnnotatedDocument annotated = JSON.readValue(document(1), AnnotatedDocument.class);
+        List<ClassificationCategory> scores = new ArrayList<>();
+        scores.add(new ClassificationCategory("Sports", 0.7));
+        ClassifiedDocument classified = new ClassifiedDocument("Sports", scores);
+
+        ByteArrayOutputStream annotatedOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream classifiedOut = new ByteArrayOutputStream();
+        try(BinaryDocumentWriter annotatedWriter = new BinaryDocumentWriter(annotatedOut);
+                BinaryDocumentWriter classifiedWriter = new BinaryDocumentWriter(classifiedOut)) {
+            annotatedWriter.write(annotated);
+            annotatedWriter.write(annotated);
+            classifiedWriter.write(classified);
+        }
+
+        try(BinaryDocumentReader<AnnotatedDocument> reader = new BinaryDocumentReader<>(
+                new ByteArrayInputStream(annotatedOut.toByteArray()), AnnotatedDocument.class)) {
+            assertSameDocument(annotated, reader.read());
+            assertSameDocument(annotated, reader.read());
+            assertNull(reader.read());
+        }
+        try(BinaryDocumentReader<ClassifiedDocument> reader = new BinaryDocumentReader<>(
+                new ByteArrayInputStream(classifiedOut.toByteArray()), ClassifiedDocument.class)) {
+            ClassifiedDocument read = reader.read();
+            assertEquals("Sports", read.getCategory());
+            assertEquals(0.7, read.getAllScores().get(0).getScore(), 0);
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void convertsJsonIntoAFractionOfItsSize() throws IOException {
+        StringBuilder pretty = new StringBuilder("[");
+        for(int i = 0; i < 20; i++) {
+            pretty.append(i == 0 ? "" : ",").append(JSON.writerWithDefaultPrettyPrinter()
+                    .writeValueAsString(JSON.readTree(document(i))));
+        }
+        byte[] json = pretty.append(']').toString().getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(BinaryDocumentWriter writer = new BinaryDocumentWriter(out)) {
+            assertEquals(20, writer.copyJson(new ByteArrayInputStream(json)));
+        }
+        assertTrue(out.size() * 4 < json.length);
+
+        final List<String> texts = new ArrayList<>();
+        final int[] annotations = new int[1];
+        try(BinaryDocumentReader<AnnotatedDocument> reader = new BinaryDocumentReader<>(
+                new ByteArrayInputStream(out.toByteArray()), AnnotatedDocument.class)) {
+            AnnotationVisitor visitor = new AnnotationVisitor() {
+                public void visitText(String text) {
+                    texts.add(text);
+                }
+
+                public void visitAnnotation(String type, long startOffset, long endOffset, Map<String, Object> features) {
+                    annotations[0]++;
+                }
+            };
+            while(reader.read(null, null, visitor)) {
+                // every document is visited
+            }
+        }
+        assertEquals(20, texts.size());
+        assertEquals("Document 19", texts.get(19));
+        assertEquals(20 * 50, annotations[0]);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+
+public class DocumentChunkerTest {
+
+    private static final String SENTENCE = "Barack Obama met Angela Merkel in Berlin. ";
+
+    @Test
+    public void chunksCoverTheTextAndEndAtSentences() {
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            text.append(SENTENCE);
+        }
+        List<int[]> chunks = DocumentChunker.split(text.toString(), 500, 100);
+        assertEquals(0, chunks.get(0)[0]);
+        assertEquals(text.length(), chunks.get(chunks.size() - 1)[1]);
+        for(int i = 0; i < chunks.size(); i++) {
+            int[] chunk = chunks.get(i);
+            assertTrue(chunk[1] - chunk[0] <= 500);
+            if(i + 1 < chunks.size()) {
+                assertEquals('.', text.charAt(chunk[1] - 1));
+                // the next chunk starts at a sentence inside this one
+                int next = chunks.get(i + 1)[0];
+                assertTrue(next < chunk[1] && next >= chunk[1] - 100);
+                assertEquals('B', text.charAt(next));
+            }
+        }
+    }
+
+    @Test
+    public void wordsWithoutBreaksAreCut() {
+        List<int[]> chunks = DocumentChunker.split(new String(new char[1000]).replace('\0', 'x'), 300, 50);
+        assertEquals(300, chunks.get(0)[1]);
+        assertEquals(250, chunks.get(1)[0]);
+    }
+
+    @Test
+    public void mergedAnnotationsMatchTheWholeText() {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 60; i++) {
+            builder.append(SENTENCE);
+            if(i % 7 == 0) {
+                builder.append("\n\n");
+            }
+        }
+        String text = builder.toString();
+        List<int[]> chunks = DocumentChunker.split(text, 400, 80);
+        List<AnnotatedDocument> parts = new ArrayList<>();
+        for(int[] chunk : chunks) {
+            parts.add(annotate(text.substring(chunk[0], chunk[1])));
+        }
+        AnnotatedDocument merged = DocumentChunker.merge(text, chunks, parts);
+        AnnotatedDocument whole = annotate(text);
+        assertEquals(text, merged.getText());
+        for(String type : whole.getEntities().keySet()) {
+            assertEquals(offsets(whole.getEntities().get(type)), offsets(merged.getEntities().get(type)));
+        }
+    }
+
+    /**
+    * Finds the people of the text, and its sentences.
+    */
+    private static AnnotatedDocument annotate(String text) {
+        Map<String, List<Annotation>> entities = new HashMap<>();
+        List<Annotation> people = new ArrayList<>();
+        for(String name : new String[] { "Barack Obama", "Angela Merkel" }) {
+            for(int i = text.indexOf(name); i >= 0; i = text.indexOf(name, i + 1)) {
+                people.add(new Annotation(i, i + name.length(), new HashMap<String, Object>()));
+            }
+        }
+        entities.put("Person", people);
+        List<Annotation> sentences = new ArrayList<>();
+        int start = 0;
+        for(int i = text.indexOf(". "); i >= 0; i = text.indexOf(". ", i + 1)) {
+            sentences.add(new Annotation(start, i + 1, new HashMap<String, Object>()));
+            start = i + 2;
+            while(start < text.length() && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+        }
+        entities.put("Sentence", sentences);
+        return new AnnotatedDocument(text, entities, null, null);
+    }
+
+    private static List<String> offsets(List<Annotation> annotations) {
+        List<String> offsets = new ArrayList<>();
+        for(Annotation annotation : annotations) {
+            offsets.add(annotation.getStartOffset() + "-" + annotation.getEndOffset());
+        }
+        Collections.sort(offsets);
+        return offsets;
+    }
+}
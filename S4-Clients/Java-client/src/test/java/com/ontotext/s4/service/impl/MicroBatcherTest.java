@@ -0,0 +1,147 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ontotext.s4.common.DaemonThreadFactory;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.model.annotation.Annotation;
+import com.ontotext.s4.service.util.MicroBatchOptions;
+
+public class MicroBatcherTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final Executor executor = DaemonThreadFactory.newBoundedExecutor("s4-batch", 4);
+
+    /**
+    * Finds every "Obama" of the text, and one annotation over the whole text.
+    */
+    private final MicroBatcher.Annotator annotator = new MicroBatcher.Annotator() {
+        public AnnotatedDocument annotate(String text) {
+            requests.incrementAndGet();
+            Map<String, List<Annotation>> entities = new HashMap<>();
+            List<Annotation> people = new ArrayList<>();
+            for(int i = text.indexOf("Obama"); i >= 0; i = text.indexOf("Obama", i + 1)) {
+                people.add(new Annotation(i, i + 5, new HashMap<String, Object>()));
+            }
+            entities.put("Person", people);
+            List<Annotation> whole = new ArrayList<>();
+            whole.add(new Annotation(0, text.length(), new HashMap<String, Object>()));
+            entities.put("Document", whole);
+            return new AnnotatedDocument(text, entities, null, null);
+        }
+    };
+
+    @Test
+    public void documentsGetTheirOwnAnnotations() throws Exception {
+        MicroBatchOptions options = new MicroBatchOptions();
+        options.setMaxBatchDocuments(10);
+        options.setMaxDelay(1000);
+        MicroBatcher batcher = new MicroBatcher(options, annotator, executor);
+        List<Future<AnnotatedDocument>> results = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            String text = "tweet " + i + (i % 2 == 0 ? " about Obama" : " about nothing");
+            texts.add(text);
+            results.add(batcher.submit(text));
+        }
+        for(int i = 0; i < 10; i++) {
+            AnnotatedDocument document = results.get(i).get();
+            assertEquals(texts.get(i), document.getText());
+            List<Annotation> people = document.getEntities().get("Person");
+            if(i % 2 == 0) {
+                assertEquals(1, people.size());
+                assertEquals("Obama", texts.get(i).substring((int)people.get(0).getStartOffset(),
+                        (int)people.get(0).getEndOffset()));
+            } else {
+                assertTrue(people.isEmpty());
+            }
+            // reaches over the separators
+            assertTrue(document.getEntities().get("Document").isEmpty());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void batchesAreSentAfterTheDelay() throws Exception {
+        MicroBatchOptions options = new MicroBatchOptions();
+        options.setMaxDelay(20);
+        MicroBatcher batcher = new MicroBatcher(options, annotator, executor);
+        Future<AnnotatedDocument> first = batcher.submit("Obama");
+        Future<AnnotatedDocument> second = batcher.submit("Obama again");
+        assertEquals(1, first.get().getEntities().get("Person").size());
+        assertEquals(1, second.get().getEntities().get("Person").size());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void fullBatchesAreSentAtOnce() throws Exception {
+        MicroBatchOptions options = new MicroBatchOptions();
+        // two documents and their separator fill a batch
+        options.setMaxBatchLength(26);
+        options.setMaxDelay(60000);
+        MicroBatcher batcher = new MicroBatcher(options, annotator, executor);
+        List<Future<AnnotatedDocument>> results = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            results.add(batcher.submit("twelve chars"));
+        }
+        for(Future<AnnotatedDocument> result : results) {
+            assertEquals("twelve chars", result.get().getText());
+        }
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void errorsOfTheAnnotatorFailTheDocuments() throws Exception {
+        final Error error = new OutOfMemoryError("no memory left");
+        MicroBatchOptions options = new MicroBatchOptions();
+        options.setMaxDelay(20);
+        MicroBatcher batcher = new MicroBatcher(options, new MicroBatcher.Annotator() {
+            public AnnotatedDocument annotate(String text) {
+                throw error;
+            }
+        }, executor);
+        List<Future<AnnotatedDocument>> results = new ArrayList<>();
+        results.add(batcher.submit("Obama"));
+        results.add(batcher.submit("Obama again"));
+        for(Future<AnnotatedDocument> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("The annotator failed");
+            } catch(ExecutionException e) {
+                assertSame(error, e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ontotext.s4.client.ConnectionPool;
+import com.ontotext.s4.client.Http2Transport;
+import com.ontotext.s4.client.RateLimiter;
+import com.ontotext.s4.client.RetryPolicy;
+import com.ontotext.s4.model.annotation.AnnotatedDocument;
+import com.ontotext.s4.service.S4AnnotationClient;
+import com.ontotext.s4.service.ServiceClientsFactory;
+import com.ontotext.s4.service.util.SupportedMimeType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class S4AbstractClientImplTest {
+
+    private HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger permits = new AtomicInteger();
+
+    private final AtomicInteger asyncPermits = new AtomicInteger();
+
+    private final AtomicLong characters = new AtomicLong();
+
+    /**
+    * Counts the permits taken, without ever making a request wait.
+    */
+    private final RateLimiter limiter = new RateLimiter() {
+        public void acquire(long count) {
+            tryAcquire(count);
+        }
+
+        public boolean tryAcquire(long count) {
+            permits.incrementAndGet();
+            characters.addAndGet(count);
+            return true;
+        }
+
+        public CompletableFuture<Void> acquireAsync(long count) {
+            asyncPermits.incrementAndGet();
+            tryAcquire(count);
+            return CompletableFuture.completedFuture(null);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        // the first request is throttled, the next ones succeed
+        server.createContext("/throttled", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getRequestBody().close();
+                byte[] content = (requests.incrementAndGet() == 1
+                        ? "{\"message\":\"Too many requests\"}"
+                        : "{\"text\":\"Barack Obama\",\"entities\":{}}").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(requests.get() == 1 ? 429 : 200, content.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void everyAsyncAttemptTakesPermitsWithoutWaiting() throws Exception {
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/throttled");
+        ConnectionPool pool = new ConnectionPool();
+        pool.setTransport(new Http2Transport());
+        ConnectionPool.setShared(url, pool);
+        S4AnnotationClient client = ServiceClientsFactory.createAnnotationClient(url, "", "");
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(1);
+        client.setRetryPolicy(policy);
+        client.setRateLimiter(limiter);
+
+        AnnotatedDocument document = client.annotateDocumentAsync("Barack Obama", SupportedMimeType.PLAINTEXT)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals("Barack Obama", document.getText());
+        assertEquals(2, requests.get());
+        assertEquals(2, asyncPermits.get());
+        assertEquals(2, permits.get());
+        pool.getTransport().close();
+    }
+
+    @Test
+    public void everyAttemptTakesPermits() throws Exception {
+        S4AnnotationClient client = ServiceClientsFactory.createAnnotationClient(
+                new URL("http://localhost:" + server.getAddress().getPort() + "/throttled"), "", "");
+        RetryPolicy policy = new RetryPolicy();
+        policy.setInitialBackoff(1);
+        client.setRetryPolicy(policy);
+        client.setRateLimiter(limiter);
+
+        AnnotatedDocument document = client.annotateDocument("Barack Obama", SupportedMimeType.PLAINTEXT);
+        assertEquals("Barack Obama", document.getText());
+        assertEquals(2, requests.get());
+        assertEquals(2, permits.get());
+        assertEquals(2 * "Barack Obama".length(), characters.get());
+    }
+}
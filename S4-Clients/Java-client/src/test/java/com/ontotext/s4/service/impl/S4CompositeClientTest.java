@@ -0,0 +1,231 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ontotext.s4.service.S4AnnotationClient;
+import com.ontotext.s4.service.S4CompositeClient;
+import com.ontotext.s4.service.ServiceClientsFactory;
+import com.ontotext.s4.service.util.CompositeResult;
+import com.ontotext.s4.service.util.PreparedServiceRequest;
+import com.ontotext.s4.service.util.S4ServiceClientException;
+import com.ontotext.s4.service.util.ServiceRequest;
+import com.ontotext.s4.service.util.SupportedMimeType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class S4CompositeClientTest {
+
+    /**
+    * The time in milliseconds for which a handler waits for the requests of the other services.
+    */
+    private static final long ARRIVAL_TIMEOUT = 10000;
+
+    private HttpServer server;
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+    /**
+    * Counts the requests which must reach the server before any of them is answered.
+    */
+    private volatile CountDownLatch arrivals = new CountDownLatch(0);
+
+    /**
+    * Holds back the response of the slow service until the test is over.
+    */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/news", handler(200,
+                "{\"text\":\"Barack Obama\",\"entities\":{\"Person\":[{\"string\":\"Barack Obama\",\"indices\":[0,12]}]}}"));
+        server.createContext("/sbt", handler(200,
+                "{\"text\":\"Barack Obama\",\"entities\":{\"Keyphrase\":[{\"string\":\"Obama\",\"indices\":[7,12]}]}}"));
+        server.createContext("/classifier", handler(200,
+                "{\"category\":\"politics\",\"allScores\":[{\"label\":\"politics\",\"score\":0.9}]}"));
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(ARRIVAL_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, "{\"text\":\"\",\"entities\":{}}");
+            }
+        });
+        server.createContext("/bad", handler(400, "{\"message\":\"Unsupported document\"}"));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void servicesAreCalledConcurrentlyAndMerged() throws Exception {
+        S4CompositeClient client = ServiceClientsFactory.createCompositeClient(
+                annotationClients("news", "sbt"), ServiceClientsFactory.createClassificationClient(url("classifier"), "", ""));
+
+        // no service answers before all three are called
+        arrivals = new CountDownLatch(3);
+        CompositeResult result = client.processDocument("Barack Obama", SupportedMimeType.PLAINTEXT);
+
+        assertEquals("Barack Obama", result.getText());
+        assertEquals(1, result.getEntities("news").get("Person").size());
+        assertEquals(1, result.getEntities("sbt").get("Keyphrase").size());
+        assertNull(result.getEntities("twitie"));
+        assertEquals("politics", result.getCategory());
+        assertEquals(1, result.getScores().size());
+
+        // every service got the same body
+        assertEquals(3, bodies.size());
+        for(String body : bodies) {
+            assertEquals(bodies.get(0), body);
+        }
+    }
+
+    @Test
+    public void slowServiceTimesOut() throws Exception {
+        S4CompositeClient client = ServiceClientsFactory.createCompositeClient(annotationClients("news", "slow"), null);
+        client.setTimeout(300);
+
+        // the slow service only answers after the test, unless the timeout is ignored
+        try {
+            client.processDocument("Barack Obama", SupportedMimeType.PLAINTEXT);
+            fail("The slow service did not time out");
+        } catch(S4ServiceClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("slow"));
+            assertFalse(e.getMessage(), e.getMessage().contains("news"));
+        }
+    }
+
+    @Test
+    public void failedServiceFailsTheDocument() throws Exception {
+        S4CompositeClient client = ServiceClientsFactory.createCompositeClient(annotationClients("bad", "news"), null);
+        try {
+            client.processDocument("Barack Obama", SupportedMimeType.PLAINTEXT);
+            fail("The failure of a service was not reported");
+        } catch(S4ServiceClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("bad"));
+        }
+    }
+
+    @Test
+    public void failureIsReportedBeforeTheSlowerServicesAnswer() throws Exception {
+        S4CompositeClient client = ServiceClientsFactory.createCompositeClient(annotationClients("slow", "bad"), null);
+        // the slow service answers after the test, so waiting for it would run into the timeout
+        client.setTimeout(ARRIVAL_TIMEOUT / 2);
+        try {
+            client.processDocument("Barack Obama", SupportedMimeType.PLAINTEXT);
+            fail("The failure of a service was not reported");
+        } catch(S4ServiceClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("bad"));
+        }
+    }
+
+    @Test
+    public void preparedRequestIsSerializedAsThePlainOne() throws Exception {
+        ServiceRequest rq = new ServiceRequest("Barack \"Obama\" é", SupportedMimeType.PLAINTEXT);
+        rq.setImageTagging(true);
+        PreparedServiceRequest prepared = new PreparedServiceRequest(rq);
+        ObjectMapper mapper = new ObjectMapper();
+
+        assertEquals(mapper.writeValueAsString(rq), mapper.writeValueAsString(prepared));
+        assertEquals(mapper.readTree(prepared.getJson()), mapper.readTree(mapper.writeValueAsBytes(prepared)));
+        assertEquals(rq.getDocument(), prepared.getDocument());
+        try {
+            prepared.setDocument("changed");
+            fail("A prepared request was changed");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private Map<String, S4AnnotationClient> annotationClients(String... services) throws Exception {
+        Map<String, S4AnnotationClient> clients = new LinkedHashMap<>();
+        for(String service : services) {
+            clients.put(service, ServiceClientsFactory.createAnnotationClient(url(service), "", ""));
+        }
+        return clients;
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/" + path);
+    }
+
+    /**
+    * Answers once all the expected {@link #arrivals} have reached the server.
+    */
+    private HttpHandler handler(final int status, final String response) {
+        return new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+                CountDownLatch arrivals = S4CompositeClientTest.this.arrivals;
+                arrivals.countDown();
+                boolean arrived = false;
+                try {
+                    arrived = arrivals.await(ARRIVAL_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if(arrived) {
+                    respond(exchange, status, response);
+                } else {
+                    respond(exchange, 409, "{\"message\":\"The services were not called concurrently\"}");
+                }
+            }
+        };
+    }
+
+    private static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] content = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, content.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallsForAKeyShareOneCall() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "response";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return flights.execute("key", call);
+                }
+            }));
+            started.await();
+            for(int i = 0; i < 7; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return flights.execute("key", call);
+                    }
+                }));
+            }
+            while(flights.getCoalesced() < 7) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for(Future<String> result : results) {
+                assertEquals("response", result.get());
+            }
+            assertEquals(1, calls.get());
+            // the key is forgotten once the call ends
+            flights.execute("key", call);
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitingCallersOutliveACancelledCall() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch never = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            public String call() throws Exception {
+                if(calls.incrementAndGet() == 1) {
+                    started.countDown();
+                    // the first caller is cancelled while it waits for the service
+                    never.await();
+                }
+                release.await();
+                return "response";
+            }
+        };
+        Callable<String> execute = new Callable<String>() {
+            public String call() throws Exception {
+                return flights.execute("key", call);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = executor.submit(execute);
+            started.await();
+            List<Future<String>> results = new ArrayList<>();
+            for(int i = 0; i < 3; i++) {
+                results.add(executor.submit(execute));
+            }
+            while(flights.getCoalesced() < 3) {
+                Thread.sleep(5);
+            }
+            first.cancel(true);
+            // one of the waiting callers makes the call again, the other two join it
+            while(calls.get() < 2 || flights.getCoalesced() < 5) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for(Future<String> result : results) {
+                assertEquals("response", result.get());
+            }
+            assertEquals(2, calls.get());
+            assertEquals(5, flights.getCoalesced());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresAreRethrown() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        try {
+            flights.execute("key", new Callable<String>() {
+                public String call() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * S4 Java client library
+ * Copyright 2016 Ontotext AD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ontotext.s4.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ontotext.s4.client.HttpClient;
+
+public class BatchResultsTest {
+
+    private HttpClient client;
+
+    private final AtomicInteger read = new AtomicInteger();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        client = new HttpClient(new URL("http://localhost:1/"), "", "");
+    }
+
+    @Test
+    public void orderedResultsFollowTheRequests() {
+        BatchResults<String> results = new BatchResults<>(requests(50), new BatchOptions(4, true), client, processor());
+        int index = 0;
+        while(results.hasNext()) {
+            BatchResult<String> result = results.next();
+            assertEquals(index, result.getIndex());
+            if(index % 10 == 3) {
+                assertFalse(result.isSuccessful());
+                assertNull(result.getResult());
+            } else {
+                assertEquals("doc" + index, result.get());
+            }
+            index++;
+        }
+        assertEquals(50, index);
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void unorderedResultsCoverTheRequests() {
+        BatchResults<String> results = new BatchResults<>(requests(50), new BatchOptions(4, false), client, processor());
+        Set<Long> seen = new HashSet<>();
+        while(results.hasNext()) {
+            seen.add(results.next().getIndex());
+        }
+        assertEquals(50, seen.size());
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void requestsAreReadOnlyAsResultsAreTaken() throws Exception {
+        BatchOptions options = new BatchOptions(2, true);
+        options.setBufferSize(3);
+        BatchResults<String> results = new BatchResults<>(requests(100), options, client, processor());
+        results.next();
+        Thread.sleep(100);
+        // the taken result plus the window of two in flight and three buffered
+        assertTrue(read.get() <= 6);
+        results.close();
+        assertFalse(results.hasNext());
+    }
+
+    private Iterator<ServiceRequest> requests(int count) {
+        List<ServiceRequest> requests = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            requests.add(new ServiceRequest("doc" + i, SupportedMimeType.PLAINTEXT));
+        }
+        final Iterator<ServiceRequest> iterator = requests.iterator();
+        return new Iterator<ServiceRequest>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            public ServiceRequest next() {
+                read.incrementAndGet();
+                return iterator.next();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private BatchResults.Processor<String> processor() {
+        return new BatchResults.Processor<String>() {
+            public String process(ServiceRequest request) {
+                int now = running.incrementAndGet();
+                synchronized(maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    String document = request.getDocument();
+                    // later requests complete first, so the order has to be restored
+                    Thread.sleep(20 - Integer.parseInt(document.substring(3)) % 5 * 4);
+                    if(document.endsWith("3")) {
+                        throw new IllegalStateException("Failed " + document);
+                    }
+                    return document;
+                } catch(InterruptedException e) {
+                    throw new S4ServiceClientException("Interrupted", e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+    }
+}
@@ -121,8 +121,7 @@ public class ThreadClient implements Runnable {
 
 						// log result
 						try {
-							String result = Util.convertSreamToString(annotatedDocument);
-							saveFile(result, changeDataFolder(currentFile));
+							saveFile(annotatedDocument, changeDataFolder(currentFile));
 
 							// log result
 							// logger.debug(result);
@@ -163,7 +162,12 @@ public class ThreadClient implements Runnable {
 	}
 
 	public void saveFile(InputStream text, File file) throws IOException {
-		saveFile(Util.convertSreamToString(text), file);
+		// stream the response to disk instead of holding it in memory
+		try {
+			FileUtils.copyInputStreamToFile(text, file);
+		} finally {
+			text.close();
+		}
 	}
 
 	public void saveFile(String text, File file) throws IOException {